@@ -17,6 +17,7 @@ import com.willblaschko.android.alexa.AlexaManager;
 import com.willblaschko.android.alexa.audioplayer.AlexaAudioPlayer;
 import com.willblaschko.android.alexa.callbacks.AsyncCallback;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsItemDispatcher;
 import com.willblaschko.android.alexa.interfaces.AvsResponse;
 import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem;
 import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayContentItem;
@@ -34,6 +35,7 @@ import com.willblaschko.android.alexa.interfaces.speaker.AvsSetMuteItem;
 import com.willblaschko.android.alexa.interfaces.speaker.AvsSetVolumeItem;
 import com.willblaschko.android.alexa.interfaces.speechrecognizer.AvsExpectSpeechItem;
 import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
+import com.willblaschko.android.alexa.utility.InteractionTracer;
 import com.willblaschko.android.alexavoicelibrary.actions.BaseListenerFragment;
 
 import java.util.ArrayList;
@@ -58,8 +60,11 @@ public abstract class BaseActivity extends AppCompatActivity implements BaseList
     private AlexaManager alexaManager;
     private AlexaAudioPlayer audioPlayer;
     private List<AvsItem> avsQueue = new ArrayList<>();
+    private AvsItemDispatcher queueDispatcher = new AvsItemDispatcher();
 
     private long startTime = 0;
+    //the interaction our queued items came from, its trace is finished once they've all been handled
+    private String dialogRequestId;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -106,6 +111,8 @@ public abstract class BaseActivity extends AppCompatActivity implements BaseList
         //Remove the current item and check for more items once we've finished playing
         audioPlayer.addCallback(alexaAudioPlayerCallback);
 
+        registerQueueHandlers();
+
         //open our downchannel
         //alexaManager.sendOpenDownchannelDirective(requestCallback);
 
@@ -263,6 +270,11 @@ public abstract class BaseActivity extends AppCompatActivity implements BaseList
                     response.remove(i);
                 }
             }
+            for(AvsItem item : response){
+                if(item.getDialogRequestId() != null){
+                    dialogRequestId = item.getDialogRequestId();
+                }
+            }
             Log.i(TAG, "Adding "+response.size()+" items to our queue");
             if(BuildConfig.DEBUG){
                 for (int i = 0; i < response.size(); i++){
@@ -289,6 +301,8 @@ public abstract class BaseActivity extends AppCompatActivity implements BaseList
         //if we're out of things, hang up the phone and move on
         if (avsQueue.size() == 0) {
             setState(STATE_FINISHED);
+            InteractionTracer.getInstance().finish(dialogRequestId);
+            dialogRequestId = null;
             new Handler(Looper.getMainLooper()).post(new Runnable() {
                 @Override
                 public void run() {
@@ -299,92 +313,168 @@ public abstract class BaseActivity extends AppCompatActivity implements BaseList
             return;
         }
 
-        final AvsItem current = avsQueue.get(0);
+        AvsItem current = avsQueue.get(0);
 
         Log.i(TAG, "Item type " + current.getClass().getName());
 
-        if (current instanceof AvsPlayRemoteItem) {
-            //play a URL
-            if (!audioPlayer.isPlaying()) {
-                audioPlayer.playItem((AvsPlayRemoteItem) current);
-            }
-        } else if (current instanceof AvsPlayContentItem) {
-            //play a URL
-            if (!audioPlayer.isPlaying()) {
-                audioPlayer.playItem((AvsPlayContentItem) current);
+        queueDispatcher.dispatch(current);
+    }
+
+    /**
+     * Set up the handling for each type of item that can reach the front of our queue, see checkQueue()
+     */
+    private void registerQueueHandlers(){
+        queueDispatcher.register(AvsPlayRemoteItem.class, new AvsItemDispatcher.Handler<AvsPlayRemoteItem>() {
+            @Override
+            public void handle(AvsPlayRemoteItem item) {
+                //play a URL
+                if (!audioPlayer.isPlaying()) {
+                    audioPlayer.playItem(item);
+                }
             }
-        } else if (current instanceof AvsSpeakItem) {
-            //play a sound file
-            if (!audioPlayer.isPlaying()) {
-                audioPlayer.playItem((AvsSpeakItem) current);
+        });
+        queueDispatcher.register(AvsPlayContentItem.class, new AvsItemDispatcher.Handler<AvsPlayContentItem>() {
+            @Override
+            public void handle(AvsPlayContentItem item) {
+                //play a URL
+                if (!audioPlayer.isPlaying()) {
+                    audioPlayer.playItem(item);
+                }
             }
-            setState(STATE_SPEAKING);
-        } else if (current instanceof AvsStopItem) {
-            //stop our play
-            audioPlayer.stop();
-            avsQueue.remove(current);
-        } else if (current instanceof AvsReplaceAllItem) {
-            //clear all items
-            //mAvsItemQueue.clear();
-            audioPlayer.stop();
-            avsQueue.remove(current);
-        } else if (current instanceof AvsReplaceEnqueuedItem) {
-            //clear all items
-            //mAvsItemQueue.clear();
-            avsQueue.remove(current);
-        } else if (current instanceof AvsExpectSpeechItem) {
-
-            //listen for user input
-            audioPlayer.stop();
-            avsQueue.clear();
-            startListening();
-        } else if (current instanceof AvsSetVolumeItem) {
-            //set our volume
-            setVolume(((AvsSetVolumeItem) current).getVolume());
-            avsQueue.remove(current);
-        } else if(current instanceof AvsAdjustVolumeItem){
-            //adjust the volume
-            adjustVolume(((AvsAdjustVolumeItem) current).getAdjustment());
-            avsQueue.remove(current);
-        } else if(current instanceof AvsSetMuteItem){
-            //mute/unmute the device
-            setMute(((AvsSetMuteItem) current).isMute());
-            avsQueue.remove(current);
-        }else if(current instanceof AvsMediaPlayCommandItem){
-            //fake a hardware "play" press
-            sendMediaButton(this, KeyEvent.KEYCODE_MEDIA_PLAY);
-            Log.i(TAG, "Media play command issued");
-            avsQueue.remove(current);
-        }else if(current instanceof AvsMediaPauseCommandItem){
-            //fake a hardware "pause" press
-            sendMediaButton(this, KeyEvent.KEYCODE_MEDIA_PAUSE);
-            Log.i(TAG, "Media pause command issued");
-            avsQueue.remove(current);
-        }else if(current instanceof AvsMediaNextCommandItem){
-            //fake a hardware "next" press
-            sendMediaButton(this, KeyEvent.KEYCODE_MEDIA_NEXT);
-            Log.i(TAG, "Media next command issued");
-            avsQueue.remove(current);
-        }else if(current instanceof AvsMediaPreviousCommandItem){
-            //fake a hardware "previous" press
-            sendMediaButton(this, KeyEvent.KEYCODE_MEDIA_PREVIOUS);
-            Log.i(TAG, "Media previous command issued");
-            avsQueue.remove(current);
-        }else if(current instanceof AvsResponseException){
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    new AlertDialog.Builder(BaseActivity.this)
-                            .setTitle("Error")
-                            .setMessage(((AvsResponseException) current).getDirective().getPayload().getCode() + ": " + ((AvsResponseException) current).getDirective().getPayload().getDescription())
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
+        });
+        //also handles AvsPlayAudioItem
+        queueDispatcher.register(AvsSpeakItem.class, new AvsItemDispatcher.Handler<AvsSpeakItem>() {
+            @Override
+            public void handle(AvsSpeakItem item) {
+                //play a sound file
+                if (!audioPlayer.isPlaying()) {
+                    audioPlayer.playItem(item);
                 }
-            });
-
-            avsQueue.remove(current);
-            checkQueue();
-        }
+                setState(STATE_SPEAKING);
+            }
+        });
+        queueDispatcher.register(AvsStopItem.class, new AvsItemDispatcher.Handler<AvsStopItem>() {
+            @Override
+            public void handle(AvsStopItem item) {
+                //stop our play
+                audioPlayer.stop();
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsReplaceAllItem.class, new AvsItemDispatcher.Handler<AvsReplaceAllItem>() {
+            @Override
+            public void handle(AvsReplaceAllItem item) {
+                //clear all items
+                //mAvsItemQueue.clear();
+                audioPlayer.stop();
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsReplaceEnqueuedItem.class, new AvsItemDispatcher.Handler<AvsReplaceEnqueuedItem>() {
+            @Override
+            public void handle(AvsReplaceEnqueuedItem item) {
+                //clear all items
+                //mAvsItemQueue.clear();
+                avsQueue.remove(item);
+            }
+        });
+        //also handles AvsListenItem
+        queueDispatcher.register(AvsExpectSpeechItem.class, new AvsItemDispatcher.Handler<AvsExpectSpeechItem>() {
+            @Override
+            public void handle(AvsExpectSpeechItem item) {
+                //listen for user input
+                audioPlayer.stop();
+                avsQueue.clear();
+                startListening();
+            }
+        });
+        queueDispatcher.register(AvsSetVolumeItem.class, new AvsItemDispatcher.Handler<AvsSetVolumeItem>() {
+            @Override
+            public void handle(AvsSetVolumeItem item) {
+                //set our volume
+                setVolume(item.getVolume());
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsAdjustVolumeItem.class, new AvsItemDispatcher.Handler<AvsAdjustVolumeItem>() {
+            @Override
+            public void handle(AvsAdjustVolumeItem item) {
+                //adjust the volume
+                adjustVolume(item.getAdjustment());
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsSetMuteItem.class, new AvsItemDispatcher.Handler<AvsSetMuteItem>() {
+            @Override
+            public void handle(AvsSetMuteItem item) {
+                //mute/unmute the device
+                setMute(item.isMute());
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsMediaPlayCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPlayCommandItem>() {
+            @Override
+            public void handle(AvsMediaPlayCommandItem item) {
+                //fake a hardware "play" press
+                sendMediaButton(BaseActivity.this, KeyEvent.KEYCODE_MEDIA_PLAY);
+                Log.i(TAG, "Media play command issued");
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsMediaPauseCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPauseCommandItem>() {
+            @Override
+            public void handle(AvsMediaPauseCommandItem item) {
+                //fake a hardware "pause" press
+                sendMediaButton(BaseActivity.this, KeyEvent.KEYCODE_MEDIA_PAUSE);
+                Log.i(TAG, "Media pause command issued");
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsMediaNextCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaNextCommandItem>() {
+            @Override
+            public void handle(AvsMediaNextCommandItem item) {
+                //fake a hardware "next" press
+                sendMediaButton(BaseActivity.this, KeyEvent.KEYCODE_MEDIA_NEXT);
+                Log.i(TAG, "Media next command issued");
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsMediaPreviousCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPreviousCommandItem>() {
+            @Override
+            public void handle(AvsMediaPreviousCommandItem item) {
+                //fake a hardware "previous" press
+                sendMediaButton(BaseActivity.this, KeyEvent.KEYCODE_MEDIA_PREVIOUS);
+                Log.i(TAG, "Media previous command issued");
+                avsQueue.remove(item);
+            }
+        });
+        queueDispatcher.register(AvsResponseException.class, new AvsItemDispatcher.Handler<AvsResponseException>() {
+            @Override
+            public void handle(final AvsResponseException item) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        new AlertDialog.Builder(BaseActivity.this)
+                                .setTitle("Error")
+                                .setMessage(item.getDirective().getPayload().getCode() + ": " + item.getDirective().getPayload().getDescription())
+                                .setPositiveButton(android.R.string.ok, null)
+                                .show();
+                    }
+                });
+
+                avsQueue.remove(item);
+                checkQueue();
+            }
+        });
+        //anything else (alerts, unknown directives) is handled outside of the queue, drop it so we don't stall
+        queueDispatcher.setFallback(new AvsItemDispatcher.Handler<AvsItem>() {
+            @Override
+            public void handle(AvsItem item) {
+                Log.i(TAG, "Skipping item type " + item.getClass().getName());
+                avsQueue.remove(item);
+                checkQueue();
+            }
+        });
     }
 
     protected abstract void startListening();
@@ -3,6 +3,8 @@ package com.willblaschko.android.alexavoicelibrary.actions;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -26,7 +28,10 @@ import com.willblaschko.android.recorderview.RecorderView;
 
 import java.io.IOException;
 
+import ee.ioc.phon.android.speechutils.AudioRecorder;
+import ee.ioc.phon.android.speechutils.AudioRingBuffer;
 import ee.ioc.phon.android.speechutils.RawAudioRecorder;
+import ee.ioc.phon.android.speechutils.VoiceActivityDetector;
 import okio.BufferedSink;
 
 
@@ -38,11 +43,43 @@ public class SendAudioActionFragment extends BaseListenerFragment {
     private static final String TAG = "SendAudioActionFragment";
 
     private final static int MY_PERMISSIONS_REQUEST_RECORD_AUDIO = 1;
+    private final static String ARG_WARM_CAPTURE = "warm_capture";
     private static final int AUDIO_RATE = 16000;
+    //100ms of audio, we send whatever's been recorded when we wake up, up to this much
+    private static final int AUDIO_BUFFER_SIZE = AUDIO_RATE * 2 / 10;
+    //how much of what was heard before the button went down we send with the request
+    private static final int PRE_ROLL_MILLIS = 500;
+    //keep the microphone open while we're on screen, so the start of what's said as the button goes down isn't lost,
+    //off unless asked for, it means recording whenever we're showing
+    private boolean warmCapture;
     private RawAudioRecorder recorder;
+    //where the current upload reads the recording from, only changed on the main thread
+    private volatile AudioRingBuffer.Cursor uploadCursor;
     private RecorderView recorderView;
     private Button tmp;
     private AlexaAudioPlayer audioPlayer;
+
+    /**
+     * @param warmCapture keep the microphone open while we're on screen, and send what was heard just before the
+     *                    button went down along with the request
+     */
+    public static SendAudioActionFragment getInstance(boolean warmCapture){
+        Bundle b = new Bundle();
+        b.putBoolean(ARG_WARM_CAPTURE, warmCapture);
+        SendAudioActionFragment fragment = new SendAudioActionFragment();
+        fragment.setArguments(b);
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if(getArguments() == null){
+            return;
+        }
+        warmCapture = getArguments().getBoolean(ARG_WARM_CAPTURE);
+    }
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -63,12 +100,6 @@ public class SendAudioActionFragment extends BaseListenerFragment {
                         if(audioPlayer != null){
                             audioPlayer.stop();
                         }
-                        if(recorder != null) {
-                            recorder.stop();
-                            recorder.release();
-                            recorder = null;
-
-                        }
 
                         tmp.setBackground(getResources().getDrawable(R.drawable.pressed));
                         startListening();
@@ -111,6 +142,8 @@ public class SendAudioActionFragment extends BaseListenerFragment {
                         new String[]{Manifest.permission.RECORD_AUDIO},
                         MY_PERMISSIONS_REQUEST_RECORD_AUDIO);
             }
+        }else if(warmCapture){
+            startRecorder();
         }
     }
 
@@ -131,60 +164,105 @@ public class SendAudioActionFragment extends BaseListenerFragment {
     }
 
     @Override
-    public void onStop() {
-        super.onStop();
-        //tear down our recorder on stop
-        if(recorder != null){
-            recorder.stop();
-            recorder.release();
-            recorder = null;
-        }
+    public void onPause() {
+        super.onPause();
+        //tear down our recorder on pause, a warm one was started in onResume
+        stopRecorder();
     }
 
     @Override
     public void startListening() {
-        if(recorder == null){
-            recorder = new RawAudioRecorder(AUDIO_RATE);
+        if(warmCapture){
+            //end the upload we're replacing, the recorder carries on
+            endUpload();
+        }else{
+            //a fresh recorder for each request
+            stopRecorder();
         }
-        recorder.start();
-        alexaManager.sendAudioRequest(requestBody, getRequestCallback());
+        startRecorder();
+        //where the button went down, only speech ending after this ends our upload
+        long pressed = recorder.getRecording().getWritten();
+        //the pre-roll also covers anything recorded before we got our cursor, however long the request takes to go out
+        uploadCursor = recorder.newCursor(PRE_ROLL_MILLIS);
+        alexaManager.sendAudioRequest(new AudioRequestBody(recorder, uploadCursor, pressed), getRequestCallback());
     }
 
-    private DataRequestBody requestBody = new DataRequestBody() {
+    /**
+     * Streams the recording to the server as it's captured, each write waits for the next frame rather than polling,
+     * and the body ends when the user stops talking or the recorder is stopped
+     */
+    private class AudioRequestBody extends DataRequestBody {
+        private final RawAudioRecorder audioRecorder;
+        private final AudioRingBuffer.Cursor cursor;
+        private final long pressed;
+
+        AudioRequestBody(RawAudioRecorder audioRecorder, AudioRingBuffer.Cursor cursor, long pressed) {
+            this.audioRecorder = audioRecorder;
+            this.cursor = cursor;
+            this.pressed = pressed;
+        }
+
         @Override
         public void writeTo(BufferedSink sink) throws IOException {
-            while (recorder != null && !recorder.isPausing()) {
-                if(recorder != null) {
-                    final float rmsdb = recorder.getRmsdb();
-                  /*  if(recorderView != null) {
-                        recorderView.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                recorderView.setRmsdbLevel(rmsdb);
-                            }
-                        });
-                    }*/
-                    if(sink != null && recorder != null) {
-                        sink.write(recorder.consumeRecording());
-                    }
-                    if(BuildConfig.DEBUG){
-                        Log.i(TAG, "Received audio");
-                        Log.i(TAG, "RMSDB: " + rmsdb);
+            byte[] buffer = new byte[AUDIO_BUFFER_SIZE];
+            int read;
+            //a warm recorder may have heard speech end before the button went down, even if it only reported it after
+            //(it waits out the hangover first), so only an end after the press counts, not one in our pre-roll
+            VoiceActivityDetector vad = audioRecorder.getVoiceActivityDetector();
+            //-1 once the button is let go of (or the recorder stopped) and we've sent everything up to then
+            while (vad.getSpeechEndPosition() <= pressed && (read = cursor.readBlocking(buffer, 0, buffer.length)) != -1) {
+                sink.write(buffer, 0, read);
+                //hand each frame to the connection now rather than when okio's buffer fills
+                sink.flush();
+                if(BuildConfig.DEBUG){
+                    Log.i(TAG, "Sent " + read + " bytes of audio, RMSDB: " + audioRecorder.getRmsdb());
+                }
+            }
+            //we're on OkHttp's writer thread, our fields belong to the main thread, so clean up there
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    //a newer upload may have replaced ours already, leave that one alone
+                    if(cursor == uploadCursor) {
+                        stopListening();
                     }
                 }
+            });
+        }
+    }
 
-                try {
-                    Thread.sleep(25);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            stopListening();
+    private void stopListening(){
+        if(warmCapture){
+            endUpload();
+        }else{
+            stopRecorder();
+        }
+    }
+
+    /**
+     * End the current upload where the recording is now, the recorder keeps going
+     */
+    private void endUpload(){
+        if(uploadCursor != null && recorder != null){
+            uploadCursor.setEnd(recorder.getRecording().getWritten());
         }
+        uploadCursor = null;
+    }
 
-    };
+    private void startRecorder(){
+        //a warm recorder lives across requests, replace it if it's failed since
+        if(recorder != null && recorder.getState() != AudioRecorder.State.RECORDING){
+            stopRecorder();
+        }
+        if(recorder == null){
+            recorder = new RawAudioRecorder(AUDIO_RATE);
+            recorder.start();
+        }
+    }
 
-    private void stopListening(){
+    private void stopRecorder(){
+        //stopping the recorder ends any upload reading from it, once it's sent what was recorded
+        uploadCursor = null;
         if(recorder != null) {
             recorder.stop();
             recorder.release();
@@ -0,0 +1,75 @@
+package com.willblaschko.android.alexa.benchmark;
+
+import com.google.gson.Gson;
+import com.willblaschko.android.alexa.data.Directive;
+import com.willblaschko.android.alexa.data.DirectiveDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Per-directive decode time of {@link DirectiveDecoder} against the Gson path it replaced. Run with the gc profiler
+ * (the default for :benchmark:jmh) to compare bytes allocated per directive (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectiveDecoderBenchmark {
+
+    @Param({"speak", "play_replace_all", "play_cid", "expect_speech", "set_volume", "set_alert", "set_endpoint", "exception"})
+    String directive;
+
+    private ByteString bytes;
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Corpus.directive(directive);
+        json = bytes.utf8();
+    }
+
+    /**
+     * The previous ResponseParser.getDirective(): a new Gson per call, parsed as a wrapper and then again
+     * as a bare directive when the wrapper is empty
+     */
+    @Benchmark
+    public Directive gson() {
+        Gson gson = new Gson();
+        Directive.DirectiveWrapper wrapper = gson.fromJson(json, Directive.DirectiveWrapper.class);
+        if (wrapper.getDirective() == null) {
+            return gson.fromJson(json, Directive.class);
+        }
+        return wrapper.getDirective();
+    }
+
+    @Benchmark
+    public Directive decoderString() {
+        return DirectiveDecoder.decode(json);
+    }
+
+    /**
+     * Decoding straight from the bytes of a multipart body part, as ResponseParser does now
+     */
+    @Benchmark
+    public Directive decoderSource() throws IOException {
+        return DirectiveDecoder.decode(new Buffer().write(bytes));
+    }
+}
@@ -0,0 +1,137 @@
+package com.willblaschko.android.alexa.benchmark;
+
+import com.willblaschko.android.alexa.data.DeviceContextCache;
+import com.willblaschko.android.alexa.data.Event;
+import com.willblaschko.android.alexa.data.EventTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Per-event encode time of {@link EventTemplate} against the {@link Event.Builder} and Gson path the Event helpers used
+ * before. Run with the gc profiler (the default for :benchmark:jmh) to compare bytes allocated per event
+ * (gc.alloc.rate.norm). The messageId is fixed so only encoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventEncoderBenchmark {
+
+    private static final String MESSAGE_ID = "4f1c9a3e-8d27-4b6a-9e51-2c7d0f8b3a64";
+    private static final String DIALOG_REQUEST_ID = "dialogRequest-9b2e7c41-3f5a-4d8e-a6c0-71d4e2b85f19";
+    private static final String TOKEN = "amzn1.as-ct.v1.Domain:Application:Notifications#ACRI#PlayToken";
+
+    @Param({"recognize", "playback_started", "volume_changed", "synchronize_state"})
+    String event;
+
+    private EventTemplate template;
+    private Buffer sink;
+    private DeviceContextCache context;
+
+    @Setup
+    public void setup() {
+        switch (event) {
+            case "recognize":
+                template = EventTemplate.RECOGNIZE;
+                break;
+            case "playback_started":
+                template = EventTemplate.PLAYBACK_STARTED;
+                break;
+            case "volume_changed":
+                template = EventTemplate.VOLUME_CHANGED;
+                break;
+            case "synchronize_state":
+                template = EventTemplate.SYNCHRONIZE_STATE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event: " + event);
+        }
+        sink = new Buffer();
+        context = DeviceContextCache.getInstance();
+        context.setPlaybackState(TOKEN, 31250, DeviceContextCache.PlayerActivity.PAUSED);
+        context.setAlert("alert-1", "TIMER", "2017-04-08T10:00:00+0000");
+    }
+
+    /**
+     * The previous Event.getXxxEvent(): a Builder, Header, Payload and context list, serialized by a new Gson
+     */
+    @Benchmark
+    public String builder() {
+        Event.Builder builder = new Event.Builder()
+                .setHeaderNamespace(template.getNamespace())
+                .setHeaderName(template.getName())
+                .setHeaderMessageId(MESSAGE_ID);
+        switch (event) {
+            case "recognize":
+                builder.setHeaderDialogRequestId(DIALOG_REQUEST_ID)
+                        .setPayloadFormat("AUDIO_L16_RATE_16000_CHANNELS_1")
+                        .setPayloadProfile("NEAR_FIELD");
+                break;
+            case "playback_started":
+                builder.setPayloadToken(TOKEN)
+                        .setPlayloadOffsetInMilliseconds(31250);
+                break;
+            case "volume_changed":
+                builder.setPayloadVolume(42)
+                        .setPayloadMuted(false);
+                break;
+            default:
+                break;
+        }
+        return builder.toJson();
+    }
+
+    /**
+     * Event.getXxxEvent() now, for the APIs that pass events around as Strings
+     */
+    @Benchmark
+    public String templateString() {
+        return template.toJson(MESSAGE_ID, dialogRequestId(), TOKEN, 31250, false);
+    }
+
+    /**
+     * Writing straight into the request, as the Recognize metadata part is sent now
+     */
+    @Benchmark
+    public long templateSink() throws IOException {
+        template.write(sink, MESSAGE_ID, dialogRequestId(), TOKEN, 31250, false);
+        long size = sink.size();
+        sink.clear();
+        return size;
+    }
+
+    /**
+     * Writing the event with the full device context, as Recognize and SynchronizeState are sent now. The context is
+     * already serialized, so this should cost about the same as templateSink plus the copy
+     */
+    @Benchmark
+    public long templateSinkWithContext() throws IOException {
+        ByteString deviceContext = context.getContext();
+        template.write(sink, MESSAGE_ID, dialogRequestId(), TOKEN, 31250, false, deviceContext);
+        long size = sink.size();
+        sink.clear();
+        return size;
+    }
+
+    private String dialogRequestId() {
+        return template == EventTemplate.RECOGNIZE ? DIALOG_REQUEST_ID : null;
+    }
+}
@@ -0,0 +1,120 @@
+package com.willblaschko.android.alexa.benchmark;
+
+import com.willblaschko.android.alexa.data.Directive;
+import com.willblaschko.android.alexa.interfaces.AvsException;
+import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsResponse;
+import com.willblaschko.android.alexa.interfaces.response.ResponseParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * The response parsing path, from the raw multipart body of an OkHttp response to our {@link AvsResponse}.
+ *
+ * Every benchmark is run for throughput and as a sampled latency distribution (p50 through p99.99 are in the
+ * SampleTime results), with the gc profiler (the default for :benchmark:jmh) gc.alloc.rate.norm is the bytes
+ * allocated per operation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Responses {
+
+        @Param({ResponseCorpus.TEXT_ONLY, ResponseCorpus.SPEAK, ResponseCorpus.PLAY_REPLACE_ALL,
+                ResponseCorpus.MULTIPLE, ResponseCorpus.MALFORMED_PREAMBLE, ResponseCorpus.CHECK_BOUNDARY})
+        String response;
+
+        ByteString body;
+        boolean checkBoundary;
+        Response okResponse;
+
+        @Setup
+        public void setup() throws IOException, AvsException {
+            body = ResponseCorpus.body(response);
+            checkBoundary = ResponseCorpus.checkBoundary(response);
+            okResponse = ResponseCorpus.response(body);
+
+            //make sure we're measuring a parse that actually works
+            if (parse(this).isEmpty()) {
+                throw new IllegalStateException("No items parsed from " + response);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Directives {
+
+        @Param({"speak", "play_replace_all", "play_cid", "expect_speech", "set_volume", "set_alert", "set_endpoint", "exception"})
+        String directive;
+
+        String json;
+        Directive parsed;
+        Map<String, Buffer> audio;
+
+        @Setup
+        public void setup() throws IOException, AvsException {
+            json = Corpus.directive(directive).utf8();
+            parsed = ResponseParser.getDirective(json);
+
+            //the audio part of a Speak or Play is handed to the item as is, so a single empty buffer will do
+            String url = parsed.getPayload().getUrl();
+            if (parsed.getPayload().getAudioItem() != null) {
+                url = parsed.getPayload().getAudioItem().getStream().getUrl();
+            }
+            audio = Collections.singletonMap(url, new Buffer());
+        }
+    }
+
+    /**
+     * The whole body, parsed straight from the response source the way AlexaManager does. Includes reading the body
+     * into okio segments, the same way OkHttp does off the network.
+     */
+    @Benchmark
+    public AvsResponse parseResponse(Responses state) throws IOException, AvsException {
+        return parse(state);
+    }
+
+    @Benchmark
+    public String getBoundary(Responses state) throws IOException {
+        return ResponseParser.getBoundary(state.okResponse);
+    }
+
+    @Benchmark
+    public Directive getDirective(Directives state) throws AvsException {
+        return ResponseParser.getDirective(state.json);
+    }
+
+    @Benchmark
+    public AvsItem parseDirective(Directives state) throws IOException {
+        return ResponseParser.parseDirective(state.parsed, state.audio);
+    }
+
+    private static AvsResponse parse(Responses state) throws IOException, AvsException {
+        Buffer source = new Buffer().write(state.body);
+        return ResponseParser.parseResponse(source, ResponseCorpus.BOUNDARY, state.checkBoundary, null);
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * Stand-in for the Android Build class when running the library on the desktop JVM, the real class reads system
+ * properties through native code. We report the SDK of the Robolectric jar we compile against.
+ */
+public class Build {
+
+    private Build() {
+    }
+
+    public static class VERSION {
+
+        public static final int SDK_INT = 24;
+
+        private VERSION() {
+        }
+    }
+}
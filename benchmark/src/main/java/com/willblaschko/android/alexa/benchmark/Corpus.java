@@ -0,0 +1,38 @@
+package com.willblaschko.android.alexa.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * Loads the sample directives and responses bundled with the benchmarks
+ */
+public class Corpus {
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name the directive file name, without its .json extension
+     * @return the raw UTF-8 bytes of the directive
+     */
+    public static ByteString directive(String name) throws IOException {
+        return load("/directives/" + name + ".json");
+    }
+
+    public static ByteString load(String path) throws IOException {
+        InputStream stream = Corpus.class.getResourceAsStream(path);
+        if (stream == null) {
+            throw new IOException("Missing corpus file: " + path);
+        }
+        BufferedSource source = Okio.buffer(Okio.source(stream));
+        try {
+            return source.readByteString();
+        } finally {
+            source.close();
+        }
+    }
+}
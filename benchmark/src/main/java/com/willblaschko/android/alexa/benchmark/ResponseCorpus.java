@@ -0,0 +1,161 @@
+package com.willblaschko.android.alexa.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Multipart responses laid out the way the Alexa server sends them (v20160207), built from the directives in
+ * resources/directives. Audio parts are filled with seeded random bytes so every run parses exactly the same input,
+ * random data also means the boundary search sees plenty of stray CR, LF and '-' bytes, like it does with real MP3 data.
+ */
+public class ResponseCorpus {
+
+    public static final String BOUNDARY = "------abcde123";
+    public static final String CONTENT_TYPE = "multipart/related; boundary=" + BOUNDARY + "; type=\"application/json\"";
+
+    /**
+     * A single SetVolume directive, no audio
+     */
+    public static final String TEXT_ONLY = "text_only";
+    /**
+     * Speak with its TTS audio part, the most common response to a Recognize event
+     */
+    public static final String SPEAK = "speak";
+    /**
+     * Play with a remote url and REPLACE_ALL, parsed into an extra AvsReplaceAllItem
+     */
+    public static final String PLAY_REPLACE_ALL = "play_replace_all";
+    /**
+     * Speak, ExpectSpeech, SetAlert and a Play with its own audio part, with the audio parts sent after their directives
+     */
+    public static final String MULTIPLE = "multiple";
+    /**
+     * A Speak response with junk before the first boundary and transport padding after it
+     */
+    public static final String MALFORMED_PREAMBLE = "malformed_preamble";
+    /**
+     * A Speak response missing its leading boundary and closed by a bare boundary, which has to be parsed with checkBoundary
+     */
+    public static final String CHECK_BOUNDARY = "check_boundary";
+
+    //roughly 3 seconds of 32kbps TTS
+    private static final int SPEAK_AUDIO_SIZE = 12 * 1024;
+    //a short flash briefing clip
+    private static final int PLAY_AUDIO_SIZE = 64 * 1024;
+
+    private ResponseCorpus() {
+    }
+
+    /**
+     * @param name one of our response names
+     * @return the raw bytes of the response body
+     */
+    public static ByteString body(String name) throws IOException {
+        Buffer body = new Buffer();
+        switch (name) {
+            case TEXT_ONLY:
+                startBoundary(body);
+                jsonPart(body, "set_volume");
+                endBoundary(body);
+                break;
+            case SPEAK:
+                startBoundary(body);
+                speak(body);
+                endBoundary(body);
+                break;
+            case PLAY_REPLACE_ALL:
+                startBoundary(body);
+                jsonPart(body, "play_replace_all");
+                endBoundary(body);
+                break;
+            case MULTIPLE:
+                startBoundary(body);
+                jsonPart(body, "speak");
+                boundary(body);
+                jsonPart(body, "expect_speech");
+                boundary(body);
+                jsonPart(body, "set_alert");
+                boundary(body);
+                jsonPart(body, "play_cid");
+                boundary(body);
+                audioPart(body, "DeviceTTSRendererV4_0b2a7d43-8b6e-4c6c-9d8e-1a7a6c3d5a10_1208945390", SPEAK_AUDIO_SIZE, 1);
+                boundary(body);
+                audioPart(body, "FlashBriefing_4c7e2a9d-6b1f-4a2e-9c3d-8e5f7a1b0c62", PLAY_AUDIO_SIZE, 2);
+                endBoundary(body);
+                break;
+            case MALFORMED_PREAMBLE:
+                body.writeUtf8("\r\n\r\nThis is the preamble, it is to be ignored.\r\n");
+                body.writeUtf8("--").writeUtf8(BOUNDARY).writeUtf8(" \t\r\n");
+                speak(body);
+                endBoundary(body);
+                break;
+            case CHECK_BOUNDARY:
+                speak(body);
+                body.writeUtf8("\r\n--").writeUtf8(BOUNDARY);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown response: " + name);
+        }
+        return body.readByteString();
+    }
+
+    /**
+     * @return true if the named response needs to be parsed with checkBoundary
+     */
+    public static boolean checkBoundary(String name) {
+        return CHECK_BOUNDARY.equals(name);
+    }
+
+    /**
+     * @return a response carrying our multipart content-type, for {@link com.willblaschko.android.alexa.interfaces.response.ResponseParser#getBoundary(Response)}
+     */
+    public static Response response(ByteString body) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://avs-alexa-na.amazon.com/v20160207/events").build())
+                .protocol(Protocol.HTTP_2)
+                .code(200)
+                .message("OK")
+                .header("content-type", CONTENT_TYPE)
+                .body(ResponseBody.create(MediaType.parse(CONTENT_TYPE), body.size(), new Buffer().write(body)))
+                .build();
+    }
+
+    private static void speak(Buffer body) throws IOException {
+        jsonPart(body, "speak");
+        boundary(body);
+        audioPart(body, "DeviceTTSRendererV4_0b2a7d43-8b6e-4c6c-9d8e-1a7a6c3d5a10_1208945390", SPEAK_AUDIO_SIZE, 1);
+    }
+
+    private static void startBoundary(Buffer body) {
+        body.writeUtf8("--").writeUtf8(BOUNDARY).writeUtf8("\r\n");
+    }
+
+    private static void boundary(Buffer body) {
+        body.writeUtf8("\r\n--").writeUtf8(BOUNDARY).writeUtf8("\r\n");
+    }
+
+    private static void endBoundary(Buffer body) {
+        body.writeUtf8("\r\n--").writeUtf8(BOUNDARY).writeUtf8("--\r\n");
+    }
+
+    private static void jsonPart(Buffer body, String directive) throws IOException {
+        body.writeUtf8("Content-Type: application/json; charset=UTF-8\r\n\r\n");
+        body.write(Corpus.directive(directive));
+    }
+
+    private static void audioPart(Buffer body, String contentId, int size, long seed) {
+        byte[] audio = new byte[size];
+        new Random(seed).nextBytes(audio);
+        body.writeUtf8("Content-Type: application/octet-stream\r\n");
+        body.writeUtf8("Content-ID: <").writeUtf8(contentId).writeUtf8(">\r\n\r\n");
+        body.write(audio);
+    }
+}
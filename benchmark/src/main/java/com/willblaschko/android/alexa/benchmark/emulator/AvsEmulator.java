@@ -0,0 +1,276 @@
+package com.willblaschko.android.alexa.benchmark.emulator;
+
+import com.willblaschko.android.alexa.benchmark.ResponseCorpus;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * A local stand-in for the Alexa server, so the library's network path can be run and measured without an account,
+ * a device or the real service. Serves the three endpoints the library uses:
+ *
+ * - POST /v20160207/events answers every event with the {@link Reply} scripted for its name (see {@link #onEvent(String, Reply)}),
+ *   or the default reply, a 204
+ * - GET /v20160207/directives is the downchannel, it's held open until directives are {@link #push(Reply)}ed and then
+ *   answers with them. MockWebServer can't add to a response once it's started, so each push is its own response and
+ *   the client reconnects between them, like long polling
+ * - GET /ping always answers with a 204
+ *
+ * Like the real server, directives sent in answer to an event carry its dialogRequestId, scripted replies are written with
+ * the corpus' "dialogRequest-321" and it's swapped for the event's as they're sent.
+ *
+ * Replies can be delayed (the server "thinking") and throttled (a slow network), to see how the client holds up.
+ */
+public class AvsEmulator {
+
+    public static final String EVENTS_PATH = "/v20160207/events";
+    public static final String DIRECTIVES_PATH = "/v20160207/directives";
+    public static final String PING_PATH = "/ping";
+
+    //how long the downchannel is held open without a push before we answer it empty
+    private static final long DEFAULT_HOLD_MILLIS = 5000;
+    //the event metadata is always the first part, we don't need to keep the audio that follows it
+    private static final long BODY_LIMIT = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //the name in the event header, the context (if any) comes before the event and has headers of its own
+    private static final Pattern EVENT_NAME = Pattern.compile("\"event\"\\s*:\\s*\\{\\s*\"header\"\\s*:\\s*\\{[^}]*\"name\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern DIALOG_REQUEST_ID = Pattern.compile("\"dialogRequestId\"\\s*:\\s*\"([^\"]+)\"");
+    //the dialogRequestId the directives in our corpus are written with
+    private static final ByteString CORPUS_DIALOG_REQUEST_ID = ByteString.encodeUtf8("\"dialogRequest-321\"");
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final Map<String, Reply> mEventReplies = new ConcurrentHashMap<>();
+    private final BlockingQueue<Reply> mPushes = new LinkedBlockingQueue<>();
+    private volatile Reply mDefaultReply = Reply.noContent();
+    private volatile long mHoldMillis = DEFAULT_HOLD_MILLIS;
+    private volatile boolean mShutdown = false;
+
+    private final AtomicInteger mEvents = new AtomicInteger();
+    private final AtomicInteger mDownchannels = new AtomicInteger();
+    private final AtomicInteger mPings = new AtomicInteger();
+
+    public AvsEmulator() {
+        mServer.setBodyLimit(BODY_LIMIT);
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                return AvsEmulator.this.dispatch(request);
+            }
+        });
+    }
+
+    /**
+     * Start listening on a free local port
+     */
+    public AvsEmulator start() throws IOException {
+        mServer.start();
+        return this;
+    }
+
+    public void shutdown() throws IOException {
+        mShutdown = true;
+        mServer.shutdown();
+    }
+
+    /**
+     * @return the URL to use in place of the Alexa endpoint, see {@link com.willblaschko.android.alexa.AlexaManager#setUrlEndpoint(String)}
+     */
+    public String getUrlEndpoint() {
+        String url = mServer.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    public String getEventsUrl() {
+        return getUrlEndpoint() + EVENTS_PATH;
+    }
+
+    public String getDirectivesUrl() {
+        return getUrlEndpoint() + DIRECTIVES_PATH;
+    }
+
+    public String getPingUrl() {
+        return getUrlEndpoint() + PING_PATH;
+    }
+
+    /**
+     * Answer every event with this name with our reply
+     * @param eventName the name in the event header, such as "Recognize"
+     */
+    public AvsEmulator onEvent(String eventName, Reply reply) {
+        mEventReplies.put(eventName, reply);
+        return this;
+    }
+
+    /**
+     * Answer events we don't have a reply for with this one, a 204 by default
+     */
+    public AvsEmulator setDefaultReply(Reply reply) {
+        mDefaultReply = reply;
+        return this;
+    }
+
+    /**
+     * How long an open downchannel waits for a push before answering empty, so the client reconnects now and then
+     */
+    public AvsEmulator setHoldTime(long time, TimeUnit unit) {
+        mHoldMillis = unit.toMillis(time);
+        return this;
+    }
+
+    /**
+     * Send directives down the downchannel, pushes are sent in order, one per downchannel request
+     */
+    public void push(Reply reply) {
+        mPushes.add(reply);
+    }
+
+    public int getEventCount() {
+        return mEvents.get();
+    }
+
+    public int getDownchannelCount() {
+        return mDownchannels.get();
+    }
+
+    public int getPingCount() {
+        return mPings.get();
+    }
+
+    private MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        String path = request.getPath();
+        if (path.startsWith(EVENTS_PATH) && "POST".equals(request.getMethod())) {
+            mEvents.incrementAndGet();
+            String body = request.getBody().readString(UTF_8);
+            Reply reply = mEventReplies.get(getEventName(body));
+            return (reply != null ? reply : mDefaultReply).toResponse(getDialogRequestId(body));
+        } else if (path.startsWith(DIRECTIVES_PATH)) {
+            mDownchannels.incrementAndGet();
+            Reply push = mShutdown ? null : mPushes.poll(mHoldMillis, TimeUnit.MILLISECONDS);
+            return (push != null ? push : Reply.EMPTY).toResponse(null);
+        } else if (path.startsWith(PING_PATH)) {
+            mPings.incrementAndGet();
+            return Reply.noContent().toResponse(null);
+        }
+        return Reply.status(HttpURLConnection.HTTP_NOT_FOUND).toResponse(null);
+    }
+
+    /**
+     * Find the event name in a (possibly truncated) multipart event body
+     */
+    static String getEventName(String body) {
+        Matcher matcher = EVENT_NAME.matcher(body);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Find the dialogRequestId of a Recognize event, null for events that don't have one
+     */
+    static String getDialogRequestId(String body) {
+        Matcher matcher = DIALOG_REQUEST_ID.matcher(body);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * A scripted response, immutable so the same reply can be given to any number of requests at once
+     */
+    public static class Reply {
+
+        /**
+         * A multipart response without any parts
+         */
+        public static final Reply EMPTY = multipart(ByteString.encodeUtf8("--" + ResponseCorpus.BOUNDARY + "--\r\n"));
+
+        private final int mCode;
+        private final ByteString mBody;
+        private final long mDelayMillis;
+        private final long mThrottleBytes;
+        private final long mThrottleMillis;
+
+        private Reply(int code, ByteString body, long delayMillis, long throttleBytes, long throttleMillis) {
+            mCode = code;
+            mBody = body;
+            mDelayMillis = delayMillis;
+            mThrottleBytes = throttleBytes;
+            mThrottleMillis = throttleMillis;
+        }
+
+        /**
+         * A 200 with a multipart body laid out like {@link ResponseCorpus#body(String)}
+         */
+        public static Reply multipart(ByteString body) {
+            return new Reply(HttpURLConnection.HTTP_OK, body, 0, 0, 0);
+        }
+
+        public static Reply noContent() {
+            return status(HttpURLConnection.HTTP_NO_CONTENT);
+        }
+
+        /**
+         * An empty response with this status code, to script server errors
+         */
+        public static Reply status(int code) {
+            return new Reply(code, null, 0, 0, 0);
+        }
+
+        /**
+         * Wait this long before the body is sent, the time the server spends working out its answer
+         */
+        public Reply delay(long delay, TimeUnit unit) {
+            return new Reply(mCode, mBody, unit.toMillis(delay), mThrottleBytes, mThrottleMillis);
+        }
+
+        /**
+         * Send the body at most this many bytes per period, a slow or congested network
+         */
+        public Reply throttle(long bytes, long period, TimeUnit unit) {
+            return new Reply(mCode, mBody, mDelayMillis, bytes, unit.toMillis(period));
+        }
+
+        /**
+         * @param dialogRequestId the id of the event we're answering, it replaces the corpus id in our directives
+         */
+        MockResponse toResponse(String dialogRequestId) {
+            MockResponse response = new MockResponse().setResponseCode(mCode);
+            if (mBody != null) {
+                response.setHeader("Content-Type", ResponseCorpus.CONTENT_TYPE);
+                response.setBody(dialogRequestId != null ? replace(mBody, CORPUS_DIALOG_REQUEST_ID,
+                        ByteString.encodeUtf8("\"" + dialogRequestId + "\"")) : new Buffer().write(mBody));
+            }
+            if (mDelayMillis > 0) {
+                response.setBodyDelay(mDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            if (mThrottleBytes > 0) {
+                response.throttleBody(mThrottleBytes, mThrottleMillis, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+
+        private static Buffer replace(ByteString body, ByteString target, ByteString replacement) {
+            Buffer buffer = new Buffer();
+            int start = 0;
+            int index;
+            while ((index = body.indexOf(target, start)) != -1) {
+                buffer.write(body.substring(start, index)).write(replacement);
+                start = index + target.size();
+            }
+            return buffer.write(body.substring(start));
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.willblaschko.android.alexa.benchmark.emulator;
+
+import com.willblaschko.android.alexa.benchmark.ResponseCorpus;
+import com.willblaschko.android.alexa.callbacks.AsyncCallback;
+import com.willblaschko.android.alexa.connection.ClientProfile;
+import com.willblaschko.android.alexa.connection.ClientUtil;
+import com.willblaschko.android.alexa.connection.ConnectionManager;
+import com.willblaschko.android.alexa.connection.DownChannel;
+import com.willblaschko.android.alexa.data.Event;
+import com.willblaschko.android.alexa.interfaces.AvsException;
+import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsItemDispatcher;
+import com.willblaschko.android.alexa.interfaces.response.ResponseParser;
+import com.willblaschko.android.alexa.interfaces.speechrecognizer.SpeechSendAudio;
+import com.willblaschko.android.alexa.requestbody.DataRequestBody;
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.BufferedSink;
+
+/**
+ * Runs voice interactions against an {@link AvsEmulator} from a number of simulated users at once and reports how long
+ * they took, the same way the library sends them: {@link SpeechSendAudio} on our shared {@link ClientUtil} client, with
+ * the response parsed incrementally by {@link ResponseParser} and its items handed to an {@link AvsItemDispatcher} as
+ * they arrive. A {@link DownChannel} is kept open the whole time and directives are pushed down it while under load.
+ *
+ * Times are measured from the end of speech (the last audio byte written), which is what a user waits through:
+ * - first directive, until the first item of the response is parsed
+ * - interaction, until the whole response has been read
+ * - push, from a directive being pushed by the server to it being parsed off the downchannel
+ *
+ * Each interaction is also traced with {@link InteractionTracer}, and the network stages it records are reported from
+ * the start of the interaction.
+ *
+ * gradlew :benchmark:emulator -Pargs="--users 8 --interactions 50 --delay 300 --throttle 256"
+ */
+public class LoadHarness {
+
+    //16kHz, 16 bit mono PCM, what our recorders send
+    private static final int BYTES_PER_MILLI = 32;
+    private static final int FRAME_MILLIS = 20;
+    private static final String ACCESS_TOKEN = "emulator";
+
+    private int mUsers = 4;
+    private int mInteractions = 25;
+    private String mResponse = ResponseCorpus.SPEAK;
+    private long mDelayMillis = 300;
+    private long mThrottleKbps = 0;
+    private long mAudioMillis = 2000;
+    private boolean mRealtime = false;
+    private int mPushes = 20;
+
+    private final Stats mFirstDirective = new Stats();
+    private final Stats mInteraction = new Stats();
+    private final Stats mPush = new Stats();
+    private final Map<InteractionTracer.Stage, Stats> mStages = new EnumMap<>(InteractionTracer.Stage.class);
+    private final AtomicInteger mItems = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final BlockingQueue<AvsItem> mPushedItems = new LinkedBlockingQueue<>();
+
+    public static void main(String[] args) throws Exception {
+        //MockWebServer logs every request it answers
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        LoadHarness harness = new LoadHarness();
+        harness.parseArgs(args);
+        harness.run();
+        //OkHttp keeps its pooled connections alive on non-daemon threads
+        System.exit(0);
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--users":
+                    mUsers = Integer.parseInt(args[++i]);
+                    break;
+                case "--interactions":
+                    mInteractions = Integer.parseInt(args[++i]);
+                    break;
+                case "--response":
+                    mResponse = args[++i];
+                    break;
+                case "--delay":
+                    mDelayMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--throttle":
+                    mThrottleKbps = Long.parseLong(args[++i]);
+                    break;
+                case "--audio":
+                    mAudioMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--realtime":
+                    mRealtime = true;
+                    break;
+                case "--pushes":
+                    mPushes = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i] + ", expected --users, --interactions, "
+                            + "--response, --delay (ms), --throttle (kbps), --audio (ms), --realtime or --pushes");
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        for (InteractionTracer.Stage stage : InteractionTracer.Stage.values()) {
+            mStages.put(stage, new Stats());
+        }
+        InteractionTracer.getInstance().addListener(new InteractionTracer.Listener() {
+            @Override
+            public void onTraceFinished(InteractionTracer.Trace trace) {
+                for (InteractionTracer.Stage stage : InteractionTracer.Stage.values()) {
+                    long millis = trace.getMillis(stage);
+                    if (millis >= 0) {
+                        mStages.get(stage).add(TimeUnit.MILLISECONDS.toNanos(millis));
+                    }
+                }
+            }
+        });
+
+        AvsEmulator.Reply reply = AvsEmulator.Reply.multipart(ResponseCorpus.body(mResponse))
+                .delay(mDelayMillis, TimeUnit.MILLISECONDS);
+        if (mThrottleKbps > 0) {
+            //kilobits per second is bytes per 8ms
+            reply = reply.throttle(mThrottleKbps, 8, TimeUnit.MILLISECONDS);
+        }
+        final AvsEmulator emulator = new AvsEmulator()
+                .onEvent("Recognize", reply)
+                .setHoldTime(1, TimeUnit.SECONDS)
+                .start();
+
+        OkHttpClient client = ClientUtil.getClient(ClientProfile.DOWNCHANNEL);
+        ConnectionManager connections = ClientUtil.getConnectionManager();
+        connections.setEndpoint(emulator.getUrlEndpoint());
+        DownChannel downChannel = new DownChannel(client, new DownChannel.RequestFactory() {
+            @Override
+            public void newRequest(DownChannel.RequestCallback callback) {
+                callback.onRequest(new Request.Builder()
+                        .url(emulator.getDirectivesUrl())
+                        .addHeader("Authorization", "Bearer " + ACCESS_TOKEN)
+                        .build());
+            }
+        }, new DownChannel.Listener() {
+            @Override
+            public void onStateChanged(DownChannel channel, DownChannel.State state) {
+            }
+
+            @Override
+            public void onAvsItem(AvsItem item) {
+                mPushedItems.add(item);
+            }
+        }).setBackoff(10, 50, TimeUnit.MILLISECONDS);
+        downChannel.start();
+
+        System.out.println(String.format(Locale.US, "%d users x %d interactions, %s response, %dms server delay, %s, %dms of %s audio",
+                mUsers, mInteractions, mResponse, mDelayMillis, mThrottleKbps > 0 ? mThrottleKbps + "kbps" : "unthrottled",
+                mAudioMillis, mRealtime ? "real time" : "buffered"));
+
+        final CountDownLatch done = new CountDownLatch(mUsers);
+        ExecutorService users = Executors.newFixedThreadPool(mUsers);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < mUsers; i++) {
+            users.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < mInteractions; j++) {
+                            interact(emulator.getEventsUrl());
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        //push directives down the downchannel while we're under load
+        AvsEmulator.Reply push = AvsEmulator.Reply.multipart(ResponseCorpus.body(ResponseCorpus.TEXT_ONLY));
+        for (int i = 0; i < mPushes && done.getCount() > 0; i++) {
+            long pushed = System.nanoTime();
+            emulator.push(push);
+            if (mPushedItems.poll(10, TimeUnit.SECONDS) == null) {
+                mErrors.incrementAndGet();
+                break;
+            }
+            mPush.add(System.nanoTime() - pushed);
+        }
+
+        done.await();
+        long elapsed = System.currentTimeMillis() - start;
+        users.shutdown();
+        downChannel.stop();
+
+        int interactions = mUsers * mInteractions;
+        System.out.println(String.format(Locale.US, "%d interactions in %dms (%.1f/s), %d items, %d errors",
+                interactions, elapsed, interactions * 1000.0 / elapsed, mItems.get(), mErrors.get()));
+        mFirstDirective.print("first directive");
+        mInteraction.print("interaction");
+        mPush.print("push");
+        System.out.println("traced stages, from the start of the interaction:");
+        for (Map.Entry<InteractionTracer.Stage, Stats> stage : mStages.entrySet()) {
+            if (!stage.getValue().isEmpty()) {
+                stage.getValue().print(stage.getKey().name().toLowerCase(Locale.US));
+            }
+        }
+        System.out.println(String.format(Locale.US, "server saw %d events, %d downchannel requests, %d pings; client has %d connections",
+                emulator.getEventCount(), emulator.getDownchannelCount(), emulator.getPingCount(),
+                client.connectionPool().connectionCount()));
+        System.out.println(String.format(Locale.US, "requests on new connections: %d, on reused connections: %d",
+                connections.getNewConnectionCount(), connections.getReusedConnectionCount()));
+
+        emulator.shutdown();
+    }
+
+    /**
+     * Send one Recognize event and read its response, the way AlexaManager does
+     */
+    private void interact(String url) {
+        final AudioBody audio = new AudioBody(mAudioMillis * BYTES_PER_MILLI, mRealtime);
+        final AvsItemDispatcher dispatcher = new AvsItemDispatcher().setFallback(new AvsItemDispatcher.Handler<AvsItem>() {
+            @Override
+            public void handle(AvsItem item) {
+                mItems.incrementAndGet();
+            }
+        });
+        final String dialogRequestId = Event.createDialogRequestId();
+        InteractionTracer.getInstance().start(dialogRequestId);
+        SpeechSendAudio send = new SpeechSendAudio();
+        send.setDialogRequestId(dialogRequestId);
+        try {
+            send.sendAudio(url, ACCESS_TOKEN, audio, new AsyncCallback<Call, Exception>() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void success(Call call) {
+                    try {
+                        Response response = call.execute();
+                        if (response.code() == HttpURLConnection.HTTP_NO_CONTENT) {
+                            response.close();
+                            InteractionTracer.getInstance().finish(dialogRequestId);
+                            return;
+                        }
+                        final long[] first = {0};
+                        ResponseParser.parseResponse(response.body().source(), ResponseParser.getBoundary(response), new ResponseParser.Callback() {
+                            @Override
+                            public void onItem(AvsItem item) {
+                                if (first[0] == 0) {
+                                    first[0] = System.nanoTime();
+                                }
+                                dispatcher.dispatch(item);
+                            }
+                        });
+                        response.close();
+                        long end = System.nanoTime();
+                        if (first[0] != 0) {
+                            mFirstDirective.add(first[0] - audio.getFinished());
+                        }
+                        mInteraction.add(end - audio.getFinished());
+                        InteractionTracer.getInstance().finish(dialogRequestId);
+                    } catch (IOException | AvsException e) {
+                        failure(e);
+                    }
+                }
+
+                @Override
+                public void failure(Exception error) {
+                    System.err.println("Interaction failed: " + error);
+                    mErrors.incrementAndGet();
+                    InteractionTracer.getInstance().fail(dialogRequestId, error);
+                }
+
+                @Override
+                public void complete() {
+                }
+            });
+        } catch (IOException e) {
+            mErrors.incrementAndGet();
+            InteractionTracer.getInstance().fail(dialogRequestId, e);
+        }
+    }
+
+    /**
+     * Silent audio, optionally written in frames at the rate it would be recorded
+     */
+    private static class AudioBody extends DataRequestBody {
+
+        private final long mSize;
+        private final boolean mRealtime;
+        private volatile long mFinished;
+
+        AudioBody(long size, boolean realtime) {
+            mSize = size;
+            mRealtime = realtime;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            byte[] frame = new byte[FRAME_MILLIS * BYTES_PER_MILLI];
+            for (long written = 0; written < mSize; written += frame.length) {
+                if (mRealtime) {
+                    try {
+                        Thread.sleep(FRAME_MILLIS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                sink.write(frame, 0, (int) Math.min(frame.length, mSize - written));
+                sink.flush();
+            }
+            mFinished = System.nanoTime();
+        }
+
+        /**
+         * @return when the last byte was written, in {@link System#nanoTime()}
+         */
+        long getFinished() {
+            return mFinished;
+        }
+    }
+
+    /**
+     * Collects latencies and prints their percentiles
+     */
+    private static class Stats {
+
+        private final List<Long> mNanos = new ArrayList<>();
+
+        synchronized void add(long nanos) {
+            mNanos.add(nanos);
+        }
+
+        synchronized boolean isEmpty() {
+            return mNanos.isEmpty();
+        }
+
+        synchronized void print(String name) {
+            if (mNanos.isEmpty()) {
+                System.out.println(String.format(Locale.US, "%-22s no samples", name));
+                return;
+            }
+            Collections.sort(mNanos);
+            System.out.println(String.format(Locale.US, "%-22s n=%-5d p50=%6.1fms p90=%6.1fms p99=%6.1fms max=%6.1fms",
+                    name, mNanos.size(), percentile(0.5), percentile(0.9), percentile(0.99),
+                    mNanos.get(mNanos.size() - 1) / 1e6));
+        }
+
+        //sorted, guarded by this
+        private double percentile(double p) {
+            int index = (int) Math.ceil(p * mNanos.size()) - 1;
+            return mNanos.get(Math.max(0, index)) / 1e6;
+        }
+    }
+}
@@ -2,17 +2,21 @@ package com.willblaschko.android.alexa;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.willblaschko.android.alexa.callbacks.AsyncCallback;
 import com.willblaschko.android.alexa.callbacks.AuthorizationCallback;
+import com.willblaschko.android.alexa.connection.ClientUtil;
+import com.willblaschko.android.alexa.connection.EventQueue;
 import com.willblaschko.android.alexa.data.Event;
 import com.willblaschko.android.alexa.interfaces.AvsException;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
 import com.willblaschko.android.alexa.interfaces.AvsResponse;
+import com.willblaschko.android.alexa.interfaces.AvsTimeoutException;
 import com.willblaschko.android.alexa.interfaces.GenericSendEvent;
 import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem;
+import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayContentItem;
+import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayRemoteItem;
 import com.willblaschko.android.alexa.interfaces.response.ResponseParser;
 import com.willblaschko.android.alexa.interfaces.speechrecognizer.SpeechSendAudio;
 import com.willblaschko.android.alexa.interfaces.speechrecognizer.SpeechSendText;
@@ -21,6 +25,8 @@ import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
 import com.willblaschko.android.alexa.requestbody.DataRequestBody;
 import com.willblaschko.android.alexa.service.DownChannelService;
 import com.willblaschko.android.alexa.system.AndroidSystemHandler;
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+import com.willblaschko.android.alexa.utility.TrafficExecutors;
 import com.willblaschko.android.alexa.utility.Util;
 
 import org.jetbrains.annotations.NotNull;
@@ -28,6 +34,9 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Response;
@@ -47,7 +56,9 @@ public class AlexaManager {
 
 
     private static final String TAG = "AlexaManager";
-    private static final String KEY_URL_ENDPOINT = "url_endpoint";
+    public static final String KEY_URL_ENDPOINT = "url_endpoint";
+    //how long our event queue waits on a token refresh before giving up on the event
+    private static final long TOKEN_TIMEOUT_SECONDS = 30;
 
     private static AlexaManager mInstance;
     private static AndroidSystemHandler mAndroidSystemHandler;
@@ -56,6 +67,7 @@ public class AlexaManager {
     private SpeechSendText mSpeechSendText;
     private SpeechSendAudio mSpeechSendAudio;
     private VoiceHelper mVoiceHelper;
+    private EventQueue mEventQueue;
     private String urlEndpoint;
     private Context mContext;
     private boolean mIsRecording = false;
@@ -65,15 +77,23 @@ public class AlexaManager {
         if(productId == null){
             productId = context.getString(R.string.alexa_product_id);
         }
-        urlEndpoint = Util.getPreferences(context).getString(KEY_URL_ENDPOINT, context.getString(R.string.alexa_api));
+        urlEndpoint = Util.getStore(context).getString(KEY_URL_ENDPOINT, context.getString(R.string.alexa_api));
+        //get the TLS handshake out of the way while we check our login
+        ClientUtil.getConnectionManager().setEndpoint(urlEndpoint);
 
         mAuthorizationManager = new AuthorizationManager(mContext, productId);
         mAndroidSystemHandler = AndroidSystemHandler.getInstance(context);
+        mEventQueue = new EventQueue(new EventQueue.Sender() {
+            @Override
+            public void send(String event, AsyncCallback<AvsResponse, Exception> callback) {
+                sendQueuedEvent(event, callback);
+            }
+        });
         Intent stickyIntent = new Intent(context, DownChannelService.class);
         context.startService(stickyIntent);
 
-        if(!Util.getPreferences(mContext).contains(IDENTIFIER)){
-            Util.getPreferences(mContext)
+        if(!Util.getStore(mContext).contains(IDENTIFIER)){
+            Util.getStore(mContext)
                     .edit()
                     .putString(IDENTIFIER, createCodeVerifier(30))
                     .apply();
@@ -114,7 +134,9 @@ public class AlexaManager {
 
     public void setUrlEndpoint(String url){
         urlEndpoint = url;
-        Util.getPreferences(mContext)
+        //drop our connections to the old endpoint and open one to the new one
+        ClientUtil.getConnectionManager().setEndpoint(url);
+        Util.getStore(mContext)
                 .edit()
                 .putString(KEY_URL_ENDPOINT, url)
                 .apply();
@@ -245,25 +267,33 @@ public class AlexaManager {
      * @param callback the state change callback
      */
     public void sendTextRequest(final String text, @Nullable final AsyncCallback<AvsResponse, Exception> callback){
+        String dialogRequestId = Event.createDialogRequestId();
+        InteractionTracer.getInstance().start(dialogRequestId);
+        sendTextRequest(text, dialogRequestId, traced(dialogRequestId, callback));
+    }
+
+    private void sendTextRequest(final String text, final String dialogRequestId, @Nullable final AsyncCallback<AvsResponse, Exception> callback){
         //check if the user is already logged in
         mAuthorizationManager.checkLoggedIn(mContext, new ImplCheckLoggedInCallback() {
             @Override
             public void success(Boolean result) {
+                InteractionTracer.getInstance().mark(dialogRequestId, InteractionTracer.Stage.CHECK_LOGGED_IN);
                 if (result) {
                     //if the user is logged in
 
                     //set our URL
                     final String url = getEventsUrl();
                     //do this off the main thread
-                    new AsyncTask<Void, Void, AvsResponse>() {
+                    execute(TrafficExecutors.Traffic.VOICE_UPLOAD, callback, new Runnable() {
                         @Override
-                        protected AvsResponse doInBackground(Void... params) {
+                        public void run() {
                             //get our access token
                             TokenManager.getAccessToken(mAuthorizationManager.getAmazonAuthorizationManager(), mContext, new TokenManager.TokenCallback() {
                                 @Override
                                 public void onSuccess(String token) {
-
+                                    InteractionTracer.getInstance().mark(dialogRequestId, InteractionTracer.Stage.TOKEN_FETCHED);
                                     try {
+                                        getSpeechSendText().setDialogRequestId(dialogRequestId);
                                         getSpeechSendText().sendText(mContext, url, token, text, new AsyncEventHandler(AlexaManager.this, callback));
                                     } catch (Exception e) {
                                         e.printStackTrace();
@@ -276,18 +306,11 @@ public class AlexaManager {
 
                                 @Override
                                 public void onFailure(Throwable e) {
-
+                                    tokenFailed(dialogRequestId, e, callback);
                                 }
                             });
-                            return null;
                         }
-
-
-                        @Override
-                        protected void onPostExecute(AvsResponse avsResponse) {
-                            super.onPostExecute(avsResponse);
-                        }
-                    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                    });
                 } else {
                     //if the user is not logged in, log them in and then call the function again
                     logIn(new ImplAuthorizationCallback<AvsResponse>(callback) {
@@ -295,7 +318,7 @@ public class AlexaManager {
                         @Override
                         public void onSuccess() {
                             //call our function again
-                            sendTextRequest(text, callback);
+                            sendTextRequest(text, dialogRequestId, callback);
                         }
 
                     });
@@ -328,11 +351,18 @@ public class AlexaManager {
      * @param callback the state change callback
      */
     public void sendAudioRequest(final DataRequestBody requestBody, @Nullable final AsyncCallback<AvsResponse, Exception> callback){
+        String dialogRequestId = Event.createDialogRequestId();
+        InteractionTracer.getInstance().start(dialogRequestId);
+        sendAudioRequest(requestBody, dialogRequestId, traced(dialogRequestId, callback));
+    }
+
+    private void sendAudioRequest(final DataRequestBody requestBody, final String dialogRequestId, @Nullable final AsyncCallback<AvsResponse, Exception> callback){
         //check if the user is already logged in
         mAuthorizationManager.checkLoggedIn(mContext, new ImplCheckLoggedInCallback() {
 
             @Override
             public void success(Boolean result) {
+                InteractionTracer.getInstance().mark(dialogRequestId, InteractionTracer.Stage.CHECK_LOGGED_IN);
                 if (result) {
                     //if the user is logged in
 
@@ -342,11 +372,13 @@ public class AlexaManager {
                     TokenManager.getAccessToken(mAuthorizationManager.getAmazonAuthorizationManager(), mContext, new TokenManager.TokenCallback() {
                         @Override
                         public void onSuccess(final String token) {
+                            InteractionTracer.getInstance().mark(dialogRequestId, InteractionTracer.Stage.TOKEN_FETCHED);
                             //do this off the main thread
-                            new AsyncTask<Void, Void, AvsResponse>() {
+                            execute(TrafficExecutors.Traffic.VOICE_UPLOAD, callback, new Runnable() {
                                 @Override
-                                protected AvsResponse doInBackground(Void... params) {
+                                public void run() {
                                     try {
+                                        getSpeechSendAudio().setDialogRequestId(dialogRequestId);
                                         getSpeechSendAudio().sendAudio(url, token, requestBody, new AsyncEventHandler(AlexaManager.this, callback));
                                     } catch (IOException e) {
                                         e.printStackTrace();
@@ -355,18 +387,13 @@ public class AlexaManager {
                                             callback.failure(e);
                                         }
                                     }
-                                    return null;
                                 }
-                                @Override
-                                protected void onPostExecute(AvsResponse avsResponse) {
-                                    super.onPostExecute(avsResponse);
-                                }
-                            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                            });
                         }
 
                         @Override
                         public void onFailure(Throwable e) {
-
+                            tokenFailed(dialogRequestId, e, callback);
                         }
                     });
                 } else {
@@ -375,7 +402,7 @@ public class AlexaManager {
                         @Override
                         public void onSuccess() {
                             //call our function again
-                            sendAudioRequest(requestBody, callback);
+                            sendAudioRequest(requestBody, dialogRequestId, callback);
                         }
                     });
                 }
@@ -491,57 +518,136 @@ public class AlexaManager {
 
     /**
      * Send a generic event to the AVS server, this is generated using {@link com.willblaschko.android.alexa.data.Event.Builder}
+     *
+     * Events are queued and sent one at a time by priority, an event that only reports our latest state (VolumeChanged,
+     * SynchronizeState) replaces the same event if it's still waiting, see {@link EventQueue}
      * @param event the string JSON event
-     * @param callback
+     * @param callback called on our event thread, with the response to the event or to the newer event that replaced it
      */
     public void sendEvent(final String event, final AsyncCallback<AvsResponse, Exception> callback){
-        //check if the user is already logged in
-        mAuthorizationManager.checkLoggedIn(mContext, new ImplCheckLoggedInCallback() {
+        mEventQueue.send(event, callback);
+    }
+
+    public EventQueue getEventQueue(){
+        return mEventQueue;
+    }
 
+    /**
+     * Send a single event from our queue, blocking until its response has been read
+     */
+    private void sendQueuedEvent(final String event, final AsyncCallback<AvsResponse, Exception> callback){
+        //the token usually comes straight from memory, if it's being refreshed we're called back on the thread that read it
+        final String[] token = new String[1];
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        TokenManager.getAccessToken(mAuthorizationManager.getAmazonAuthorizationManager(), mContext, new TokenManager.TokenCallback() {
             @Override
-            public void success(Boolean result) {
-                if (result) {
-                    //if the user is logged in
+            public void onSuccess(String result) {
+                token[0] = result;
+                latch.countDown();
+            }
 
-                    //set our URL
-                    final String url = getEventsUrl();
-                    //get our access token
-                    TokenManager.getAccessToken(mAuthorizationManager.getAmazonAuthorizationManager(), mContext, new TokenManager.TokenCallback() {
-                        @Override
-                        public void onSuccess(final String token) {
-                            //do this off the main thread
-                            new AsyncTask<Void, Void, AvsResponse>() {
-                                @Override
-                                protected AvsResponse doInBackground(Void... params) {
-                                    Log.i(TAG, event);
-                                    new GenericSendEvent(url, token, event, new AsyncEventHandler(AlexaManager.this, callback));
-                                    return null;
-                                }
-                                @Override
-                                protected void onPostExecute(AvsResponse avsResponse) {
-                                    super.onPostExecute(avsResponse);
-                                }
-                            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                        }
+            @Override
+            public void onFailure(Throwable e) {
+                error[0] = e;
+                latch.countDown();
+            }
+        });
 
-                        @Override
-                        public void onFailure(Throwable e) {
+        try {
+            if (!latch.await(TOKEN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                error[0] = new IOException("Timed out getting an access token");
+            }
+        } catch (InterruptedException e) {
+            error[0] = e;
+        }
 
-                        }
-                    });
-                } else {
-                    //if the user is not logged in, log them in and then call the function again
-                    logIn(new ImplAuthorizationCallback<AvsResponse>(callback) {
-                        @Override
-                        public void onSuccess() {
-                            //call our function again
-                            sendEvent(event, callback);
-                        }
-                    });
+        if (token[0] == null) {
+            Log.e(TAG, "Couldn't send event, no access token", error[0]);
+            if (callback != null) {
+                //a token call that timed out is reported as the timeout it was
+                callback.failure(error[0] instanceof AvsTimeoutException ? (AvsTimeoutException) error[0]
+                        : new AvsException("Couldn't get an access token", error[0]));
+                callback.complete();
+            }
+            return;
+        }
+
+        Log.i(TAG, event);
+        new GenericSendEvent(getEventsUrl(), token[0], event, new AsyncEventHandler(AlexaManager.this, callback));
+    }
+
+    /**
+     * We couldn't get an access token for a voice request, fail it (and with it its trace)
+     */
+    private static void tokenFailed(String dialogRequestId, Throwable e, @Nullable AsyncCallback<AvsResponse, Exception> callback){
+        if(callback == null){
+            InteractionTracer.getInstance().fail(dialogRequestId, e);
+            return;
+        }
+        callback.failure(e instanceof Exception ? (Exception) e : new AvsException("Couldn't get an access token", e));
+        callback.complete();
+    }
+
+    /**
+     * Run a request on the executor for its kind of traffic, failing the request if the executor is full
+     */
+    private void execute(TrafficExecutors.Traffic traffic, @Nullable AsyncCallback<AvsResponse, Exception> callback, Runnable request){
+        try {
+            TrafficExecutors.get(traffic).execute(request);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Too many " + traffic + " requests, dropping one", e);
+            if(callback != null) {
+                callback.failure(e);
+                callback.complete();
+            }
+        }
+    }
+
+    /**
+     * Wrap the callback of a voice request so a failure also ends its trace, the trace is finished by whoever plays the
+     * response, see {@link InteractionTracer#finish(String)}
+     */
+    private AsyncCallback<AvsResponse, Exception> traced(final String dialogRequestId, @Nullable final AsyncCallback<AvsResponse, Exception> callback){
+        return new AsyncCallback<AvsResponse, Exception>() {
+            @Override
+            public void start() {
+                if(callback != null) {
+                    callback.start();
                 }
             }
 
-        });
+            @Override
+            public void success(AvsResponse result) {
+                if(callback != null) {
+                    callback.success(result);
+                }
+            }
+
+            @Override
+            public void failure(Exception error) {
+                InteractionTracer.getInstance().fail(dialogRequestId, error);
+                if(callback != null) {
+                    callback.failure(error);
+                }
+            }
+
+            @Override
+            public void complete() {
+                if(callback != null) {
+                    callback.complete();
+                }
+            }
+        };
+    }
+
+    private static boolean hasAudio(AvsResponse items) {
+        for (AvsItem item : items) {
+            if (item instanceof AvsSpeakItem || item instanceof AvsPlayRemoteItem || item instanceof AvsPlayContentItem) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean isAudioPlayItem (AvsItem item) {
@@ -610,12 +716,23 @@ public class AlexaManager {
                     Log.w(TAG, "Received a 204 response code from Amazon, is this expected?");
                 }
 
+                //hand each item to our system handler as soon as it's been parsed, rather than waiting for the full response
                 final AvsResponse items = response.code() == HttpURLConnection.HTTP_NO_CONTENT ? new AvsResponse() :
-                        ResponseParser.parseResponse(response.body().byteStream(), getBoundary(response));
+                        ResponseParser.parseResponse(response.body().source(), getBoundary(response), new ResponseParser.Callback() {
+                            @Override
+                            public void onItem(AvsItem item) {
+                                mAndroidSystemHandler.handleItem(item);
+                            }
+                        });
 
                 response.body().close();
 
-                mAndroidSystemHandler.handleItems(items);
+                //voice requests are tagged with their dialogRequestId, if there's nothing in the response to play
+                //the interaction is over now, otherwise whoever plays it finishes its trace
+                Object tag = currentCall.request().tag();
+                if (tag instanceof String && !hasAudio(items)) {
+                    InteractionTracer.getInstance().finish((String) tag);
+                }
 
                 if (callback != null) {
                     callback.success(items);
@@ -38,7 +38,7 @@ public class AuthorizationManager {
     private AuthorizationCallback mCallback;
 
 
-    private static final String CODE_VERIFIER = "code_verifier";
+    public static final String CODE_VERIFIER = "code_verifier";
 
     /**
      * Create a new Auth Manager based on the supplied product id
@@ -194,13 +194,13 @@ public class AuthorizationManager {
      * @return the String code verifier
      */
     private String getCodeVerifier(){
-        if(Util.getPreferences(mContext).contains(CODE_VERIFIER)){
-            return Util.getPreferences(mContext).getString(CODE_VERIFIER, "");
+        if(Util.getStore(mContext).contains(CODE_VERIFIER)){
+            return Util.getStore(mContext).getString(CODE_VERIFIER, "");
         }
 
         //no verifier found, make and store the new one
         String verifier = createCodeVerifier();
-        Util.getPreferences(mContext).edit().putString(CODE_VERIFIER, verifier).apply();
+        Util.getStore(mContext).edit().putString(CODE_VERIFIER, verifier).apply();
         return verifier;
     }
 
@@ -1,7 +1,6 @@
 package com.willblaschko.android.alexa;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -9,18 +8,26 @@ import android.util.Log;
 import com.amazon.identity.auth.device.AuthError;
 import com.amazon.identity.auth.device.authorization.api.AmazonAuthorizationManager;
 import com.google.gson.Gson;
+import com.willblaschko.android.alexa.connection.ClientProfile;
 import com.willblaschko.android.alexa.connection.ClientUtil;
+import com.willblaschko.android.alexa.utility.PreferenceStore;
 import com.willblaschko.android.alexa.utility.Util;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.FormBody;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -28,6 +35,9 @@ import okhttp3.Response;
  * A utility class designed to request, receive, store, and renew Amazon authentication tokens using a Volley interface and the Amazon auth API
  *
  * Some more details here: https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/docs/authorizing-your-alexa-enabled-product-from-a-website
+ *
+ * Our tokens are kept in memory once they've been read from preferences, and the access token is refreshed a few minutes
+ * before it expires, so callers almost never wait on a refresh. If they do, every caller waits on the same refresh request.
  */
 public class TokenManager {
 
@@ -36,6 +46,23 @@ public class TokenManager {
     private static String REFRESH_TOKEN;
     private static String ACCESS_TOKEN;
 
+    //a token this close to expiring is treated as expired, so it doesn't run out while a request is in flight
+    private final static long EXPIRY_MARGIN_MILLIS = 30 * 1000;
+    //how long before it expires we refresh our token in the background
+    private final static long REFRESH_AHEAD_MILLIS = 5 * 60 * 1000;
+
+    //everything below is guarded by LOCK, along with our tokens
+    private final static Object LOCK = new Object();
+    private static boolean mLoaded = false;
+    private static long mExpiresAt = 0;
+    //the callers waiting on the refresh that's in flight, null if there isn't one
+    private static List<Waiter> mWaiting;
+    //what we need to refresh in the background
+    private static AmazonAuthorizationManager mAuthorizationManager;
+    private static Context mContext;
+    private static ScheduledExecutorService mScheduler;
+    private static ScheduledFuture<?> mScheduledRefresh;
+
     private final static String ARG_GRANT_TYPE = "grant_type";
     private final static String ARG_CODE = "code";
     private final static String ARG_REDIRECT_URI = "redirect_uri";
@@ -57,6 +84,8 @@ public class TokenManager {
      * @param callback the callback for state changes
      */
     public static void getAccessToken(final Context context, @NotNull String authCode, @NotNull String codeVerifier, AmazonAuthorizationManager authorizationManager, @Nullable final TokenResponseCallback callback){
+        remember(authorizationManager, context);
+
         //this url shouldn't be hardcoded, but it is, it's the Amazon auth access token endpoint
         String url = "https://api.amazon.com/auth/O2/token";
 
@@ -72,8 +101,6 @@ public class TokenManager {
         }
         builder.add(ARG_CODE_VERIFIER, codeVerifier);
 
-        OkHttpClient client = ClientUtil.getTLS12OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(url)
                 .post(builder.build())
@@ -82,7 +109,7 @@ public class TokenManager {
         final Handler handler = new Handler(Looper.getMainLooper());
 
 
-        client.newCall(request).enqueue(new Callback() {
+        ClientUtil.newCall(ClientProfile.TOKEN, request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, final IOException e) {
                 e.printStackTrace();
@@ -124,40 +151,153 @@ public class TokenManager {
     /**
      * Check if we have a pre-existing access token, and whether that token is expired. If it is not, return that token, otherwise get a refresh token and then
      * use that to get a new token.
+     *
+     * A valid token is handed to the callback straight away, on the calling thread. If we have to wait on a refresh, the
+     * callback is posted back to the calling thread if it has a Looper, otherwise it's called on the thread that read the
+     * refresh response.
      * @param authorizationManager our AuthManager
      * @param context local/application context
      * @param callback the TokenCallback where we return our tokens when successful
      */
     public static void getAccessToken(@NotNull AmazonAuthorizationManager authorizationManager, @NotNull Context context, @NotNull TokenCallback callback) {
-        SharedPreferences preferences = Util.getPreferences(context.getApplicationContext());
-        //if we have an access token
-        if(preferences.contains(PREF_ACCESS_TOKEN)){
-
-            if(preferences.getLong(PREF_TOKEN_EXPIRES, 0) > System.currentTimeMillis()){
-                //if it's not expired, return the existing token
-                callback.onSuccess(preferences.getString(PREF_ACCESS_TOKEN, null));
-                return;
-            }else{
-                //if it is expired but we have a refresh token, get a new token
-                if(preferences.contains(PREF_REFRESH_TOKEN)){
-                    getRefreshToken(authorizationManager, context, callback, preferences.getString(PREF_REFRESH_TOKEN, ""));
+        String accessToken;
+        String refreshToken;
+        synchronized (LOCK) {
+            remember(authorizationManager, context);
+            load(context);
+            accessToken = ACCESS_TOKEN;
+            refreshToken = REFRESH_TOKEN;
+            if (accessToken == null || System.currentTimeMillis() >= mExpiresAt - EXPIRY_MARGIN_MILLIS) {
+                //if it is expired but we have a refresh token, get a new token (or wait on the one we're already getting)
+                if (refreshToken != null) {
+                    refresh(new Waiter(callback));
                     return;
                 }
+                accessToken = null;
             }
         }
 
+        if (accessToken != null) {
+            //if it's not expired, return the existing token
+            callback.onSuccess(accessToken);
+            return;
+        }
+
         //uh oh, the user isn't logged in, we have an IllegalStateException going on!
         callback.onFailure(new IllegalStateException("User is not logged in and no refresh token found."));
     }
 
+    /**
+     * Keep what we need to refresh our token in the background
+     */
+    private static void remember(AmazonAuthorizationManager authorizationManager, Context context) {
+        synchronized (LOCK) {
+            if (authorizationManager != null) {
+                mAuthorizationManager = authorizationManager;
+            }
+            mContext = context.getApplicationContext();
+        }
+    }
+
+    /**
+     * Read our tokens from our store the first time they're needed, from then on they're kept in memory
+     */
+    private static void load(Context context) {
+        if (mLoaded) {
+            return;
+        }
+        PreferenceStore preferences = Util.getStore(context);
+        ACCESS_TOKEN = preferences.getString(PREF_ACCESS_TOKEN, null);
+        REFRESH_TOKEN = preferences.getString(PREF_REFRESH_TOKEN, null);
+        mExpiresAt = preferences.getLong(PREF_TOKEN_EXPIRES, 0);
+        mLoaded = true;
+        scheduleRefresh();
+    }
+
+    /**
+     * Start refreshing our token, unless we already are, called with LOCK held
+     * @param waiter told about the new token, null for a background refresh
+     */
+    private static void refresh(@Nullable Waiter waiter) {
+        if (mWaiting != null) {
+            //there's already a request out, wait on that one
+            if (waiter != null) {
+                mWaiting.add(waiter);
+            }
+            return;
+        }
+        mWaiting = new ArrayList<>();
+        if (waiter != null) {
+            mWaiting.add(waiter);
+        }
+        try {
+            getRefreshToken(mAuthorizationManager, mContext, REFRESH_TOKEN);
+        } catch (RuntimeException e) {
+            //we never got a request out, don't leave anyone waiting on it
+            finishRefresh(null, e);
+        }
+    }
+
+    /**
+     * Refresh our token a little before it expires, called with LOCK held
+     */
+    private static void scheduleRefresh() {
+        if (mScheduledRefresh != null) {
+            mScheduledRefresh.cancel(false);
+            mScheduledRefresh = null;
+        }
+        if (REFRESH_TOKEN == null || mExpiresAt == 0) {
+            return;
+        }
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        long delay = Math.max(0, mExpiresAt - REFRESH_AHEAD_MILLIS - System.currentTimeMillis());
+        mScheduledRefresh = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (LOCK) {
+                    mScheduledRefresh = null;
+                    if (mAuthorizationManager != null && REFRESH_TOKEN != null) {
+                        Log.i(TAG, "Refreshing our access token before it expires");
+                        refresh(null);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand the outcome of our refresh to everyone waiting on it
+     */
+    private static void finishRefresh(@Nullable String token, @Nullable Throwable error) {
+        List<Waiter> waiting;
+        synchronized (LOCK) {
+            waiting = mWaiting;
+            mWaiting = null;
+        }
+        if (error != null) {
+            Log.e(TAG, "Couldn't refresh our access token", error);
+        }
+        for (Waiter waiter : waiting) {
+            waiter.deliver(token, error);
+        }
+    }
+
     /**
      * Get a new refresh token from the Amazon server to replace the expired access token that we currently have
      * @param authorizationManager
      * @param context
-     * @param callback
      * @param refreshToken the refresh token we have stored in local cache (sharedPreferences)
      */
-    private static void getRefreshToken(@NotNull AmazonAuthorizationManager authorizationManager, @NotNull final Context context, @NotNull final TokenCallback callback, String refreshToken){
+    private static void getRefreshToken(@NotNull AmazonAuthorizationManager authorizationManager, @NotNull final Context context, String refreshToken){
         //this url shouldn't be hardcoded, but it is, it's the Amazon auth access token endpoint
         String url = "https://api.amazon.com/auth/O2/token";
 
@@ -169,28 +309,16 @@ public class TokenManager {
             builder.add(ARG_CLIENT_ID, authorizationManager.getClientId());
 
 
-        OkHttpClient client = ClientUtil.getTLS12OkHttpClient();
-
         Request request = new Request.Builder()
                 .url(url)
                 .post(builder.build())
                 .build();
 
-        final Handler handler = new Handler(Looper.getMainLooper());
-
-        client.newCall(request).enqueue(new Callback() {
+        ClientUtil.newCall(ClientProfile.TOKEN, request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, final IOException e) {
-                e.printStackTrace();
-                if(callback != null){
-                    //bubble up error
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onFailure(e);
-                        }
-                    });
-                }
+                //bubble up error
+                finishRefresh(null, e);
             }
 
             @Override
@@ -201,35 +329,41 @@ public class TokenManager {
                 }
 
                 //get our tokens back
-                final TokenResponse tokenResponse = new Gson().fromJson(s, TokenResponse.class);
+                TokenResponse tokenResponse = new Gson().fromJson(s, TokenResponse.class);
+                if(!response.isSuccessful() || tokenResponse == null || tokenResponse.access_token == null){
+                    finishRefresh(null, new IOException("Token refresh failed with " + response.code()));
+                    return;
+                }
                 //save our tokens
                 saveTokens(context, tokenResponse);
                 //we have new tokens!
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onSuccess(tokenResponse.access_token);
-                    }
-                });
+                finishRefresh(tokenResponse.access_token, null);
             }
         });
     }
 
     /**
-     * Save our new tokens in SharePreferences so we can access them at a later point
+     * Save our new tokens in our store so we can access them at a later point, they're written to disk in the background
      * @param context
      * @param tokenResponse
      */
     private static void saveTokens(Context context, TokenResponse tokenResponse){
-        REFRESH_TOKEN = tokenResponse.refresh_token;
-        ACCESS_TOKEN = tokenResponse.access_token;
-
-        SharedPreferences.Editor preferences = Util.getPreferences(context.getApplicationContext()).edit();
-        preferences.putString(PREF_ACCESS_TOKEN, ACCESS_TOKEN);
-        preferences.putString(PREF_REFRESH_TOKEN, REFRESH_TOKEN);
-        //comes back in seconds, needs to be milis
-        preferences.putLong(PREF_TOKEN_EXPIRES, (System.currentTimeMillis() + tokenResponse.expires_in * 1000));
-        preferences.commit();
+        PreferenceStore.Editor preferences = Util.getStore(context).edit();
+        synchronized (LOCK) {
+            if (tokenResponse.refresh_token != null) {
+                REFRESH_TOKEN = tokenResponse.refresh_token;
+            }
+            ACCESS_TOKEN = tokenResponse.access_token;
+            //comes back in seconds, needs to be milis
+            mExpiresAt = System.currentTimeMillis() + tokenResponse.expires_in * 1000;
+            mLoaded = true;
+            scheduleRefresh();
+
+            preferences.putString(PREF_ACCESS_TOKEN, ACCESS_TOKEN);
+            preferences.putString(PREF_REFRESH_TOKEN, REFRESH_TOKEN);
+            preferences.putLong(PREF_TOKEN_EXPIRES, mExpiresAt);
+        }
+        preferences.apply();
     }
 
     public interface TokenResponseCallback {
@@ -249,4 +383,35 @@ public class TokenManager {
         void onSuccess(String token);
         void onFailure(Throwable e);
     }
+
+    /**
+     * A caller waiting on a refresh, and the thread to tell it on
+     */
+    private static class Waiter {
+        private final TokenCallback mCallback;
+        //the caller's Looper, if it has one
+        private final Looper mLooper = Looper.myLooper();
+
+        Waiter(TokenCallback callback) {
+            mCallback = callback;
+        }
+
+        void deliver(final String token, final Throwable error) {
+            Runnable delivery = new Runnable() {
+                @Override
+                public void run() {
+                    if (error != null) {
+                        mCallback.onFailure(error);
+                    } else {
+                        mCallback.onSuccess(token);
+                    }
+                }
+            };
+            if (mLooper != null) {
+                new Handler(mLooper).post(delivery);
+            } else {
+                delivery.run();
+            }
+        }
+    }
 }
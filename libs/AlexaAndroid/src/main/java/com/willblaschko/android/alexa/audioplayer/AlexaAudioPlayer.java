@@ -4,15 +4,19 @@ import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
-import android.os.AsyncTask;
 import android.os.PowerManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.willblaschko.android.alexa.data.DeviceContextCache;
+import com.willblaschko.android.alexa.data.DeviceContextCache.PlayerActivity;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem;
 import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayContentItem;
 import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayRemoteItem;
 import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+import com.willblaschko.android.alexa.utility.TrafficExecutors;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -164,6 +168,10 @@ public class AlexaAudioPlayer {
         if(isPlaying()){
             Log.w(TAG, "Already playing an item, did you mean to play another?");
         }
+        if(mItem != item){
+            //we're skipping whatever we had before, we won't play its audio again
+            releaseAudio(mItem);
+        }
         mItem = item;
         if(getMediaPlayer().isPlaying()){
             //if we're playing, stop playing before we continue
@@ -221,7 +229,7 @@ public class AlexaAudioPlayer {
             FileOutputStream fos = null;
             try {
                 fos = new FileOutputStream(path);
-                fos.write(playItem.getAudio());
+                playItem.writeAudioTo(fos);
                 fos.close();
                 //play our newly-written file
                 getMediaPlayer().setDataSource(path.getPath());
@@ -253,6 +261,7 @@ public class AlexaAudioPlayer {
      */
     public void pause(){
         getMediaPlayer().pause();
+        updateContext(mItem, PlayerActivity.PAUSED);
     }
 
     /**
@@ -260,13 +269,16 @@ public class AlexaAudioPlayer {
      */
     public void play(){
         getMediaPlayer().start();
+        updateContext(mItem, PlayerActivity.PLAYING);
     }
 
     /**
      * A helper function to stop the MediaPlayer
      */
     public void stop(){
+        updateContext(mItem, PlayerActivity.STOPPED);
         getMediaPlayer().stop();
+        releaseAudio(mItem);
     }
 
     /**
@@ -275,12 +287,24 @@ public class AlexaAudioPlayer {
     public void release(){
         if(mMediaPlayer != null){
             if(mMediaPlayer.isPlaying()){
+                updateContext(mItem, PlayerActivity.STOPPED);
                 mMediaPlayer.stop();
             }
             mMediaPlayer.reset();
             mMediaPlayer.release();
         }
         mMediaPlayer = null;
+        releaseAudio(mItem);
+    }
+
+    /**
+     * Hand the audio of a speech item back to the segment pool once we're done with it, whether it finished, was
+     * stopped or skipped, or failed. It's been written out to the file we play from by then.
+     */
+    private static void releaseAudio(@Nullable AvsItem item){
+        if(item instanceof AvsSpeakItem){
+            ((AvsSpeakItem) item).release();
+        }
     }
 
     public void duck(float value) {
@@ -309,6 +333,37 @@ public class AlexaAudioPlayer {
         }
     }
 
+    /**
+     * Keep the device context sent with our Recognize events in step with the player, Speak items are reported as
+     * the SpeechState and everything else as the PlaybackState
+     * @param item the item whose state changed
+     * @param activity what the player is doing with it now
+     */
+    private void updateContext(AvsItem item, PlayerActivity activity){
+        if(item == null){
+            return;
+        }
+        long offset = 0;
+        if(mMediaPlayer != null){
+            try {
+                offset = mMediaPlayer.getCurrentPosition();
+            }catch (IllegalStateException e){
+                //not prepared yet, we're at the start
+            }
+        }
+        DeviceContextCache cache = DeviceContextCache.getInstance();
+        //AudioPlayer.Play items with cid: audio are AvsSpeakItems too, they're still playback
+        if(item instanceof AvsPlayAudioItem){
+            cache.setPlaybackState(item.getToken(), offset, activity);
+        }else if(item instanceof AvsSpeakItem){
+            //speech is either playing or it's finished
+            cache.setSpeechState(item.getToken(), offset,
+                    activity == PlayerActivity.PLAYING ? PlayerActivity.PLAYING : PlayerActivity.FINISHED);
+        }else{
+            cache.setPlaybackState(item.getToken(), offset, activity);
+        }
+    }
+
     /**
      * A callback to keep track of the state of the MediaPlayer and various AvsItem states
      */
@@ -328,6 +383,7 @@ public class AlexaAudioPlayer {
         for(Callback callback: mCallbacks){
             callback.dataError(mItem, e);
         }
+        releaseAudio(mItem);
     }
 
     /**
@@ -336,10 +392,14 @@ public class AlexaAudioPlayer {
     private MediaPlayer.OnCompletionListener mCompletionListener = new MediaPlayer.OnCompletionListener() {
         @Override
         public void onCompletion(MediaPlayer mp) {
+            AvsItem completedItem = mItem;
+            updateContext(completedItem, PlayerActivity.FINISHED);
             for(Callback callback: mCallbacks){
-                callback.playerProgress(mItem, 1, 1);
-                callback.itemComplete(mItem);
+                callback.playerProgress(completedItem, 1, 1);
+                callback.itemComplete(completedItem);
             }
+            //we're done with the audio, give it back to the pool
+            releaseAudio(completedItem);
         }
     };
 
@@ -354,9 +414,13 @@ public class AlexaAudioPlayer {
                 callback.playerProgress(mItem, mMediaPlayer.getCurrentPosition(), 0);
             }
             mMediaPlayer.start();
-            new AsyncTask<Void, Void, Void>(){
+            updateContext(mItem, PlayerActivity.PLAYING);
+            if(mItem != null){
+                InteractionTracer.getInstance().mark(mItem.getDialogRequestId(), InteractionTracer.Stage.FIRST_AUDIO_PLAYED);
+            }
+            TrafficExecutors.get(TrafficExecutors.Traffic.PLAYBACK_MONITOR).execute(new Runnable() {
                 @Override
-                protected Void doInBackground(Void... params) {
+                public void run() {
                     try {
                         while (getMediaPlayer() != null && getMediaPlayer().isPlaying()) {
                             int pos = getMediaPlayer().getCurrentPosition();
@@ -371,9 +435,8 @@ public class AlexaAudioPlayer {
                     }catch (NullPointerException|IllegalStateException e){
                         e.printStackTrace();
                     }
-                    return null;
                 }
-            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            });
         }
     };
 
@@ -383,13 +446,18 @@ public class AlexaAudioPlayer {
     private MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
         @Override
         public boolean onError(MediaPlayer mp, int what, int extra) {
-            for(Callback callback: mCallbacks){
-                boolean response = callback.playerError(mItem, what, extra);
-                if(response){
-                    return response;
+            AvsItem failedItem = mItem;
+            try {
+                for (Callback callback : mCallbacks) {
+                    boolean response = callback.playerError(failedItem, what, extra);
+                    if (response) {
+                        return response;
+                    }
                 }
+                return false;
+            } finally {
+                releaseAudio(failedItem);
             }
-            return false;
         }
     };
 
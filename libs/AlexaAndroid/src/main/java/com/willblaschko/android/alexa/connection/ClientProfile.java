@@ -0,0 +1,71 @@
+package com.willblaschko.android.alexa.connection;
+
+/**
+ * The kinds of traffic our client carries, each gets its own client from {@link ClientUtil#getClient(ClientProfile)}.
+ *
+ * The clients share one connection pool and TLS setup, so the AVS traffic still shares one connection, but each has its
+ * own dispatcher, timeouts ({@link DeadlinePolicy}) and interceptors. The downchannel holds its request open for as long
+ * as the server lets it and events come in bursts, with their own dispatchers neither one takes a slot a voice request
+ * or a token refresh is waiting on.
+ */
+public enum ClientProfile {
+
+    /**
+     * The long lived downchannel GET, there's only one, the second slot is for its replacement while a cancelled one
+     * winds down
+     */
+    DOWNCHANNEL(DeadlinePolicy.DOWNCHANNEL, 2, true, false),
+    /**
+     * Pings, and prewarming the connection, see {@link ConnectionManager#prewarm()}
+     */
+    HEARTBEAT(DeadlinePolicy.PING, 2, true, false),
+    /**
+     * Events, sent in bursts when playback starts and stops
+     */
+    EVENTS(DeadlinePolicy.EVENT, 4, true, false),
+    /**
+     * Recognize, the user is waiting on these
+     */
+    VOICE(DeadlinePolicy.RECOGNIZE, 4, true, true),
+    /**
+     * Getting and refreshing tokens, these go to the Amazon auth server rather than AVS
+     */
+    TOKEN(DeadlinePolicy.TOKEN, 2, false, false);
+
+    private final DeadlinePolicy mDeadlinePolicy;
+    private final int mMaxRequests;
+    private final boolean mKeepsAlive;
+    private final boolean mTraced;
+
+    ClientProfile(DeadlinePolicy deadlinePolicy, int maxRequests, boolean keepsAlive, boolean traced) {
+        mDeadlinePolicy = deadlinePolicy;
+        mMaxRequests = maxRequests;
+        mKeepsAlive = keepsAlive;
+        mTraced = traced;
+    }
+
+    public DeadlinePolicy getDeadlinePolicy() {
+        return mDeadlinePolicy;
+    }
+
+    /**
+     * @return how many of our requests can be running on our dispatcher at once, the rest wait in its queue
+     */
+    public int getMaxRequests() {
+        return mMaxRequests;
+    }
+
+    /**
+     * @return whether our requests go over the AVS connection, and so count as a ping, see {@link Heartbeat#onActivity()}
+     */
+    public boolean keepsAlive() {
+        return mKeepsAlive;
+    }
+
+    /**
+     * @return whether our requests can be part of a traced interaction, see {@link TracingInterceptor}
+     */
+    public boolean isTraced() {
+        return mTraced;
+    }
+}
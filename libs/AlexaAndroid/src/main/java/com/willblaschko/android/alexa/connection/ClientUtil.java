@@ -3,10 +3,16 @@ package com.willblaschko.android.alexa.connection;
 import android.os.Build;
 import android.util.Log;
 
+import java.io.IOException;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
@@ -14,10 +20,15 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Call;
 import okhttp3.CipherSuite;
 import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import okhttp3.TlsVersion;
 
 /**
@@ -29,8 +40,28 @@ import okhttp3.TlsVersion;
 public class ClientUtil {
 
     private static OkHttpClient mClient;
+    //a client per kind of traffic, they share our client's pool and TLS setup
+    private static final Map<ClientProfile, OkHttpClient> mProfileClients = new EnumMap<>(ClientProfile.class);
+    private static volatile Heartbeat mHeartbeat;
+    private static final ConnectionManager mConnectionManager = new ConnectionManager();
     private static final long CONNECTION_POOL_TIMEOUT_MILLISECONDS = 60 * 60 * 1000;
 
+    //every request on our connection counts as a heartbeat
+    private static final Interceptor ACTIVITY_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Heartbeat heartbeat = mHeartbeat;
+            if (heartbeat != null) {
+                heartbeat.onActivity();
+            }
+            return chain.proceed(chain.request());
+        }
+    };
+
+    /**
+     * @return our shared client, with no timeouts, the library's own calls use the client for their kind of traffic
+     * instead, see {@link #getClient(ClientProfile)}
+     */
     public static OkHttpClient getTLS12OkHttpClient(){
         if(mClient == null) {
 
@@ -38,7 +69,9 @@ public class ClientUtil {
                     CONNECTION_POOL_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
             OkHttpClient.Builder client = new OkHttpClient.Builder().connectTimeout(0, TimeUnit.MILLISECONDS)  // 0 => no timeout.
                     .readTimeout(0, TimeUnit.MILLISECONDS)
-                    .connectionPool(connectionPool);
+                    .connectionPool(connectionPool)
+                    .addInterceptor(ACTIVITY_INTERCEPTOR)
+                    .addNetworkInterceptor(mConnectionManager.getInterceptor());
 
             if (Build.VERSION.SDK_INT >= 16 && Build.VERSION.SDK_INT < 22) {
                 try {
@@ -81,4 +114,86 @@ public class ClientUtil {
         return mClient;
     }
 
+    /**
+     * @return the client for a kind of traffic: our client's pool and TLS setup, with the profile's own dispatcher,
+     * timeouts and interceptors
+     */
+    public static synchronized OkHttpClient getClient(final ClientProfile profile){
+        OkHttpClient client = mProfileClients.get(profile);
+        if(client == null){
+            Dispatcher dispatcher = new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "OkHttp " + profile.name().toLowerCase());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }));
+            dispatcher.setMaxRequests(profile.getMaxRequests());
+            dispatcher.setMaxRequestsPerHost(profile.getMaxRequests());
+
+            OkHttpClient.Builder builder = profile.getDeadlinePolicy().apply(getTLS12OkHttpClient().newBuilder())
+                    .dispatcher(dispatcher);
+            if(!profile.keepsAlive()){
+                builder.interceptors().remove(ACTIVITY_INTERCEPTOR);
+            }
+            if(profile.isTraced()){
+                builder.addNetworkInterceptor(new TracingInterceptor());
+            }
+            client = builder.build();
+            mProfileClients.put(profile, client);
+        }
+        return client;
+    }
+
+    /**
+     * Create a call on the client for a kind of traffic, it's held to every limit of the profile's
+     * {@link DeadlinePolicy}, including its budget for the whole call, and fails with an
+     * {@link com.willblaschko.android.alexa.interfaces.AvsTimeoutException} when it runs out of time
+     */
+    public static Call newCall(ClientProfile profile, Request request){
+        return new DeadlineCall(getClient(profile).newCall(request), profile.getDeadlinePolicy());
+    }
+
+    /**
+     * @return the manager of our client's connections, to point them at the current endpoint and see how often they're reused
+     */
+    public static synchronized ConnectionManager getConnectionManager(){
+        //the connection is warmed up by its keepalive traffic
+        mConnectionManager.setClient(getClient(ClientProfile.HEARTBEAT));
+        return mConnectionManager;
+    }
+
+    /**
+     * Start pinging the server over our shared client, if we aren't already. There's only one heartbeat for the whole
+     * connection, no matter how many times this is called, and any request made with our client pushes its next ping back.
+     * @param requestFactory builds the (authorized) ping request
+     * @param listener told about failed pings, may be null
+     * @return the running heartbeat
+     */
+    public static synchronized Heartbeat startHeartbeat(DownChannel.RequestFactory requestFactory, Heartbeat.Listener listener){
+        if(mHeartbeat == null){
+            mHeartbeat = new Heartbeat(getClient(ClientProfile.HEARTBEAT), requestFactory, listener, Heartbeat.DEFAULT_INTERVAL_MILLIS);
+            mHeartbeat.start();
+        }
+        return mHeartbeat;
+    }
+
+    /**
+     * Stop our heartbeat, if it's running
+     */
+    public static synchronized void stopHeartbeat(){
+        if(mHeartbeat != null){
+            mHeartbeat.stop();
+            mHeartbeat = null;
+        }
+    }
+
+    /**
+     * @return the running heartbeat, for its ping counts, or null if it's not running
+     */
+    public static Heartbeat getHeartbeat(){
+        return mHeartbeat;
+    }
 }
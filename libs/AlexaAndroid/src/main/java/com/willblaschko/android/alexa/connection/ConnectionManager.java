@@ -0,0 +1,229 @@
+package com.willblaschko.android.alexa.connection;
+
+import android.util.Log;
+
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps our client's connections pointed at the current AVS endpoint.
+ *
+ * When we're given an endpoint (at startup, and again on a SetEndpoint directive) we open a connection to it straight
+ * away with a ping, so the TCP and TLS handshakes are done before the first event needs them. When the endpoint changes
+ * the connections to the old one are closed, idle or not, rather than left in the pool until they time out.
+ *
+ * Our interceptor also sees which connection every request goes out on, so we can tell whether it was a new connection
+ * or a reused one, see {@link #getNewConnectionCount()}, {@link #getReusedConnectionCount()} and {@link Listener}.
+ */
+public class ConnectionManager {
+
+    private static final String TAG = "ConnectionManager";
+    private static final String PING_PATH = "/ping";
+    //tags our prewarm requests, so they don't count as requests of their own
+    private static final Object PREWARM_TAG = new Object();
+
+    /**
+     * Told which connection each request went out on, on the thread making the request
+     */
+    public interface Listener {
+        void onConnection(Request request, Connection connection, boolean reused);
+    }
+
+    private final AtomicInteger mNewConnections = new AtomicInteger();
+    private final AtomicInteger mReusedConnections = new AtomicInteger();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    //connections we've seen a request on, and the host they go to, guarded by this
+    private final Map<Connection, String> mConnections = new WeakHashMap<>();
+    private OkHttpClient mClient;
+    private HttpUrl mEndpoint;
+
+    private final Interceptor mInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            Connection connection = chain.connection();
+            if (connection != null) {
+                onConnection(request, connection);
+            }
+            return chain.proceed(request);
+        }
+    };
+
+    /**
+     * @return the network interceptor that watches our connections, it has to be added to the client we manage
+     */
+    Interceptor getInterceptor() {
+        return mInterceptor;
+    }
+
+    /**
+     * @param client the client whose connections we manage, built with our {@link #getInterceptor()}
+     */
+    synchronized void setClient(OkHttpClient client) {
+        mClient = client;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Point our connections at an endpoint. Connections to the endpoint we had before are closed, and a connection to
+     * the new one is opened in the background. Setting the endpoint we already have just makes sure it's warm.
+     * @param endpoint the AVS endpoint, e.g. https://avs-alexa-na.amazon.com
+     */
+    public void setEndpoint(@NotNull String endpoint) {
+        HttpUrl url = HttpUrl.parse(endpoint);
+        if (url == null) {
+            Log.e(TAG, "Not a valid endpoint: " + endpoint);
+            return;
+        }
+        HttpUrl previous;
+        synchronized (this) {
+            previous = mEndpoint;
+            mEndpoint = url;
+        }
+        if (previous != null && !sameHost(previous, url)) {
+            evict(previous.host());
+        }
+        prewarm();
+    }
+
+    /**
+     * @return the endpoint our connections go to, or null if we haven't been given one
+     */
+    @Nullable
+    public synchronized String getEndpoint() {
+        return mEndpoint == null ? null : mEndpoint.toString();
+    }
+
+    /**
+     * Open a connection to our endpoint in the background, if there isn't one in the pool already. The ping isn't
+     * authorized, the server's answer doesn't matter, it's the connection that's left in the pool we're after.
+     */
+    public void prewarm() {
+        final OkHttpClient client;
+        HttpUrl endpoint;
+        synchronized (this) {
+            client = mClient;
+            endpoint = mEndpoint;
+        }
+        if (client == null || endpoint == null) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        Request request = new Request.Builder()
+                .url(endpoint.resolve(PING_PATH))
+                .tag(PREWARM_TAG)
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "Couldn't prewarm a connection to " + call.request().url().host(), e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                response.close();
+                Log.i(TAG, "Prewarmed a connection to " + call.request().url().host() + " in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        });
+    }
+
+    /**
+     * @return how many requests (other than our prewarming) had to open a new connection
+     */
+    public int getNewConnectionCount() {
+        return mNewConnections.get();
+    }
+
+    /**
+     * @return how many requests went out on a connection that was already open
+     */
+    public int getReusedConnectionCount() {
+        return mReusedConnections.get();
+    }
+
+    private void onConnection(Request request, Connection connection) {
+        boolean reused;
+        synchronized (this) {
+            reused = mConnections.put(connection, connection.route().address().url().host()) != null;
+        }
+        if (request.tag() == PREWARM_TAG) {
+            return;
+        }
+        if (reused) {
+            mReusedConnections.incrementAndGet();
+        } else {
+            mNewConnections.incrementAndGet();
+        }
+        if (request.tag() instanceof String) {
+            InteractionTracer.Trace trace = InteractionTracer.getInstance().get((String) request.tag());
+            if (trace != null) {
+                trace.setConnectionReused(reused);
+            }
+        }
+        for (Listener listener : mListeners) {
+            listener.onConnection(request, connection, reused);
+        }
+    }
+
+    /**
+     * Drop every connection to a host: the idle ones are evicted from the pool, the ones in use (the old downchannel,
+     * mostly) have their sockets closed so their calls fail now and are retried against the new endpoint
+     */
+    private void evict(String host) {
+        OkHttpClient client;
+        List<Socket> sockets = new ArrayList<>();
+        synchronized (this) {
+            client = mClient;
+            for (Map.Entry<Connection, String> connection : mConnections.entrySet()) {
+                if (host.equals(connection.getValue())) {
+                    sockets.add(connection.getKey().socket());
+                }
+            }
+        }
+        if (client != null) {
+            //OkHttp 3.6's pool can only evict all of its idle connections, any to our new endpoint are opened again
+            client.connectionPool().evictAll();
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //it's going away either way
+            }
+        }
+        Log.i(TAG, "Evicted " + sockets.size() + " connections to " + host);
+    }
+
+    private static boolean sameHost(HttpUrl first, HttpUrl second) {
+        return first.host().equals(second.host()) && first.port() == second.port();
+    }
+}
@@ -0,0 +1,190 @@
+package com.willblaschko.android.alexa.connection;
+
+import android.util.Log;
+
+import com.willblaschko.android.alexa.interfaces.AvsTimeoutException;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * A call held to a {@link DeadlinePolicy}, including its budget for the whole call, see {@link DeadlinePolicy#getCallMillis()}.
+ * A watchdog is started when the call is executed (or enqueued) and stopped when the response body is closed or read to
+ * the end, if it goes off first the call is cancelled.
+ *
+ * Failures are reported as an {@link AvsTimeoutException} when they were one of our timeouts. A call that ran out of
+ * time doesn't count as cancelled ({@link #isCanceled()}), so callers that ignore failures of calls they cancelled
+ * themselves still hear about it.
+ */
+class DeadlineCall implements Call {
+
+    private static final String TAG = "DeadlineCall";
+
+    private static final ScheduledThreadPoolExecutor mWatchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        //most calls finish in time, don't keep their watchdogs around until they would have gone off
+        mWatchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Call mCall;
+    private final DeadlinePolicy mPolicy;
+    private final AtomicBoolean mExpired = new AtomicBoolean();
+
+    //guarded by this
+    private ScheduledFuture<?> mDeadline;
+    private boolean mDone = false;
+
+    DeadlineCall(Call call, DeadlinePolicy policy) {
+        mCall = call;
+        mPolicy = policy;
+    }
+
+    @Override
+    public Request request() {
+        return mCall.request();
+    }
+
+    @Override
+    public Response execute() throws IOException {
+        startDeadline();
+        try {
+            return watch(mCall.execute());
+        } catch (IOException e) {
+            stopDeadline();
+            throw toTimeout(e);
+        } catch (RuntimeException e) {
+            stopDeadline();
+            throw e;
+        }
+    }
+
+    @Override
+    public void enqueue(final Callback callback) {
+        startDeadline();
+        mCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                stopDeadline();
+                callback.onFailure(DeadlineCall.this, toTimeout(e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                callback.onResponse(DeadlineCall.this, watch(response));
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        stopDeadline();
+        mCall.cancel();
+    }
+
+    @Override
+    public boolean isExecuted() {
+        return mCall.isExecuted();
+    }
+
+    /**
+     * @return true if the call was cancelled by {@link #cancel()}, rather than for running out of time
+     */
+    @Override
+    public boolean isCanceled() {
+        return mCall.isCanceled() && !mExpired.get();
+    }
+
+    @Override
+    public Call clone() {
+        return new DeadlineCall(mCall.clone(), mPolicy);
+    }
+
+    private synchronized void startDeadline() {
+        if (mDone || mDeadline != null || mPolicy.getCallMillis() <= 0) {
+            return;
+        }
+        mDeadline = mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DeadlineCall.this) {
+                    if (mDone) {
+                        return;
+                    }
+                    mDone = true;
+                }
+                Log.w(TAG, "Cancelling " + request().url().encodedPath() + ", it took more than " + mPolicy.getCallMillis() + "ms");
+                mExpired.set(true);
+                mCall.cancel();
+            }
+        }, mPolicy.getCallMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopDeadline() {
+        mDone = true;
+        if (mDeadline != null) {
+            mDeadline.cancel(false);
+            mDeadline = null;
+        }
+    }
+
+    private IOException toTimeout(IOException e) {
+        AvsTimeoutException timeout = mPolicy.toTimeout(e, mExpired.get());
+        return timeout != null ? timeout : e;
+    }
+
+    /**
+     * Keep our watchdog running until the response body is done with, and report its failures as timeouts too
+     */
+    private Response watch(Response response) {
+        final ResponseBody body = response.body();
+        if (body == null) {
+            stopDeadline();
+            return response;
+        }
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                try {
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        stopDeadline();
+                    }
+                    return read;
+                } catch (IOException e) {
+                    stopDeadline();
+                    throw toTimeout(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                stopDeadline();
+                super.close();
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.willblaschko.android.alexa.connection;
+
+import com.willblaschko.android.alexa.interfaces.AvsTimeoutException;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * How long each kind of call gets, see {@link ClientProfile} before we give up on it. The connect, write and read timeouts are OkHttp's own, they
+ * bound each handshake and each write or read on the socket. The call timeout bounds the call as a whole, from the
+ * request going out to the last byte of the response being read, OkHttp 3.6 doesn't have one so {@link DeadlineCall}
+ * enforces it. A call made with {@link ClientUtil#newCall(ClientProfile, okhttp3.Request)} fails with an
+ * {@link AvsTimeoutException} when any of them runs out.
+ *
+ * A timeout of 0 means no limit.
+ */
+public class DeadlinePolicy {
+
+    /**
+     * Events: small requests with small responses, if they can't get through quickly the connection is probably dead
+     */
+    public static final DeadlinePolicy EVENT = new DeadlinePolicy(10, 10, 20, 30, TimeUnit.SECONDS);
+
+    /**
+     * Recognize: the audio is written as it's recorded and the response carries the speech, so the write and read limits
+     * only catch a stall, the call timeout is the budget for the whole interaction
+     */
+    public static final DeadlinePolicy RECOGNIZE = new DeadlinePolicy(10, 15, 30, 90, TimeUnit.SECONDS);
+
+    /**
+     * The downchannel: open for as long as the server keeps it, the read timeout is a watchdog that reconnects a stream
+     * that's been silent for far longer than it should be, our pings find a dead connection much sooner
+     */
+    public static final DeadlinePolicy DOWNCHANNEL = new DeadlinePolicy(10, 10, 30 * 60, 0, TimeUnit.SECONDS);
+
+    /**
+     * Pings: a ping that doesn't come back quickly tells us what we wanted to know, the answer is empty so the read
+     * timeout bounds the whole call
+     */
+    public static final DeadlinePolicy PING = new DeadlinePolicy(10, 10, 10, 0, TimeUnit.SECONDS);
+
+    /**
+     * Getting or refreshing a token from the Amazon auth server, everything else waits on these
+     */
+    public static final DeadlinePolicy TOKEN = new DeadlinePolicy(10, 10, 15, 30, TimeUnit.SECONDS);
+
+    private final long mConnectMillis;
+    private final long mWriteMillis;
+    private final long mReadMillis;
+    private final long mCallMillis;
+
+    public DeadlinePolicy(long connect, long write, long read, long call, TimeUnit unit) {
+        mConnectMillis = unit.toMillis(connect);
+        mWriteMillis = unit.toMillis(write);
+        mReadMillis = unit.toMillis(read);
+        mCallMillis = unit.toMillis(call);
+    }
+
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    public long getWriteMillis() {
+        return mWriteMillis;
+    }
+
+    public long getReadMillis() {
+        return mReadMillis;
+    }
+
+    /**
+     * @return the budget for the whole call, 0 if there isn't one
+     */
+    public long getCallMillis() {
+        return mCallMillis;
+    }
+
+    /**
+     * Set our connect, write and read timeouts on a client
+     */
+    OkHttpClient.Builder apply(OkHttpClient.Builder builder) {
+        return builder
+                .connectTimeout(mConnectMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(mWriteMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(mReadMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param e why a call made under this policy failed
+     * @param expired whether the call went over {@link #getCallMillis()} and was cancelled
+     * @return the timeout this failure was, or null if it wasn't one
+     */
+    @Nullable
+    AvsTimeoutException toTimeout(IOException e, boolean expired) {
+        if (e instanceof AvsTimeoutException) {
+            return (AvsTimeoutException) e;
+        }
+        if (expired) {
+            return new AvsTimeoutException(AvsTimeoutException.Kind.DEADLINE, mCallMillis, e);
+        }
+        if (!(e instanceof SocketTimeoutException)) {
+            return null;
+        }
+        //"connect timed out", or "failed to connect to ... after" on Android
+        String message = e.getMessage();
+        if (message != null && message.contains("connect")) {
+            return new AvsTimeoutException(AvsTimeoutException.Kind.CONNECT, mConnectMillis, e);
+        }
+        //OkHttp doesn't say whether it was a write or a read
+        return new AvsTimeoutException(AvsTimeoutException.Kind.STALLED, Math.max(mWriteMillis, mReadMillis), e);
+    }
+
+    @Override
+    public String toString() {
+        return "DeadlinePolicy[connect=" + mConnectMillis + "ms, write=" + mWriteMillis + "ms, read=" + mReadMillis
+                + "ms, call=" + mCallMillis + "ms]";
+    }
+}
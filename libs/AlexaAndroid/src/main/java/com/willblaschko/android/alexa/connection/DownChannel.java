@@ -0,0 +1,410 @@
+package com.willblaschko.android.alexa.connection;
+
+import android.util.Log;
+
+import com.willblaschko.android.alexa.interfaces.AvsException;
+import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsItemListener;
+import com.willblaschko.android.alexa.interfaces.response.ResponseParser;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * Keeps the Alexa downchannel open. The downchannel is a long lived GET whose response is a multipart stream that the
+ * server adds a part to for every directive it pushes to us, we parse that stream incrementally with {@link ResponseParser}
+ * and hand each item to our {@link Listener} as soon as it's complete.
+ *
+ * When the stream ends, fails, or stalls (see {@link #setStallTimeout(long, TimeUnit)} and {@link #reconnect()}) we open
+ * a new one after an exponential backoff with jitter, so a flapping connection doesn't hammer the server. The backoff is
+ * reset once a connection has stayed up for {@link #STABLE_CONNECTION_MILLIS}.
+ */
+public class DownChannel {
+
+    private static final String TAG = "DownChannel";
+
+    /**
+     * A connection that stays up this long resets our backoff
+     */
+    public static final long STABLE_CONNECTION_MILLIS = 60 * 1000;
+
+    private static final long DEFAULT_MIN_BACKOFF_MILLIS = 1000;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    public enum State {
+        /**
+         * Not started yet
+         */
+        DISCONNECTED,
+        /**
+         * Getting our token and waiting for the server to answer
+         */
+        CONNECTING,
+        /**
+         * The server answered, directives are being read
+         */
+        CONNECTED,
+        /**
+         * The connection was lost, we're waiting out our backoff before reconnecting
+         */
+        WAITING,
+        /**
+         * Stopped for good, see {@link #stop()}
+         */
+        STOPPED
+    }
+
+    private final OkHttpClient mClient;
+    private final RequestFactory mRequestFactory;
+    private final Listener mListener;
+    private final ScheduledExecutorService mScheduler;
+    private final Random mRandom = new Random();
+
+    private long mMinBackoffMillis = DEFAULT_MIN_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long mStallTimeoutMillis = 0;
+
+    //everything below is guarded by this
+    private State mState = State.DISCONNECTED;
+    private Call mCall;
+    //bumped for every connection, so callbacks from a connection we've already given up on are ignored
+    private int mGeneration = 0;
+    //consecutive connections that didn't last
+    private int mAttempt = 0;
+    private long mConnectedAt = 0;
+    private int mConnectCount = 0;
+    private int mReconnectCount = 0;
+    //state changes our listener hasn't been told about yet, it's told after we let go of our lock
+    private final ArrayDeque<State> mStateChanges = new ArrayDeque<>();
+    //true while a thread is telling our listener about them
+    private boolean mNotifying = false;
+
+    /**
+     * @param client the client to open our downchannel with, ideally the one our events are sent with so they share a connection
+     * @param requestFactory creates the (authorized) downchannel request for every connection attempt
+     * @param listener gets our state changes and parsed items, on our background threads
+     */
+    public DownChannel(OkHttpClient client, RequestFactory requestFactory, Listener listener) {
+        mClient = client;
+        mRequestFactory = requestFactory;
+        mListener = listener;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Set the bounds of our reconnect backoff, the delay doubles with every failed attempt from min up to max, and a random
+     * amount of up to half of it is taken off so clients don't reconnect in lockstep
+     */
+    public synchronized DownChannel setBackoff(long min, long max, TimeUnit unit) {
+        mMinBackoffMillis = unit.toMillis(min);
+        mMaxBackoffMillis = Math.max(mMinBackoffMillis, unit.toMillis(max));
+        return this;
+    }
+
+    /**
+     * Treat the connection as stalled, and reconnect, if nothing at all is read from it for this long. Disabled (0) by
+     * default, the server doesn't send anything while there are no directives, so this needs to be well above how
+     * long we expect to go without one. Dead connections are otherwise found by a failed ping, see {@link #reconnect()}.
+     */
+    public synchronized DownChannel setStallTimeout(long timeout, TimeUnit unit) {
+        mStallTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Open the downchannel, this does nothing if it's already been started
+     */
+    public void start() {
+        synchronized (this) {
+            if (mState != State.DISCONNECTED) {
+                return;
+            }
+            scheduleConnect(0);
+        }
+        notifyStateChanges();
+    }
+
+    /**
+     * Close the downchannel for good
+     */
+    public void stop() {
+        Call call;
+        synchronized (this) {
+            if (mState == State.STOPPED) {
+                return;
+            }
+            mGeneration++;
+            call = mCall;
+            mCall = null;
+            setState(State.STOPPED);
+        }
+        notifyStateChanges();
+        if (call != null) {
+            call.cancel();
+        }
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * Drop the current connection and open a new one right away, for when we know the connection is dead (a failed ping,
+     * a network change) before the stream itself notices
+     */
+    public void reconnect() {
+        Call call;
+        synchronized (this) {
+            if (mState == State.STOPPED || mState == State.DISCONNECTED) {
+                return;
+            }
+            Log.i(TAG, "Reconnecting");
+            call = mCall;
+            mCall = null;
+            mReconnectCount++;
+            //moves us on to a new generation, so the failure of the call we're cancelling is ignored
+            scheduleConnect(0);
+        }
+        notifyStateChanges();
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return how many times the server has accepted our downchannel
+     */
+    public synchronized int getConnectCount() {
+        return mConnectCount;
+    }
+
+    /**
+     * @return how many times we've had to reconnect, a number that keeps climbing means our connection is flapping
+     */
+    public synchronized int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * @return how long the current connection has been up, 0 if we're not connected
+     */
+    public synchronized long getConnectedMillis() {
+        return mState == State.CONNECTED ? System.currentTimeMillis() - mConnectedAt : 0;
+    }
+
+    //guarded by this
+    private void scheduleConnect(long delay) {
+        final int generation = ++mGeneration;
+        setState(delay > 0 ? State.WAITING : State.CONNECTING);
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                connect(generation);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void connect(final int generation) {
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            setState(State.CONNECTING);
+        }
+        notifyStateChanges();
+        mRequestFactory.newRequest(new RequestCallback() {
+            @Override
+            public void onRequest(Request request) {
+                synchronized (DownChannel.this) {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                    mCall = mClient.newCall(request);
+                    mCall.enqueue(new Callback() {
+                        @Override
+                        public void onFailure(Call call, IOException e) {
+                            disconnected(generation, e);
+                        }
+
+                        @Override
+                        public void onResponse(Call call, Response response) throws IOException {
+                            read(generation, response);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                disconnected(generation, e);
+            }
+        });
+    }
+
+    private void read(int generation, Response response) {
+        Throwable error = null;
+        try {
+            if (!response.isSuccessful()) {
+                error = new IOException("Downchannel refused: " + response.code() + " " + response.message());
+                return;
+            }
+
+            long stallTimeout;
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mConnectedAt = System.currentTimeMillis();
+                mConnectCount++;
+                stallTimeout = mStallTimeoutMillis;
+                setState(State.CONNECTED);
+            }
+            notifyStateChanges();
+
+            BufferedSource source = response.body().source();
+            if (stallTimeout > 0) {
+                source.timeout().timeout(stallTimeout, TimeUnit.MILLISECONDS);
+            }
+
+            //returns when the server closes the stream, items are only dispatched, never kept
+            ResponseParser.streamResponse(source, ResponseParser.getBoundary(response), new ResponseParser.Callback() {
+                @Override
+                public void onItem(AvsItem item) {
+                    mListener.onAvsItem(item);
+                }
+            });
+            Log.i(TAG, "Downchannel closed by the server");
+        } catch (IOException | AvsException | RuntimeException e) {
+            error = e;
+        } finally {
+            response.close();
+            disconnected(generation, error);
+        }
+    }
+
+    private void disconnected(int generation, Throwable error) {
+        synchronized (this) {
+            reconnectAfter(generation, error);
+        }
+        notifyStateChanges();
+    }
+
+    //guarded by this
+    private void reconnectAfter(int generation, Throwable error) {
+        if (generation != mGeneration || mState == State.STOPPED) {
+            //we already moved on from this connection
+            return;
+        }
+        if (error != null) {
+            Log.e(TAG, "Downchannel lost: " + error.getMessage());
+        }
+        mCall = null;
+
+        if (mState == State.CONNECTED && System.currentTimeMillis() - mConnectedAt >= STABLE_CONNECTION_MILLIS) {
+            mAttempt = 0;
+        }
+        long delay = getBackoff(mAttempt);
+        mAttempt++;
+        mReconnectCount++;
+
+        Log.i(TAG, "Reconnecting in " + delay + "ms (attempt " + mAttempt + ")");
+        scheduleConnect(delay);
+    }
+
+    /**
+     * Exponential backoff with "equal jitter", between half and all of min * 2^attempt, capped at max
+     */
+    private long getBackoff(int attempt) {
+        long ceiling = mMaxBackoffMillis;
+        if (attempt < 30) {
+            ceiling = Math.min(mMaxBackoffMillis, mMinBackoffMillis << attempt);
+        }
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+
+    //guarded by this
+    private void setState(State state) {
+        if (mState == state) {
+            return;
+        }
+        mState = state;
+        Log.i(TAG, "State: " + state);
+        mStateChanges.add(state);
+    }
+
+    /**
+     * Tell our listener about the state changes made while we held our lock, call this once it's been let go of, so
+     * the listener is free to call back into us or take its own locks. One thread tells it at a time, in order.
+     */
+    private void notifyStateChanges() {
+        synchronized (this) {
+            if (mNotifying) {
+                //whoever's telling the listener will get to ours too
+                return;
+            }
+            mNotifying = true;
+        }
+        while (true) {
+            State state;
+            synchronized (this) {
+                state = mStateChanges.poll();
+                if (state == null) {
+                    mNotifying = false;
+                    return;
+                }
+            }
+            try {
+                mListener.onStateChanged(this, state);
+            } catch (RuntimeException e) {
+                //a listener that throws shouldn't leave the rest of the changes untold
+                Log.e(TAG, "State listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Builds the downchannel request, asynchronously since we usually need to get an access token first
+     */
+    public interface RequestFactory {
+        void newRequest(RequestCallback callback);
+    }
+
+    public interface RequestCallback {
+        void onRequest(Request request);
+        void onFailure(Throwable e);
+    }
+
+    public interface StateListener {
+        /**
+         * Called on our background threads, or the thread that called {@link #start()}, {@link #stop()} or
+         * {@link #reconnect()}, once for every change and in order
+         * @param channel the channel, for {@link #getReconnectCount()} and friends
+         * @param state the new state
+         */
+        void onStateChanged(DownChannel channel, State state);
+    }
+
+    public interface Listener extends StateListener, AvsItemListener {
+    }
+}
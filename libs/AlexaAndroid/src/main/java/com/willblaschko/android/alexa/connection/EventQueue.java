@@ -0,0 +1,420 @@
+package com.willblaschko.android.alexa.connection;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.willblaschko.android.alexa.callbacks.AsyncCallback;
+import com.willblaschko.android.alexa.interfaces.AvsResponse;
+import com.willblaschko.android.alexa.utility.TrafficExecutors;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends our events to the Alexa server one at a time from a single worker, so a burst of events (playback state
+ * changes, volume scrubbing) goes out back to back on our shared connection instead of as a request per thread.
+ *
+ * Queued events are sent by {@link Priority}, oldest first within a priority. Events that only report our latest state,
+ * such as VolumeChanged, are coalesced: a new one replaces the one still waiting in the queue, and the callbacks of both
+ * get the response to the one that's sent. Only events with the same payload fields are coalesced, a mute (a
+ * VolumeChanged with only muted) doesn't replace a volume change, it's queued after it.
+ */
+public class EventQueue {
+
+    private static final String TAG = "EventQueue";
+
+    //when our executor turns the worker away, try again after this, doubling each time
+    private static final long RETRY_DELAY_MILLIS = 250;
+    //then give up and fail the queued events, so nobody waits on them forever
+    private static final int MAX_RETRIES = 5;
+
+    private static final ScheduledThreadPoolExecutor mRetries = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The order queued events are sent in
+     */
+    public enum Priority {
+        /**
+         * The user is waiting on these: SpeechRecognizer events, and PlaybackController commands from buttons
+         */
+        RECOGNIZE,
+        /**
+         * Playback, speech, alert and system state, the server needs these to stay in step with us
+         */
+        PLAYBACK_STATE,
+        /**
+         * Speaker and settings changes
+         */
+        SETTINGS
+    }
+
+    private static final Map<String, Priority> NAMESPACE_PRIORITIES = new HashMap<>();
+    static {
+        NAMESPACE_PRIORITIES.put("SpeechRecognizer", Priority.RECOGNIZE);
+        NAMESPACE_PRIORITIES.put("PlaybackController", Priority.RECOGNIZE);
+        NAMESPACE_PRIORITIES.put("SpeechSynthesizer", Priority.PLAYBACK_STATE);
+        NAMESPACE_PRIORITIES.put("AudioPlayer", Priority.PLAYBACK_STATE);
+        NAMESPACE_PRIORITIES.put("Alerts", Priority.PLAYBACK_STATE);
+        NAMESPACE_PRIORITIES.put("System", Priority.PLAYBACK_STATE);
+        NAMESPACE_PRIORITIES.put("Speaker", Priority.SETTINGS);
+        NAMESPACE_PRIORITIES.put("Settings", Priority.SETTINGS);
+    }
+
+    private final Sender mSender;
+    private final Executor mExecutor;
+    //namespace.name of the events that only report our latest state
+    private final Set<String> mCoalesced = new HashSet<>();
+
+    //everything below is guarded by this
+    private final List<ArrayDeque<Entry>> mQueues = new ArrayList<>();
+    //the queued (not yet sending) entry for each coalesced event
+    private final Map<String, Entry> mPending = new HashMap<>();
+    //true while a drain is queued or running on our executor, or waiting to retry
+    private boolean mDraining = false;
+    //how many times in a row our executor has turned the worker away
+    private int mRejections = 0;
+
+    private final AtomicInteger mSent = new AtomicInteger();
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    /**
+     * @param sender sends each event for us, on the {@link TrafficExecutors.Traffic#EVENTS} executor
+     */
+    public EventQueue(Sender sender) {
+        this(sender, TrafficExecutors.get(TrafficExecutors.Traffic.EVENTS));
+    }
+
+    /**
+     * @param sender sends each event for us, on our executor
+     * @param executor runs our worker, we only ever have one task on it at a time
+     */
+    public EventQueue(Sender sender, Executor executor) {
+        mSender = sender;
+        mExecutor = executor;
+        for (int i = 0; i < Priority.values().length; i++) {
+            mQueues.add(new ArrayDeque<Entry>());
+        }
+        coalesce("Speaker", "VolumeChanged");
+        coalesce("System", "SynchronizeState");
+        coalesce("Settings", "SettingsUpdated");
+    }
+
+    /**
+     * Treat this event as superseded by any newer one with the same namespace, name and payload fields
+     */
+    public synchronized EventQueue coalesce(String namespace, String name) {
+        mCoalesced.add(namespace + "." + name);
+        return this;
+    }
+
+    /**
+     * Queue an event to be sent
+     * @param event the JSON event, see {@link com.willblaschko.android.alexa.data.Event.Builder}
+     * @param callback told about the response to our event, or to the newer event that replaced it, on our worker,
+     *                 may be null
+     */
+    public void send(String event, AsyncCallback<AvsResponse, Exception> callback) {
+        String[] header = readHeader(event);
+        String key = header[0] + "." + header[1];
+        Priority priority = getPriority(header[0]);
+
+        synchronized (this) {
+            Entry pending = mCoalesced.contains(key) ? mPending.get(key) : null;
+            if (pending != null && pending.fields.equals(header[2])) {
+                //our newer state replaces the queued one, in its place in the queue
+                pending.event = event;
+                pending.callbacks.add(callback);
+                mCoalescedCount.incrementAndGet();
+                return;
+            }
+
+            Entry entry = new Entry(key, header[2], event, callback);
+            if (mCoalesced.contains(key)) {
+                //the newest is the only one that can be replaced, so a different kind of the same event queued
+                //before it is never replaced by state that's older than ours
+                mPending.put(key, entry);
+            }
+            mQueues.get(priority.ordinal()).add(entry);
+            if (mDraining) {
+                return;
+            }
+            mDraining = true;
+        }
+
+        startDrain();
+    }
+
+    /**
+     * Start our worker, retrying after a while if the executor is full, see {@link #MAX_RETRIES}
+     */
+    private void startDrain() {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            int rejections;
+            synchronized (this) {
+                rejections = ++mRejections;
+            }
+            if (rejections <= MAX_RETRIES) {
+                //our events stay queued, and new ones just join them while we wait
+                long delay = RETRY_DELAY_MILLIS << (rejections - 1);
+                Log.w(TAG, "Event executor is full, trying again in " + delay + "ms");
+                mRetries.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        startDrain();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            Log.e(TAG, "Event executor is still full, failing the queued events", e);
+            List<Entry> failed = new ArrayList<>();
+            synchronized (this) {
+                for (ArrayDeque<Entry> queue : mQueues) {
+                    failed.addAll(queue);
+                    queue.clear();
+                }
+                mPending.clear();
+                mRejections = 0;
+                mDraining = false;
+            }
+            for (Entry entry : failed) {
+                fail(entry, e);
+            }
+        }
+    }
+
+    /**
+     * @return the events waiting to be sent
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (ArrayDeque<Entry> queue : mQueues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the events we've handed to our sender
+     */
+    public int getSentCount() {
+        return mSent.get();
+    }
+
+    /**
+     * @return the events that were replaced by a newer one before they were sent
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * @param namespace the namespace of an event
+     * @return the priority events of this namespace are sent with, unknown namespaces are sent with playback state
+     */
+    public static Priority getPriority(String namespace) {
+        Priority priority = NAMESPACE_PRIORITIES.get(namespace);
+        return priority != null ? priority : Priority.PLAYBACK_STATE;
+    }
+
+    private void drain() {
+        synchronized (this) {
+            mRejections = 0;
+        }
+        Entry entry;
+        while ((entry = poll()) != null) {
+            send(entry);
+        }
+    }
+
+    /**
+     * @return the next event to send, by priority, or null (and we're done draining) if there are none
+     */
+    private synchronized Entry poll() {
+        for (ArrayDeque<Entry> queue : mQueues) {
+            Entry entry = queue.poll();
+            if (entry != null) {
+                //it's on its way, newer state has to be sent after it
+                if (mPending.get(entry.key) == entry) {
+                    mPending.remove(entry.key);
+                }
+                return entry;
+            }
+        }
+        mDraining = false;
+        return null;
+    }
+
+    private void send(final Entry entry) {
+        mSent.incrementAndGet();
+        try {
+            mSender.send(entry.event, new AsyncCallback<AvsResponse, Exception>() {
+                @Override
+                public void start() {
+                    for (AsyncCallback<AvsResponse, Exception> callback : entry.callbacks) {
+                        if (callback != null) {
+                            callback.start();
+                        }
+                    }
+                }
+
+                @Override
+                public void success(AvsResponse result) {
+                    for (AsyncCallback<AvsResponse, Exception> callback : entry.callbacks) {
+                        if (callback != null) {
+                            callback.success(result);
+                        }
+                    }
+                }
+
+                @Override
+                public void failure(Exception error) {
+                    for (AsyncCallback<AvsResponse, Exception> callback : entry.callbacks) {
+                        if (callback != null) {
+                            callback.failure(error);
+                        }
+                    }
+                }
+
+                @Override
+                public void complete() {
+                    for (AsyncCallback<AvsResponse, Exception> callback : entry.callbacks) {
+                        if (callback != null) {
+                            callback.complete();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            //one bad event shouldn't take the worker, and every event after it, down
+            Log.e(TAG, "Failed to send " + entry.key, e);
+        }
+    }
+
+    /**
+     * Tell the callbacks of an event we couldn't send
+     */
+    private static void fail(Entry entry, Exception error) {
+        for (AsyncCallback<AvsResponse, Exception> callback : entry.callbacks) {
+            if (callback != null) {
+                callback.failure(error);
+                callback.complete();
+            }
+        }
+    }
+
+    /**
+     * Pull the namespace and name out of the event header, and the names of the payload fields, without decoding the
+     * rest of the event
+     * @return {namespace, name, payload fields}, the namespace or name is null if it's missing, the fields are comma
+     * separated in the order they're written
+     */
+    static String[] readHeader(String event) {
+        String[] header = new String[3];
+        StringBuilder fields = new StringBuilder();
+        JsonReader reader = new JsonReader(new StringReader(event));
+        reader.setLenient(true);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"event".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "header":
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                switch (reader.nextName()) {
+                                    case "namespace":
+                                        header[0] = reader.nextString();
+                                        break;
+                                    case "name":
+                                        header[1] = reader.nextString();
+                                        break;
+                                    default:
+                                        reader.skipValue();
+                                        break;
+                                }
+                            }
+                            reader.endObject();
+                            break;
+                        case "payload":
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (fields.length() > 0) {
+                                    fields.append(',');
+                                }
+                                fields.append(reader.nextName());
+                                reader.skipValue();
+                            }
+                            reader.endObject();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                break;
+            }
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "Couldn't read the event header: " + e.getMessage());
+        }
+        header[2] = fields.toString();
+        return header;
+    }
+
+    private static class Entry {
+        final String key;
+        //the payload fields, only an event with the same ones can replace ours
+        final String fields;
+        String event;
+        final List<AsyncCallback<AvsResponse, Exception>> callbacks = new ArrayList<>(1);
+
+        Entry(String key, String fields, String event, AsyncCallback<AvsResponse, Exception> callback) {
+            this.key = key;
+            this.fields = fields;
+            this.event = event;
+            callbacks.add(callback);
+        }
+    }
+
+    /**
+     * Sends a single event for us
+     */
+    public interface Sender {
+        /**
+         * Send the event and read its response, this is called on our worker and should block until the callback
+         * has been told the outcome, so events go out one at a time and in order
+         */
+        void send(String event, AsyncCallback<AvsResponse, Exception> callback);
+    }
+}
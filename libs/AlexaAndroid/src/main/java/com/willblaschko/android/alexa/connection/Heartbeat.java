@@ -0,0 +1,211 @@
+package com.willblaschko.android.alexa.connection;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Pings the Alexa server to keep our connection (and with it the downchannel) alive.
+ *
+ * The server only needs to hear from us once per interval, so any other request on the connection counts as a ping:
+ * {@link #onActivity()} pushes the next ping back, and an idle device is the only one that actually sends them. Use the
+ * instance from {@link ClientUtil#startHeartbeat(DownChannel.RequestFactory, Listener)}, which is reset by every request
+ * our shared client makes, there should only ever be one.
+ */
+public class Heartbeat {
+
+    private static final String TAG = "Heartbeat";
+
+    /**
+     * The server drops connections it hasn't heard from in 5 minutes
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 4 * 60 * 1000;
+
+    private final OkHttpClient mClient;
+    private final DownChannel.RequestFactory mRequestFactory;
+    private final Listener mListener;
+    private final long mIntervalMillis;
+    private final ScheduledExecutorService mScheduler;
+
+    private volatile long mLastActivity = System.currentTimeMillis();
+    private ScheduledFuture<?> mNext;
+    private Call mCall;
+    private boolean mStopped = false;
+
+    private final AtomicInteger mSent = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+
+    /**
+     * @param client the client whose connection we're keeping alive
+     * @param requestFactory builds the (authorized) ping request
+     * @param listener told about failed pings, may be null
+     * @param intervalMillis the longest we'll let the connection go without a request
+     */
+    public Heartbeat(OkHttpClient client, DownChannel.RequestFactory requestFactory, Listener listener, long intervalMillis) {
+        mClient = client;
+        mRequestFactory = requestFactory;
+        mListener = listener;
+        mIntervalMillis = intervalMillis;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start pinging, this does nothing if we're already running
+     */
+    public synchronized void start() {
+        if (mStopped || mNext != null) {
+            return;
+        }
+        schedule(mIntervalMillis);
+    }
+
+    /**
+     * Stop pinging for good, cancelling any ping in flight
+     */
+    public void stop() {
+        Call call;
+        synchronized (this) {
+            mStopped = true;
+            if (mNext != null) {
+                mNext.cancel(false);
+            }
+            call = mCall;
+            mCall = null;
+        }
+        if (call != null) {
+            call.cancel();
+        }
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * Tell us the connection was just used, our next ping will be an interval from now. This is only a volatile write,
+     * it's safe to call for every request.
+     */
+    public void onActivity() {
+        mLastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the pings we've sent that the server answered
+     */
+    public int getPingsSent() {
+        return mSent.get();
+    }
+
+    /**
+     * @return the pings that failed or got an error back
+     */
+    public int getPingsFailed() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return the pings we didn't need to send because of other traffic
+     */
+    public int getPingsSkipped() {
+        return mSkipped.get();
+    }
+
+    //guarded by this
+    private void schedule(long delay) {
+        mNext = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void tick() {
+        if (mStopped) {
+            return;
+        }
+        long idle = System.currentTimeMillis() - mLastActivity;
+        if (idle < mIntervalMillis) {
+            //something else kept the connection alive, check back an interval after it
+            mSkipped.incrementAndGet();
+            schedule(mIntervalMillis - idle);
+            return;
+        }
+        ping();
+        schedule(mIntervalMillis);
+    }
+
+    //guarded by this
+    private void ping() {
+        Log.i(TAG, "Sending heartbeat");
+        mRequestFactory.newRequest(new DownChannel.RequestCallback() {
+            @Override
+            public void onRequest(Request request) {
+                synchronized (Heartbeat.this) {
+                    if (mStopped) {
+                        return;
+                    }
+                    mCall = mClient.newCall(request);
+                    mCall.enqueue(new Callback() {
+                        @Override
+                        public void onFailure(Call call, IOException e) {
+                            failed(e);
+                        }
+
+                        @Override
+                        public void onResponse(Call call, Response response) throws IOException {
+                            response.close();
+                            if (response.isSuccessful()) {
+                                mSent.incrementAndGet();
+                            } else {
+                                failed(new IOException("Ping refused: " + response.code()));
+                            }
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                failed(e);
+            }
+        });
+    }
+
+    private void failed(Throwable e) {
+        synchronized (this) {
+            if (mStopped) {
+                return;
+            }
+        }
+        Log.e(TAG, "Heartbeat failed: " + e.getMessage());
+        mFailed.incrementAndGet();
+        if (mListener != null) {
+            mListener.onPingFailed(e);
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Our connection is most likely dead, called on a background thread
+         */
+        void onPingFailed(Throwable e);
+    }
+}
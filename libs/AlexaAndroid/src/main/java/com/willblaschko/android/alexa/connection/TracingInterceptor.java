@@ -0,0 +1,77 @@
+package com.willblaschko.android.alexa.connection;
+
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+import com.willblaschko.android.alexa.utility.InteractionTracer.Stage;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/**
+ * A network interceptor that marks the network stages of a traced interaction: the connection is ours when we're called,
+ * the request headers have been written once the body starts being written, the audio is uploaded once it's done, and
+ * the response has started once its headers are back.
+ *
+ * Requests are traced if their tag is the dialogRequestId of a running trace, see
+ * {@link com.willblaschko.android.alexa.interfaces.SendEvent#getDialogRequestId()}. OkHttp 3.6 has no EventListener, so
+ * this is as close as we can get to the call's own timings.
+ */
+public class TracingInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        final InteractionTracer tracer = InteractionTracer.getInstance();
+        final String dialogRequestId = request.tag() instanceof String ? (String) request.tag() : null;
+        if (tracer.get(dialogRequestId) == null) {
+            return chain.proceed(request);
+        }
+
+        tracer.mark(dialogRequestId, Stage.CONNECTION_ACQUIRED);
+        if (request.body() != null) {
+            request = request.newBuilder()
+                    .method(request.method(), new TracedBody(request.body(), tracer, dialogRequestId))
+                    .build();
+        }
+        Response response = chain.proceed(request);
+        tracer.mark(dialogRequestId, Stage.FIRST_RESPONSE_BYTE);
+        return response;
+    }
+
+    private static class TracedBody extends RequestBody {
+
+        private final RequestBody mBody;
+        private final InteractionTracer mTracer;
+        private final String mDialogRequestId;
+
+        TracedBody(RequestBody body, InteractionTracer tracer, String dialogRequestId) {
+            mBody = body;
+            mTracer = tracer;
+            mDialogRequestId = dialogRequestId;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mBody.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return mBody.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            //the headers go out before the body
+            mTracer.mark(mDialogRequestId, Stage.REQUEST_HEADERS_SENT);
+            mBody.writeTo(sink);
+            sink.flush();
+            mTracer.mark(mDialogRequestId, Stage.AUDIO_UPLOADED);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.willblaschko.android.alexa.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * The device state the Alexa server expects in the context of Recognize and SynchronizeState events:
+ * AudioPlayer.PlaybackState, SpeechSynthesizer.SpeechState, Speaker.VolumeState and Alerts.AlertsState.
+ *
+ * The player, system handler and alert code tell us when their state changes, and we keep each context entry
+ * serialized. Only the entry that changed is written again, and only if its state is actually different, so attaching
+ * the context to an event is a copy of bytes we already have, see {@link #getContext()}.
+ */
+public class DeviceContextCache {
+
+    /**
+     * The playerActivity of PlaybackState and SpeechState, SpeechState only uses PLAYING and FINISHED
+     */
+    public enum PlayerActivity {
+        IDLE,
+        PLAYING,
+        PAUSED,
+        BUFFER_UNDERRUN,
+        FINISHED,
+        STOPPED
+    }
+
+    private static DeviceContextCache mInstance;
+
+    private static final ByteString SEPARATOR = ByteString.encodeUtf8(",");
+
+    //the state each entry was last written from, guarded by this
+    private String mPlaybackToken = "";
+    private long mPlaybackOffset = 0;
+    private PlayerActivity mPlaybackActivity = PlayerActivity.IDLE;
+    private String mSpeechToken = "";
+    private long mSpeechOffset = 0;
+    private PlayerActivity mSpeechActivity = PlayerActivity.FINISHED;
+    private long mVolume = 50;
+    private boolean mMuted = false;
+    //token -> alert, in the order they were set
+    private final Map<String, Alert> mAlerts = new LinkedHashMap<>();
+
+    //the serialized entries, guarded by this
+    private ByteString mPlaybackState;
+    private ByteString mSpeechState;
+    private ByteString mVolumeState;
+    private ByteString mAlertsState;
+    //the whole context list, null once an entry has changed
+    private ByteString mContext;
+
+    private final Buffer mBuffer = new Buffer();
+
+    DeviceContextCache() {
+        mPlaybackState = writePlaybackState();
+        mSpeechState = writeSpeechState();
+        mVolumeState = writeVolumeState();
+        mAlertsState = writeAlertsState();
+    }
+
+    public static synchronized DeviceContextCache getInstance() {
+        if (mInstance == null) {
+            mInstance = new DeviceContextCache();
+        }
+        return mInstance;
+    }
+
+    /**
+     * @return the context list, "[{...},{...},{...},{...}]", ready to be written into an event
+     */
+    public synchronized ByteString getContext() {
+        if (mContext == null) {
+            mBuffer.writeByte('[')
+                    .write(mPlaybackState).write(SEPARATOR)
+                    .write(mSpeechState).write(SEPARATOR)
+                    .write(mVolumeState).write(SEPARATOR)
+                    .write(mAlertsState)
+                    .writeByte(']');
+            mContext = mBuffer.readByteString();
+        }
+        return mContext;
+    }
+
+    /**
+     * @param token the token of the audio item, null if there isn't one
+     * @param offsetInMilliseconds where we are in the item
+     */
+    public synchronized void setPlaybackState(@Nullable String token, long offsetInMilliseconds, @NotNull PlayerActivity activity) {
+        token = token != null ? token : "";
+        if (token.equals(mPlaybackToken) && offsetInMilliseconds == mPlaybackOffset && activity == mPlaybackActivity) {
+            return;
+        }
+        mPlaybackToken = token;
+        mPlaybackOffset = offsetInMilliseconds;
+        mPlaybackActivity = activity;
+        mPlaybackState = writePlaybackState();
+        mContext = null;
+    }
+
+    /**
+     * @param token the token of the speech item, null if there isn't one
+     * @param offsetInMilliseconds where we are in the speech
+     * @param activity {@link PlayerActivity#PLAYING} or {@link PlayerActivity#FINISHED}
+     */
+    public synchronized void setSpeechState(@Nullable String token, long offsetInMilliseconds, @NotNull PlayerActivity activity) {
+        token = token != null ? token : "";
+        if (token.equals(mSpeechToken) && offsetInMilliseconds == mSpeechOffset && activity == mSpeechActivity) {
+            return;
+        }
+        mSpeechToken = token;
+        mSpeechOffset = offsetInMilliseconds;
+        mSpeechActivity = activity;
+        mSpeechState = writeSpeechState();
+        mContext = null;
+    }
+
+    /**
+     * @param volume 0-100
+     */
+    public synchronized void setVolumeState(long volume, boolean muted) {
+        if (volume == mVolume && muted == mMuted) {
+            return;
+        }
+        mVolume = volume;
+        mMuted = muted;
+        mVolumeState = writeVolumeState();
+        mContext = null;
+    }
+
+    /**
+     * An alert has been set, or set again with a new time
+     * @param type {@link com.willblaschko.android.alexa.interfaces.alerts.AvsSetAlertItem#ALARM} or TIMER
+     * @param scheduledTime ISO 8601, as the SetAlert directive gave it to us
+     */
+    public synchronized void setAlert(@NotNull String token, @NotNull String type, @NotNull String scheduledTime) {
+        Alert alert = mAlerts.get(token);
+        if (alert != null && alert.type.equals(type) && alert.scheduledTime.equals(scheduledTime)) {
+            return;
+        }
+        mAlerts.put(token, new Alert(token, type, scheduledTime, alert != null && alert.active));
+        mAlertsState = writeAlertsState();
+        mContext = null;
+    }
+
+    /**
+     * An alert has started or stopped sounding
+     */
+    public synchronized void setAlertActive(@NotNull String token, boolean active) {
+        Alert alert = mAlerts.get(token);
+        if (alert == null || alert.active == active) {
+            return;
+        }
+        mAlerts.put(token, new Alert(token, alert.type, alert.scheduledTime, active));
+        mAlertsState = writeAlertsState();
+        mContext = null;
+    }
+
+    /**
+     * An alert has been deleted, or is done
+     */
+    public synchronized void removeAlert(@NotNull String token) {
+        if (mAlerts.remove(token) == null) {
+            return;
+        }
+        mAlertsState = writeAlertsState();
+        mContext = null;
+    }
+
+    private ByteString writePlaybackState() {
+        return writePlayerState("AudioPlayer", "PlaybackState", mPlaybackToken, mPlaybackOffset, mPlaybackActivity);
+    }
+
+    private ByteString writeSpeechState() {
+        return writePlayerState("SpeechSynthesizer", "SpeechState", mSpeechToken, mSpeechOffset, mSpeechActivity);
+    }
+
+    private ByteString writePlayerState(String namespace, String name, String token, long offset, PlayerActivity activity) {
+        writeHeader(namespace, name);
+        mBuffer.writeUtf8("\"token\":\"");
+        writeEscaped(token);
+        mBuffer.writeUtf8("\",\"offsetInMilliseconds\":")
+                .writeDecimalLong(offset)
+                .writeUtf8(",\"playerActivity\":\"")
+                .writeUtf8(activity.name())
+                .writeUtf8("\"}}");
+        return mBuffer.readByteString();
+    }
+
+    private ByteString writeVolumeState() {
+        writeHeader("Speaker", "VolumeState");
+        mBuffer.writeUtf8("\"volume\":")
+                .writeDecimalLong(mVolume)
+                .writeUtf8(",\"muted\":")
+                .writeUtf8(mMuted ? "true" : "false")
+                .writeUtf8("}}");
+        return mBuffer.readByteString();
+    }
+
+    private ByteString writeAlertsState() {
+        writeHeader("Alerts", "AlertsState");
+        mBuffer.writeUtf8("\"allAlerts\":[");
+        boolean first = true;
+        for (Alert alert : mAlerts.values()) {
+            first = writeAlert(alert, first);
+        }
+        mBuffer.writeUtf8("],\"activeAlerts\":[");
+        first = true;
+        for (Alert alert : mAlerts.values()) {
+            if (alert.active) {
+                first = writeAlert(alert, first);
+            }
+        }
+        mBuffer.writeUtf8("]}}");
+        return mBuffer.readByteString();
+    }
+
+    private boolean writeAlert(Alert alert, boolean first) {
+        if (!first) {
+            mBuffer.writeByte(',');
+        }
+        mBuffer.writeUtf8("{\"token\":\"");
+        writeEscaped(alert.token);
+        mBuffer.writeUtf8("\",\"type\":\"");
+        writeEscaped(alert.type);
+        mBuffer.writeUtf8("\",\"scheduledTime\":\"");
+        writeEscaped(alert.scheduledTime);
+        mBuffer.writeUtf8("\"}");
+        return false;
+    }
+
+    private void writeHeader(String namespace, String name) {
+        mBuffer.writeUtf8("{\"header\":{\"namespace\":\"")
+                .writeUtf8(namespace)
+                .writeUtf8("\",\"name\":\"")
+                .writeUtf8(name)
+                .writeUtf8("\"},\"payload\":{");
+    }
+
+    private void writeEscaped(String value) {
+        try {
+            EventTemplate.writeEscaped(mBuffer, value);
+        } catch (IOException e) {
+            //a Buffer doesn't throw
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Alert {
+        final String token;
+        final String type;
+        final String scheduledTime;
+        final boolean active;
+
+        Alert(String token, String type, String scheduledTime, boolean active) {
+            this.token = token;
+            this.type = type;
+            this.scheduledTime = scheduledTime;
+            this.active = active;
+        }
+    }
+}
@@ -17,8 +17,16 @@ import android.text.TextUtils;
  * @author wblaschko on 5/6/16.
  */
 public class Directive {
-    private Header header;
-    private Payload payload;
+    Header header;
+    Payload payload;
+
+    public static final String NAMESPACE_SPEECH_SYNTHESIZER = "SpeechSynthesizer";
+    public static final String NAMESPACE_SPEECH_RECOGNIZER = "SpeechRecognizer";
+    public static final String NAMESPACE_AUDIO_PLAYER = "AudioPlayer";
+    public static final String NAMESPACE_PLAYBACK_CONTROLLER = "PlaybackController";
+    public static final String NAMESPACE_ALERTS = "Alerts";
+    public static final String NAMESPACE_SPEAKER = "Speaker";
+    public static final String NAMESPACE_SYSTEM = "System";
 
     public static final String TYPE_SPEAK = "Speak";
     public static final String TYPE_PLAY = "Play";
@@ -0,0 +1,298 @@
+package com.willblaschko.android.alexa.data;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * A hand written, single pass decoder for {@link Directive} JSON, used instead of reflecting over our classes with Gson.
+ *
+ * Handles both the wrapped form sent by the Alexa server ({"directive": {...}}) and a bare directive ({"header": ...,
+ * "payload": ...}) in the same pass, unknown fields are skipped. There is no state, so it's safe to use from any thread.
+ */
+public class DirectiveDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DirectiveDecoder() {
+    }
+
+    /**
+     * Decode a directive from its string representation
+     * @param json the JSON directive, either wrapped or bare
+     * @return the decoded directive
+     * @throws JsonSyntaxException if the JSON is malformed or doesn't match our directive schema
+     */
+    public static Directive decode(String json) throws JsonSyntaxException {
+        try {
+            return decode(new StringReader(json));
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Decode a directive straight from a byte source (such as a multipart body part), without first creating a String
+     * @param source the UTF-8 encoded JSON directive, either wrapped or bare, this is consumed
+     * @return the decoded directive
+     * @throws IOException if the source can't be read
+     * @throws JsonSyntaxException if the JSON is malformed or doesn't match our directive schema
+     */
+    public static Directive decode(BufferedSource source) throws IOException, JsonSyntaxException {
+        return decode(new InputStreamReader(source.inputStream(), UTF_8));
+    }
+
+    private static Directive decode(Reader in) throws IOException, JsonSyntaxException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            return readRoot(reader);
+        } catch (IllegalStateException | NumberFormatException e) {
+            //wrong token types, Gson would report these as syntax errors as well
+            throw new JsonSyntaxException(e);
+        } catch (MalformedJsonException | EOFException e) {
+            throw new JsonSyntaxException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Directive readRoot(JsonReader reader) throws IOException {
+        Directive directive = new Directive();
+        Directive wrapped = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "directive":
+                    wrapped = readDirective(reader);
+                    break;
+                case "header":
+                    directive.header = readHeader(reader);
+                    break;
+                case "payload":
+                    directive.payload = readPayload(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return wrapped != null ? wrapped : directive;
+    }
+
+    private static Directive readDirective(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        Directive directive = new Directive();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "header":
+                    directive.header = readHeader(reader);
+                    break;
+                case "payload":
+                    directive.payload = readPayload(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return directive;
+    }
+
+    private static Directive.Header readHeader(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        Directive.Header header = new Directive.Header();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "namespace":
+                    header.namespace = readString(reader);
+                    break;
+                case "name":
+                    header.name = readString(reader);
+                    break;
+                case "messageId":
+                    header.messageId = readString(reader);
+                    break;
+                case "dialogRequestId":
+                    header.dialogRequestId = readString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return header;
+    }
+
+    private static Directive.Payload readPayload(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        Directive.Payload payload = new Directive.Payload();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "url":
+                    payload.url = readString(reader);
+                    break;
+                case "endpoint":
+                    payload.endpoint = readString(reader);
+                    break;
+                case "format":
+                    payload.format = readString(reader);
+                    break;
+                case "token":
+                    payload.token = readString(reader);
+                    break;
+                case "type":
+                    payload.type = readString(reader);
+                    break;
+                case "scheduledTime":
+                    payload.scheduledTime = readString(reader);
+                    break;
+                case "playBehavior":
+                    payload.playBehavior = readString(reader);
+                    break;
+                case "audioItem":
+                    payload.audioItem = readAudioItem(reader);
+                    break;
+                case "volume":
+                    payload.volume = readLong(reader);
+                    break;
+                case "mute":
+                    payload.mute = readBoolean(reader);
+                    break;
+                case "timeoutInMilliseconds":
+                    payload.timeoutInMilliseconds = readLong(reader);
+                    break;
+                case "description":
+                    payload.description = readString(reader);
+                    break;
+                case "code":
+                    payload.code = readString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return payload;
+    }
+
+    private static Directive.AudioItem readAudioItem(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        Directive.AudioItem audioItem = new Directive.AudioItem();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "audioItemId":
+                    audioItem.audioItemId = readString(reader);
+                    break;
+                case "stream":
+                    audioItem.stream = readStream(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return audioItem;
+    }
+
+    private static Directive.Stream readStream(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        Directive.Stream stream = new Directive.Stream();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "url":
+                    stream.url = readString(reader);
+                    break;
+                case "streamFormat":
+                    stream.streamFormat = readString(reader);
+                    break;
+                case "offsetInMilliseconds":
+                    stream.offsetInMilliseconds = readLong(reader);
+                    break;
+                case "expiryTime":
+                    stream.expiryTime = readString(reader);
+                    break;
+                case "token":
+                    stream.token = readString(reader);
+                    break;
+                case "expectedPreviousToken":
+                    stream.expectedPreviousToken = readString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return stream;
+    }
+
+    /**
+     * Consume a JSON null if that's the next value
+     * @return true if a null was skipped
+     */
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return Boolean.toString(reader.nextBoolean());
+        }
+        return reader.nextString();
+    }
+
+    private static long readLong(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return 0;
+        }
+        return reader.nextLong();
+    }
+
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return false;
+        }
+        if (reader.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+}
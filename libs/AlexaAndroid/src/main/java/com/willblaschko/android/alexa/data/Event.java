@@ -18,6 +18,8 @@ import static com.willblaschko.android.alexa.utility.Util.getUuid;
  * <a href="https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/reference/speechsynthesizer">Speech Synthesizer</a>
  * <a href="https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/reference/system">System</a>
  *
+ * The static getXxxEvent() helpers are written from an {@link EventTemplate}, the Builder is there for any other event.
+ *
  * @author wblaschko on 5/6/16.
  */
 public class Event {
@@ -198,180 +200,114 @@ public class Event {
         }
     }
 
+    /**
+     * @return a new dialogRequestId, each Recognize event gets its own so the directives sent back for it can be
+     * matched up with it, see {@link com.willblaschko.android.alexa.utility.InteractionTracer}
+     */
+    public static String createDialogRequestId(){
+        return "dialogRequest-" + getUuid();
+    }
+
     public static String getSpeechRecognizerEvent(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("SpeechRecognizer")
-                .setHeaderName("Recognize")
-                .setHeaderMessageId(getUuid())
-                .setHeaderDialogRequestId("dialogRequest-321")
-                .setPayloadFormat("AUDIO_L16_RATE_16000_CHANNELS_1")
-                .setPayloadProfile("NEAR_FIELD");
-        return builder.toJson();
+        return getSpeechRecognizerEvent(createDialogRequestId());
+    }
+
+    public static String getSpeechRecognizerEvent(String dialogRequestId){
+        return EventTemplate.RECOGNIZE.toJson(getUuid(), dialogRequestId, null, 0, false,
+                DeviceContextCache.getInstance().getContext());
     }
 
     public static String getVolumeChangedEvent(long volume, boolean isMute){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("Speaker")
-                .setHeaderName("VolumeChanged")
-                .setHeaderMessageId(getUuid())
-                .setPayloadVolume(volume)
-                .setPayloadMuted(isMute);
-        return builder.toJson();
+        return EventTemplate.VOLUME_CHANGED.toJson(getUuid(), null, null, volume, isMute);
     }
     public static String getMuteEvent(boolean isMute){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("Speaker")
-                .setHeaderName("VolumeChanged")
-                .setHeaderMessageId(getUuid())
-                .setPayloadMuted(isMute);
-        return builder.toJson();
+        return EventTemplate.MUTE_CHANGED.toJson(getUuid(), null, null, 0, isMute);
     }
 
     public static String getExpectSpeechTimedOutEvent(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("SpeechRecognizer")
-                .setHeaderName("ExpectSpeechTimedOut")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.EXPECT_SPEECH_TIMED_OUT.toJson(getUuid(), null, null, 0, false);
     }
 
     public static String getSpeechNearlyFinishedEvent(String token, long offsetInMilliseconds){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("SpeechSynthesizer")
-                .setHeaderName("PlaybackNearlyFinished")
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token)
-                .setPlayloadOffsetInMilliseconds(offsetInMilliseconds);
-        return builder.toJson();
+        return EventTemplate.SPEECH_NEARLY_FINISHED.toJson(getUuid(), null, token, offsetInMilliseconds, false);
     }
 
     public static String getPlaybackNearlyFinishedEvent(String token, long offsetInMilliseconds){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("AudioPlayer")
-                .setHeaderName("PlaybackNearlyFinished")
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token)
-                .setPlayloadOffsetInMilliseconds(offsetInMilliseconds);
-        return builder.toJson();
+        return EventTemplate.PLAYBACK_NEARLY_FINISHED.toJson(getUuid(), null, token, offsetInMilliseconds, false);
     }
     public static String getPlaybackControllerPlayCommandIssued(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("PlaybackController")
-                .setHeaderName("PlayCommandIssued")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.PLAY_COMMAND_ISSUED.toJson(getUuid(), null, null, 0, false);
     }
 
     public static String getPlaybackControllerPauseCommandIssued(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("PlaybackController")
-                .setHeaderName("PauseCommandIssued")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.PAUSE_COMMAND_ISSUED.toJson(getUuid(), null, null, 0, false);
     }
 
     public static String getPlaybackControllerNextCommandIssued(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("PlaybackController")
-                .setHeaderName("NextCommandIssued")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.NEXT_COMMAND_ISSUED.toJson(getUuid(), null, null, 0, false);
     }
 
     public static String getPlaybackControllerPreviousCommandIssued(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("PlaybackController")
-                .setHeaderName("PreviousCommandIssued")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.PREVIOUS_COMMAND_ISSUED.toJson(getUuid(), null, null, 0, false);
     }
 
     public static String getSetAlertSucceededEvent(String token) {
-        return getAlertEvent(token, "SetAlertSucceeded");
+        return getAlertEvent(token, EventTemplate.SET_ALERT_SUCCEEDED);
     }
 
     public static String getSetAlertFailedEvent(String token) {
-        return getAlertEvent(token, "SetAlertFailed");
+        return getAlertEvent(token, EventTemplate.SET_ALERT_FAILED);
     }
 
     public static String getDeleteAlertSucceededEvent(String token) {
-        return getAlertEvent(token, "DeleteAlertSucceeded");
+        return getAlertEvent(token, EventTemplate.DELETE_ALERT_SUCCEEDED);
     }
 
     public static String getDeleteAlertFailedEvent(String token) {
-        return getAlertEvent(token, "DeleteAlertFailed");
+        return getAlertEvent(token, EventTemplate.DELETE_ALERT_FAILED);
     }
 
     public static String getAlertStartedEvent(String token) {
-        return getAlertEvent(token, "AlertStarted");
+        return getAlertEvent(token, EventTemplate.ALERT_STARTED);
     }
 
     public static String getAlertStoppedEvent(String token) {
-        return getAlertEvent(token, "AlertStopped");
+        return getAlertEvent(token, EventTemplate.ALERT_STOPPED);
     }
 
     public static String getAlertEnteredForegroundEvent(String token) {
-        return getAlertEvent(token, "AlertEnteredForeground");
+        return getAlertEvent(token, EventTemplate.ALERT_ENTERED_FOREGROUND);
     }
 
     public static String getAlertEnteredBackgroundEvent(String token) {
-        return getAlertEvent(token, "AlertEnteredBackground");
+        return getAlertEvent(token, EventTemplate.ALERT_ENTERED_BACKGROUND);
     }
 
-    private static String getAlertEvent(String token, String type) {
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("Alerts")
-                .setHeaderName(type)
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token);
-        return builder.toJson();
+    private static String getAlertEvent(String token, EventTemplate type) {
+        return type.toJson(getUuid(), null, token, 0, false);
     }
 
     public static String getSpeechStartedEvent(String token){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("SpeechSynthesizer")
-                .setHeaderName("SpeechStarted")
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token);
-        return builder.toJson();
+        return EventTemplate.SPEECH_STARTED.toJson(getUuid(), null, token, 0, false);
     }
 
     public static String getSpeechFinishedEvent(String token){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("SpeechSynthesizer")
-                .setHeaderName("SpeechFinished")
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token);
-        return builder.toJson();
+        return EventTemplate.SPEECH_FINISHED.toJson(getUuid(), null, token, 0, false);
     }
 
 
     public static String getPlaybackStartedEvent(String token, long offset){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("AudioPlayer")
-                .setHeaderName("PlaybackStarted")
-                .setPlayloadOffsetInMilliseconds(offset)
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token);
-        return builder.toJson();
+        return EventTemplate.PLAYBACK_STARTED.toJson(getUuid(), null, token, offset, false);
     }
 
     public static String getPlaybackFinishedEvent(String token){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("AudioPlayer")
-                .setHeaderName("PlaybackFinished")
-                .setHeaderMessageId(getUuid())
-                .setPayloadToken(token);
-        return builder.toJson();
+        return EventTemplate.PLAYBACK_FINISHED.toJson(getUuid(), null, token, 0, false);
     }
 
 
     public static String getSynchronizeStateEvent(){
-        Builder builder = new Builder();
-        builder.setHeaderNamespace("System")
-                .setHeaderName("SynchronizeState")
-                .setHeaderMessageId(getUuid());
-        return builder.toJson();
+        return EventTemplate.SYNCHRONIZE_STATE.toJson(getUuid(), null, null, 0, false,
+                DeviceContextCache.getInstance().getContext());
     }
 
 
@@ -0,0 +1,276 @@
+package com.willblaschko.android.alexa.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * A precompiled {@link Event}, everything that's the same for every event of its kind (the namespace, name and field
+ * names) is encoded once up front, and only the messageId, dialogRequestId, token and offset (or volume) are written
+ * per event. Events are written straight into an okio sink, such as the metadata part of our multipart request, without
+ * building an object graph or a Gson instance.
+ *
+ * Templates are immutable, so the constants here are shared by every thread. The JSON written is the same as
+ * {@link Event.Builder#toJson()} would write for the same event.
+ */
+public final class EventTemplate {
+
+    public static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    public static final EventTemplate RECOGNIZE = new EventTemplate("SpeechRecognizer", "Recognize", Payload.RECOGNIZE);
+    public static final EventTemplate EXPECT_SPEECH_TIMED_OUT = new EventTemplate("SpeechRecognizer", "ExpectSpeechTimedOut", Payload.NONE);
+
+    public static final EventTemplate SPEECH_STARTED = new EventTemplate("SpeechSynthesizer", "SpeechStarted", Payload.TOKEN);
+    public static final EventTemplate SPEECH_FINISHED = new EventTemplate("SpeechSynthesizer", "SpeechFinished", Payload.TOKEN);
+    public static final EventTemplate SPEECH_NEARLY_FINISHED = new EventTemplate("SpeechSynthesizer", "PlaybackNearlyFinished", Payload.TOKEN_OFFSET);
+
+    public static final EventTemplate PLAYBACK_STARTED = new EventTemplate("AudioPlayer", "PlaybackStarted", Payload.TOKEN_OFFSET);
+    public static final EventTemplate PLAYBACK_NEARLY_FINISHED = new EventTemplate("AudioPlayer", "PlaybackNearlyFinished", Payload.TOKEN_OFFSET);
+    public static final EventTemplate PLAYBACK_FINISHED = new EventTemplate("AudioPlayer", "PlaybackFinished", Payload.TOKEN);
+
+    public static final EventTemplate PLAY_COMMAND_ISSUED = new EventTemplate("PlaybackController", "PlayCommandIssued", Payload.NONE);
+    public static final EventTemplate PAUSE_COMMAND_ISSUED = new EventTemplate("PlaybackController", "PauseCommandIssued", Payload.NONE);
+    public static final EventTemplate NEXT_COMMAND_ISSUED = new EventTemplate("PlaybackController", "NextCommandIssued", Payload.NONE);
+    public static final EventTemplate PREVIOUS_COMMAND_ISSUED = new EventTemplate("PlaybackController", "PreviousCommandIssued", Payload.NONE);
+
+    public static final EventTemplate SET_ALERT_SUCCEEDED = new EventTemplate("Alerts", "SetAlertSucceeded", Payload.TOKEN);
+    public static final EventTemplate SET_ALERT_FAILED = new EventTemplate("Alerts", "SetAlertFailed", Payload.TOKEN);
+    public static final EventTemplate DELETE_ALERT_SUCCEEDED = new EventTemplate("Alerts", "DeleteAlertSucceeded", Payload.TOKEN);
+    public static final EventTemplate DELETE_ALERT_FAILED = new EventTemplate("Alerts", "DeleteAlertFailed", Payload.TOKEN);
+    public static final EventTemplate ALERT_STARTED = new EventTemplate("Alerts", "AlertStarted", Payload.TOKEN);
+    public static final EventTemplate ALERT_STOPPED = new EventTemplate("Alerts", "AlertStopped", Payload.TOKEN);
+    public static final EventTemplate ALERT_ENTERED_FOREGROUND = new EventTemplate("Alerts", "AlertEnteredForeground", Payload.TOKEN);
+    public static final EventTemplate ALERT_ENTERED_BACKGROUND = new EventTemplate("Alerts", "AlertEnteredBackground", Payload.TOKEN);
+
+    public static final EventTemplate VOLUME_CHANGED = new EventTemplate("Speaker", "VolumeChanged", Payload.VOLUME);
+    /**
+     * Reported as a VolumeChanged without a volume, the way {@link Event#getMuteEvent(boolean)} always has
+     */
+    public static final EventTemplate MUTE_CHANGED = new EventTemplate("Speaker", "VolumeChanged", Payload.MUTE);
+
+    public static final EventTemplate SYNCHRONIZE_STATE = new EventTemplate("System", "SynchronizeState", Payload.NONE);
+
+    /**
+     * The payload fields of each kind of event, in the order Gson writes the fields of {@link Event.Payload}
+     */
+    private enum Payload {
+        NONE,
+        TOKEN,
+        TOKEN_OFFSET,
+        VOLUME,
+        MUTE,
+        RECOGNIZE
+    }
+
+    private static final ByteString QUOTE = ByteString.encodeUtf8("\"");
+    private static final ByteString DIALOG_REQUEST_ID = ByteString.encodeUtf8(",\"dialogRequestId\":\"");
+    private static final ByteString PAYLOAD_START = ByteString.encodeUtf8("},\"payload\":{");
+    private static final ByteString TOKEN = ByteString.encodeUtf8("\"token\":\"");
+    private static final ByteString OFFSET = ByteString.encodeUtf8("\",\"offsetInMilliseconds\":");
+    private static final ByteString MUTED = ByteString.encodeUtf8("\"muted\":");
+    private static final ByteString VOLUME = ByteString.encodeUtf8(",\"volume\":");
+    private static final ByteString RECOGNIZE_PAYLOAD = ByteString.encodeUtf8("\"profile\":\"NEAR_FIELD\",\"format\":\"AUDIO_L16_RATE_16000_CHANNELS_1\"");
+    private static final ByteString CONTEXT = ByteString.encodeUtf8("}},\"context\":");
+    private static final ByteString EMPTY_CONTEXT = ByteString.encodeUtf8("[]");
+    private static final ByteString END = ByteString.encodeUtf8("}\n");
+
+    private final String mNamespace;
+    private final String mName;
+    private final Payload mPayload;
+    //{"event":{"header":{"namespace":"...","name":"...","messageId":"
+    private final ByteString mHeader;
+
+    private EventTemplate(String namespace, String name, Payload payload) {
+        mNamespace = namespace;
+        mName = name;
+        mPayload = payload;
+        Buffer header = new Buffer()
+                .writeUtf8("{\"event\":{\"header\":{\"namespace\":");
+        writeString(header, namespace);
+        header.writeUtf8(",\"name\":");
+        writeString(header, name);
+        header.writeUtf8(",\"messageId\":\"");
+        mHeader = header.readByteString();
+    }
+
+    public String getNamespace() {
+        return mNamespace;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Write an event
+     * @param sink where the JSON goes
+     * @param messageId the unique id of this event, see {@link com.willblaschko.android.alexa.utility.Util#getUuid()}
+     * @param dialogRequestId the dialog this event is part of, null if it isn't
+     * @param token the token of the item the event is about, unused if the event doesn't have one
+     * @param value the offset in milliseconds, or volume, of events that have one
+     * @param muted the mute state of Speaker events
+     */
+    public void write(@NotNull BufferedSink sink, @NotNull String messageId, @Nullable String dialogRequestId,
+                      @Nullable String token, long value, boolean muted) throws IOException {
+        write(sink, messageId, dialogRequestId, token, value, muted, EMPTY_CONTEXT);
+    }
+
+    /**
+     * Write an event with its context
+     * @param context the serialized context list, see {@link DeviceContextCache#getContext()}
+     * @see #write(BufferedSink, String, String, String, long, boolean)
+     */
+    public void write(@NotNull BufferedSink sink, @NotNull String messageId, @Nullable String dialogRequestId,
+                      @Nullable String token, long value, boolean muted, @NotNull ByteString context) throws IOException {
+        sink.write(mHeader);
+        writeEscaped(sink, messageId);
+        sink.write(QUOTE);
+        if (dialogRequestId != null) {
+            sink.write(DIALOG_REQUEST_ID);
+            writeEscaped(sink, dialogRequestId);
+            sink.write(QUOTE);
+        }
+        sink.write(PAYLOAD_START);
+        switch (mPayload) {
+            case TOKEN:
+                if (token != null) {
+                    sink.write(TOKEN);
+                    writeEscaped(sink, token);
+                    sink.write(QUOTE);
+                }
+                break;
+            case TOKEN_OFFSET:
+                if (token != null) {
+                    sink.write(TOKEN);
+                    writeEscaped(sink, token);
+                    sink.write(OFFSET);
+                } else {
+                    sink.writeUtf8("\"offsetInMilliseconds\":");
+                }
+                sink.writeDecimalLong(value);
+                break;
+            case VOLUME:
+                sink.write(MUTED).writeUtf8(muted ? "true" : "false");
+                sink.write(VOLUME).writeDecimalLong(value);
+                break;
+            case MUTE:
+                sink.write(MUTED).writeUtf8(muted ? "true" : "false");
+                break;
+            case RECOGNIZE:
+                sink.write(RECOGNIZE_PAYLOAD);
+                break;
+            default:
+                break;
+        }
+        sink.write(CONTEXT);
+        sink.write(context);
+        sink.write(END);
+    }
+
+    /**
+     * @return the event as a String, for APIs that pass events around that way
+     * @see #write(BufferedSink, String, String, String, long, boolean)
+     */
+    public String toJson(@NotNull String messageId, @Nullable String dialogRequestId, @Nullable String token, long value, boolean muted) {
+        return toJson(messageId, dialogRequestId, token, value, muted, EMPTY_CONTEXT);
+    }
+
+    /**
+     * @return the event and its context as a String
+     * @see #write(BufferedSink, String, String, String, long, boolean, ByteString)
+     */
+    public String toJson(@NotNull String messageId, @Nullable String dialogRequestId, @Nullable String token, long value,
+                         boolean muted, @NotNull ByteString context) {
+        Buffer buffer = new Buffer();
+        try {
+            write(buffer, messageId, dialogRequestId, token, value, muted, context);
+        } catch (IOException e) {
+            //a Buffer doesn't throw
+            throw new AssertionError(e);
+        }
+        return buffer.readUtf8();
+    }
+
+    /**
+     * @return a request body that writes the event straight into the request as it's sent, for the metadata part of
+     * our multipart request
+     * @see #write(BufferedSink, String, String, String, long, boolean)
+     */
+    public RequestBody toRequestBody(@NotNull String messageId, @Nullable String dialogRequestId,
+                                     @Nullable String token, long value, boolean muted) {
+        return toRequestBody(messageId, dialogRequestId, token, value, muted, EMPTY_CONTEXT);
+    }
+
+    /**
+     * @param context the context list the event is sent with, taken when the body is created
+     * @see #toRequestBody(String, String, String, long, boolean)
+     */
+    public RequestBody toRequestBody(@NotNull final String messageId, @Nullable final String dialogRequestId,
+                                     @Nullable final String token, final long value, final boolean muted,
+                                     @NotNull final ByteString context) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                write(sink, messageId, dialogRequestId, token, value, muted, context);
+            }
+        };
+    }
+
+    private static void writeString(BufferedSink sink, String value) {
+        try {
+            sink.writeUtf8("\"");
+            writeEscaped(sink, value);
+            sink.writeUtf8("\"");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Write a JSON string value, without its quotes. Plain ASCII runs are written in one go, only quotes, backslashes,
+     * control characters and the line/paragraph separators need escaping.
+     */
+    static void writeEscaped(BufferedSink sink, String value) throws IOException {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                replacement = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            if (start < i) {
+                sink.writeUtf8(value, start, i);
+            }
+            sink.writeUtf8(replacement);
+            start = i + 1;
+        }
+        if (start < length) {
+            sink.writeUtf8(value, start, length);
+        }
+    }
+}
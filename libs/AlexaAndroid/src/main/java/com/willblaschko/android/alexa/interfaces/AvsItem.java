@@ -5,6 +5,7 @@ package com.willblaschko.android.alexa.interfaces;
  */
 public abstract class AvsItem {
     String token;
+    String dialogRequestId;
     public AvsItem(String token){
         this.token = token;
     }
@@ -12,4 +13,15 @@ public abstract class AvsItem {
     public String getToken() {
         return token;
     }
+
+    /**
+     * @return the dialogRequestId of the directive this item came from, null if it wasn't sent in answer to a Recognize event
+     */
+    public String getDialogRequestId() {
+        return dialogRequestId;
+    }
+
+    public void setDialogRequestId(String dialogRequestId) {
+        this.dialogRequestId = dialogRequestId;
+    }
 }
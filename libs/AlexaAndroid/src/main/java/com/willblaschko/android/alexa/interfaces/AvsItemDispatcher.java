@@ -0,0 +1,71 @@
+package com.willblaschko.android.alexa.interfaces;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+
+/**
+ * Routes {@link AvsItem}s to a handler registered for their type, instead of a chain of instanceof checks.
+ *
+ * Lookup is a hash on the item's class, falling back to its superclasses (so a handler for {@link
+ * com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem} also gets
+ * {@link com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem}s), so it costs the same no matter how
+ * many types are registered. Items without a handler go to the fallback, if one is set.
+ *
+ * Handlers should be registered up front, dispatch isn't synchronized against registration.
+ */
+public class AvsItemDispatcher {
+
+    private final HashMap<Class<?>, Handler<?>> mHandlers = new HashMap<>();
+    private Handler<AvsItem> mFallback;
+
+    /**
+     * Register (or replace) the handler for an item type
+     * @param type the item class, subclasses without their own handler are sent here as well
+     * @param handler our handler
+     * @return this dispatcher, for chaining
+     */
+    public <T extends AvsItem> AvsItemDispatcher register(@NotNull Class<T> type, @NotNull Handler<? super T> handler) {
+        mHandlers.put(type, handler);
+        return this;
+    }
+
+    /**
+     * @param fallback the handler for items that don't have one registered, or null to ignore them
+     * @return this dispatcher, for chaining
+     */
+    public AvsItemDispatcher setFallback(@Nullable Handler<AvsItem> fallback) {
+        mFallback = fallback;
+        return this;
+    }
+
+    /**
+     * Send an item to its handler
+     * @param item the item to handle
+     * @return true if a registered handler took the item, false if it went to the fallback (or nowhere)
+     */
+    @SuppressWarnings("unchecked")
+    public boolean dispatch(@NotNull AvsItem item) {
+        Class<?> type = item.getClass();
+        while (type != null && type != AvsItem.class) {
+            Handler<AvsItem> handler = (Handler<AvsItem>) mHandlers.get(type);
+            if (handler != null) {
+                handler.handle(item);
+                return true;
+            }
+            type = type.getSuperclass();
+        }
+        if (mFallback != null) {
+            mFallback.handle(item);
+        }
+        return false;
+    }
+
+    /**
+     * Handler for a single type of {@link AvsItem}
+     */
+    public interface Handler<T extends AvsItem> {
+        void handle(T item);
+    }
+}
@@ -0,0 +1,8 @@
+package com.willblaschko.android.alexa.interfaces;
+
+/**
+ * Listener for {@link AvsItem}s as they're parsed, see {@link AvsItemListenerList}
+ */
+public interface AvsItemListener {
+    void onAvsItem(AvsItem item);
+}
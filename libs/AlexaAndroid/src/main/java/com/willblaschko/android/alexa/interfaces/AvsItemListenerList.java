@@ -0,0 +1,60 @@
+package com.willblaschko.android.alexa.interfaces;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * A list of {@link AvsItemListener}s that items can be fanned out to from any thread.
+ *
+ * Listeners are kept in an array that's copied when one is added or removed (rare), so dispatching an item (common)
+ * takes no lock and allocates nothing, listeners are free to add or remove themselves while being called.
+ */
+public class AvsItemListenerList {
+
+    private static final AvsItemListener[] EMPTY = new AvsItemListener[0];
+
+    private volatile AvsItemListener[] mListeners = EMPTY;
+
+    /**
+     * Add a listener, adding the same listener twice has no effect
+     */
+    public synchronized void add(@NotNull AvsItemListener listener) {
+        AvsItemListener[] listeners = mListeners;
+        for (AvsItemListener current : listeners) {
+            if (current == listener) {
+                return;
+            }
+        }
+        AvsItemListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        mListeners = updated;
+    }
+
+    public synchronized void remove(@NotNull AvsItemListener listener) {
+        AvsItemListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                AvsItemListener[] updated = new AvsItemListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+                mListeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand an item to every listener, in the order they were added, on the calling thread
+     */
+    public void dispatch(@NotNull AvsItem item) {
+        AvsItemListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onAvsItem(item);
+        }
+    }
+
+    public int size() {
+        return mListeners.length;
+    }
+}
@@ -0,0 +1,49 @@
+package com.willblaschko.android.alexa.interfaces;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+
+/**
+ * A call to the Alexa server (or the token endpoint) ran out of time, see
+ * {@link com.willblaschko.android.alexa.connection.DeadlinePolicy}. It's an IOException, like OkHttp's own timeouts,
+ * so it's handed to {@link com.willblaschko.android.alexa.callbacks.AsyncCallback#failure(Object)} like any other
+ * network failure, {@link #getKind()} says which of our limits it hit.
+ */
+public class AvsTimeoutException extends InterruptedIOException {
+
+    public enum Kind {
+        /**
+         * We couldn't open a connection to the server in time
+         */
+        CONNECT,
+        /**
+         * The connection was open, but nothing was written or read in time
+         */
+        STALLED,
+        /**
+         * The call as a whole went over its budget and was cancelled
+         */
+        DEADLINE
+    }
+
+    private final Kind mKind;
+    private final long mTimeoutMillis;
+
+    public AvsTimeoutException(Kind kind, long timeoutMillis, Throwable cause) {
+        super(kind.name().toLowerCase(Locale.US) + " timeout after " + timeoutMillis + "ms");
+        mKind = kind;
+        mTimeoutMillis = timeoutMillis;
+        initCause(cause);
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return the limit we hit
+     */
+    public long getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+}
@@ -0,0 +1,29 @@
+package com.willblaschko.android.alexa.interfaces;
+
+import com.willblaschko.android.alexa.data.Directive;
+
+/**
+ * A directive we don't have a handler for, produced by the fallback of
+ * {@link com.willblaschko.android.alexa.interfaces.response.DirectiveHandlerRegistry} so new or unsupported AVS interfaces
+ * still reach the app instead of being dropped.
+ */
+public class AvsUnknownItem extends AvsItem {
+    private Directive mDirective;
+
+    public AvsUnknownItem(Directive directive) {
+        super(directive.getPayload() != null ? directive.getPayload().getToken() : null);
+        mDirective = directive;
+    }
+
+    public Directive getDirective() {
+        return mDirective;
+    }
+
+    public String getNamespace() {
+        return mDirective.getHeader().getNamespace();
+    }
+
+    public String getName() {
+        return mDirective.getHeader().getName();
+    }
+}
@@ -1,15 +1,17 @@
 package com.willblaschko.android.alexa.interfaces;
 
 import com.willblaschko.android.alexa.callbacks.AsyncCallback;
+import com.willblaschko.android.alexa.connection.ClientProfile;
 import com.willblaschko.android.alexa.connection.ClientUtil;
+import com.willblaschko.android.alexa.data.EventTemplate;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import okhttp3.Call;
-import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -46,11 +48,15 @@ public abstract class SendEvent {
         //set our authentication access token header
         mRequestBuilder.addHeader("Authorization", "Bearer " + accessToken);
 
-        String event = getEvent();
+        //tag our request with its interaction, so the network stages can be traced
+        String dialogRequestId = getDialogRequestId();
+        if (dialogRequestId != null) {
+            mRequestBuilder.tag(dialogRequestId);
+        }
 
         mBodyBuilder = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
-                .addFormDataPart("metadata", "metadata", RequestBody.create(MediaType.parse("application/json; charset=UTF-8"), event));
+                .addFormDataPart("metadata", "metadata", getEventBody());
 
         //reset our output stream
         mOutputStream = new ByteArrayOutputStream();
@@ -86,7 +92,7 @@ public abstract class SendEvent {
         Request request = mRequestBuilder.build();
 
 
-        currentCall = ClientUtil.getTLS12OkHttpClient().newCall(request);
+        currentCall = ClientUtil.newCall(getClientProfile(), request);
 
         return currentCall;
     }
@@ -101,6 +107,34 @@ public abstract class SendEvent {
 
     };
 
+    /**
+     * Get the metadata part of our request, by default this is {@link #getEvent()}, override this to write the event
+     * straight into the request instead, see {@link EventTemplate#toRequestBody(String, String, String, long, boolean)}
+     * @return the JSON event as a request body
+     */
+    @NotNull
+    protected RequestBody getEventBody() {
+        return RequestBody.create(EventTemplate.JSON, getEvent());
+    }
+
+    /**
+     * @return the kind of traffic our call is, for its client and the limits it's held to, a timeout fails it with an
+     * {@link com.willblaschko.android.alexa.interfaces.AvsTimeoutException}
+     */
+    @NotNull
+    protected ClientProfile getClientProfile() {
+        return ClientProfile.EVENTS;
+    }
+
+    /**
+     * @return the dialogRequestId of the interaction this call is part of, or null if it isn't part of one, see
+     * {@link com.willblaschko.android.alexa.connection.TracingInterceptor}
+     */
+    @Nullable
+    protected String getDialogRequestId() {
+        return null;
+    }
+
     /**
      * Get our JSON {@link com.willblaschko.android.alexa.data.Event} for this call
      * @return the JSON representation of the {@link com.willblaschko.android.alexa.data.Event}
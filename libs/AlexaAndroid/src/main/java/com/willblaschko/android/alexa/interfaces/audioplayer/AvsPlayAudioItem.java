@@ -5,6 +5,8 @@ import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
+import okio.Buffer;
+
 /**
  * Directive to play a local, returned audio item
  *
@@ -19,4 +21,8 @@ public class AvsPlayAudioItem extends AvsSpeakItem {
     public AvsPlayAudioItem(String token, String cid, ByteArrayInputStream audio) throws IOException {
         super(token, cid, audio);
     }
+
+    public AvsPlayAudioItem(String token, String cid, Buffer audio) {
+        super(token, cid, audio);
+    }
 }
@@ -0,0 +1,268 @@
+package com.willblaschko.android.alexa.interfaces.response;
+
+import android.util.Log;
+
+import com.willblaschko.android.alexa.data.Directive;
+import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsUnknownItem;
+import com.willblaschko.android.alexa.interfaces.alerts.AvsDeleteAlertItem;
+import com.willblaschko.android.alexa.interfaces.alerts.AvsSetAlertItem;
+import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem;
+import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayRemoteItem;
+import com.willblaschko.android.alexa.interfaces.errors.AvsResponseException;
+import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaNextCommandItem;
+import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPauseCommandItem;
+import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPlayCommandItem;
+import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPreviousCommandItem;
+import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsStopItem;
+import com.willblaschko.android.alexa.interfaces.speaker.AvsAdjustVolumeItem;
+import com.willblaschko.android.alexa.interfaces.speaker.AvsSetMuteItem;
+import com.willblaschko.android.alexa.interfaces.speaker.AvsSetVolumeItem;
+import com.willblaschko.android.alexa.interfaces.speechrecognizer.AvsExpectSpeechItem;
+import com.willblaschko.android.alexa.interfaces.speechrecognizer.AvsStopCaptureItem;
+import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
+import com.willblaschko.android.alexa.interfaces.system.AvsSetEndpointItem;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.Buffer;
+
+/**
+ * Table of the handlers that turn a {@link Directive} into its {@link AvsItem}, keyed by the namespace and name of the
+ * directive. {@link ResponseParser} sends every directive through here, so apps can add (or override) handlers for AVS
+ * interfaces the library doesn't know about, like TemplateRuntime or Notifications, without changing the parser.
+ *
+ * Lookups are two hash gets against a table that's only rebuilt when a handler is registered, so they take the same time
+ * no matter how many interfaces there are and never block. Directives without a handler go to the fallback handler, which
+ * by default wraps them in an {@link AvsUnknownItem}.
+ */
+public class DirectiveHandlerRegistry {
+
+    public static final String TAG = "DirectiveHandlerRegistry";
+
+    private static DirectiveHandlerRegistry instance;
+
+    //namespace -> name -> handler, replaced (never modified) on register
+    private volatile Map<String, Map<String, Handler>> mHandlers = Collections.emptyMap();
+    private volatile Handler mFallback = UNKNOWN_HANDLER;
+
+    /**
+     * Get the registry used by {@link ResponseParser}, with all the library's handlers registered
+     */
+    public static synchronized DirectiveHandlerRegistry getInstance() {
+        if (instance == null) {
+            instance = new DirectiveHandlerRegistry();
+            instance.registerDefaults();
+        }
+        return instance;
+    }
+
+    /**
+     * Create an empty registry, see {@link #getInstance()} for the one with the library handlers
+     */
+    public DirectiveHandlerRegistry() {
+    }
+
+    /**
+     * Register a handler, replacing any existing handler for the same directive
+     * @param namespace the directive namespace, e.g. "TemplateRuntime"
+     * @param name the directive name, e.g. "RenderTemplate"
+     * @param handler our handler
+     * @return this registry, for chaining
+     */
+    public synchronized DirectiveHandlerRegistry register(@NotNull String namespace, @NotNull String name, @NotNull Handler handler) {
+        Map<String, Map<String, Handler>> handlers = new HashMap<>(mHandlers);
+        Map<String, Handler> names = handlers.get(namespace);
+        names = names == null ? new HashMap<String, Handler>() : new HashMap<>(names);
+        names.put(name, handler);
+        handlers.put(namespace, names);
+        mHandlers = handlers;
+        return this;
+    }
+
+    /**
+     * Remove the handler for a directive, it will go to the fallback handler from now on
+     * @return this registry, for chaining
+     */
+    public synchronized DirectiveHandlerRegistry unregister(@NotNull String namespace, @NotNull String name) {
+        Map<String, Handler> names = mHandlers.get(namespace);
+        if (names == null || !names.containsKey(name)) {
+            return this;
+        }
+        Map<String, Map<String, Handler>> handlers = new HashMap<>(mHandlers);
+        names = new HashMap<>(names);
+        names.remove(name);
+        handlers.put(namespace, names);
+        mHandlers = handlers;
+        return this;
+    }
+
+    /**
+     * Set the handler for directives that don't have one registered
+     * @param fallback our fallback, the default wraps the directive in an {@link AvsUnknownItem}
+     * @return this registry, for chaining
+     */
+    public DirectiveHandlerRegistry setFallback(@NotNull Handler fallback) {
+        mFallback = fallback;
+        return this;
+    }
+
+    /**
+     * @return the handler registered for a directive, or null if there isn't one
+     */
+    @Nullable
+    public Handler getHandler(String namespace, String name) {
+        Map<String, Handler> names = mHandlers.get(namespace);
+        return names != null ? names.get(name) : null;
+    }
+
+    /**
+     * Turn a directive into its item using the matching handler, or the fallback if there's no match
+     * @param directive the parsed directive
+     * @param audio the audio parts of our response, keyed by "cid:" url, may be null outside of a response
+     * @return the item, or null if the handler didn't produce one
+     * @throws IOException
+     */
+    @Nullable
+    public AvsItem handle(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) throws IOException {
+        Directive.Header header = directive.getHeader();
+        Handler handler = header != null ? getHandler(header.getNamespace(), header.getName()) : null;
+        if (handler == null) {
+            Log.w(TAG, "No handler found for directive: " + (header != null ? header.getNamespace() + ":" + header.getName() : null));
+            handler = mFallback;
+        }
+        return handler.handleDirective(directive, audio);
+    }
+
+    /**
+     * Turns a single type of directive into its {@link AvsItem}
+     */
+    public interface Handler {
+        /**
+         * @param directive the parsed directive
+         * @param audio the audio parts of our response, keyed by "cid:" url, may be null outside of a response
+         * @return the item for the directive, or null to drop it
+         * @throws IOException
+         */
+        @Nullable
+        AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) throws IOException;
+    }
+
+    private static final Handler UNKNOWN_HANDLER = new Handler() {
+        @Override
+        public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+            return new AvsUnknownItem(directive);
+        }
+    };
+
+    private void registerDefaults() {
+        register(Directive.NAMESPACE_SPEECH_SYNTHESIZER, Directive.TYPE_SPEAK, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                String cid = directive.getPayload().getUrl();
+                return new AvsSpeakItem(directive.getPayload().getToken(), cid, audio.get(cid));
+            }
+        });
+        register(Directive.NAMESPACE_AUDIO_PLAYER, Directive.TYPE_PLAY, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                String url = directive.getPayload().getAudioItem().getStream().getUrl();
+                if(url.contains("cid:")){
+                    return new AvsPlayAudioItem(directive.getPayload().getToken(), url, audio.get(url));
+                }else{
+                    return new AvsPlayRemoteItem(directive.getPayload().getToken(), url, directive.getPayload().getAudioItem().getStream().getOffsetInMilliseconds());
+                }
+            }
+        });
+        register(Directive.NAMESPACE_AUDIO_PLAYER, Directive.TYPE_STOP, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsStopItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_SPEECH_RECOGNIZER, Directive.TYPE_STOP_CAPTURE, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsStopCaptureItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_SPEECH_RECOGNIZER, Directive.TYPE_EXPECT_SPEECH, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsExpectSpeechItem(directive.getPayload().getToken(), directive.getPayload().getTimeoutInMilliseconds());
+            }
+        });
+        register(Directive.NAMESPACE_ALERTS, Directive.TYPE_SET_ALERT, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsSetAlertItem(directive.getPayload().getToken(), directive.getPayload().getType(), directive.getPayload().getScheduledTime());
+            }
+        });
+        register(Directive.NAMESPACE_ALERTS, Directive.TYPE_DELETE_ALERT, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsDeleteAlertItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_SPEAKER, Directive.TYPE_SET_MUTE, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsSetMuteItem(directive.getPayload().getToken(), directive.getPayload().isMute());
+            }
+        });
+        register(Directive.NAMESPACE_SPEAKER, Directive.TYPE_SET_VOLUME, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsSetVolumeItem(directive.getPayload().getToken(), directive.getPayload().getVolume());
+            }
+        });
+        register(Directive.NAMESPACE_SPEAKER, Directive.TYPE_ADJUST_VOLUME, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsAdjustVolumeItem(directive.getPayload().getToken(), directive.getPayload().getVolume());
+            }
+        });
+        register(Directive.NAMESPACE_PLAYBACK_CONTROLLER, Directive.TYPE_MEDIA_PLAY, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsMediaPlayCommandItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_PLAYBACK_CONTROLLER, Directive.TYPE_MEDIA_PAUSE, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsMediaPauseCommandItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_PLAYBACK_CONTROLLER, Directive.TYPE_MEDIA_NEXT, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsMediaNextCommandItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_PLAYBACK_CONTROLLER, Directive.TYPE_MEDIA_PREVIOUS, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsMediaPreviousCommandItem(directive.getPayload().getToken());
+            }
+        });
+        register(Directive.NAMESPACE_SYSTEM, Directive.TYPE_SET_ENDPOINT, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsSetEndpointItem(directive.getPayload().getToken(), directive.getPayload().getEndpoint());
+            }
+        });
+        register(Directive.NAMESPACE_SYSTEM, Directive.TYPE_EXCEPTION, new Handler() {
+            @Override
+            public AvsItem handleDirective(@NotNull Directive directive, @Nullable Map<String, Buffer> audio) {
+                return new AvsResponseException(directive);
+            }
+        });
+    }
+}
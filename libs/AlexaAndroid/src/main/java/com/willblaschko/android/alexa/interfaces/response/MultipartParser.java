@@ -0,0 +1,200 @@
+package com.willblaschko.android.alexa.interfaces.response;
+
+import android.util.Log;
+
+import com.willblaschko.android.alexa.interfaces.AvsException;
+
+import java.io.IOException;
+
+import okhttp3.Headers;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Incremental reader for the multipart bodies returned by the Alexa server. Parts are read straight from the
+ * {@link BufferedSource} of our OkHttp response and handed to a {@link Callback} as soon as their closing boundary
+ * arrives, so we only ever hold the part we're currently reading in memory instead of the whole response.
+ *
+ * The body of each part is moved (not copied) out of the source into its own {@link Buffer}.
+ */
+public class MultipartParser {
+
+    public static final String TAG = "MultipartParser";
+
+    private static final ByteString CRLF = ByteString.encodeUtf8("\r\n");
+    private static final ByteString HEADERS_END = ByteString.encodeUtf8("\r\n\r\n");
+    private static final ByteString DASH_DASH = ByteString.encodeUtf8("--");
+
+    private final BufferedSource mSource;
+    //"--boundary", what we look for at the start of the stream
+    private final ByteString mDelimiter;
+    //"\r\n--boundary", what terminates the body of every part
+    private final ByteString mBodyDelimiter;
+    //true if we're already positioned at the headers of the first part, see repairPreamble()
+    private boolean mAtHeaders = false;
+
+    /**
+     * Create a new parser for a multipart stream
+     * @param source the response body source, we read from it as parts are needed
+     * @param boundary the boundary from the response content-type header, see {@link ResponseParser#getBoundary(okhttp3.Response)}
+     */
+    public MultipartParser(BufferedSource source, String boundary) {
+        mSource = source;
+        mDelimiter = ByteString.encodeUtf8("--" + boundary);
+        mBodyDelimiter = ByteString.encodeUtf8("\r\n--" + boundary);
+    }
+
+    /**
+     * Skip everything before the first boundary, this blocks until the boundary has arrived or the stream has ended
+     * @return true if we found our initial boundary, false if this isn't a multipart stream (the source is left untouched)
+     * @throws IOException
+     */
+    public boolean skipPreamble() throws IOException {
+        long index = mSource.indexOf(mDelimiter);
+        if (index == -1) {
+            return false;
+        }
+        mSource.skip(index + mDelimiter.size());
+        return true;
+    }
+
+    /**
+     * Like {@link #skipPreamble()}, but also handles responses that are missing their leading boundary and start straight
+     * with the headers of the first part, reading them as if the boundary had been there. Only the start of the stream is
+     * looked at, so this doesn't wait for the rest of the response to arrive.
+     * @return true if we found our initial boundary or the headers of a first part, false if this isn't a multipart stream
+     * @throws IOException
+     */
+    public boolean repairPreamble() throws IOException {
+        //leading whitespace is ignored, the same as a missing boundary
+        while (mSource.request(1) && isWhitespace(mSource.buffer().getByte(0))) {
+            mSource.skip(1);
+        }
+
+        if (mSource.request(mDelimiter.size()) && mSource.rangeEquals(0, mDelimiter)) {
+            mSource.skip(mDelimiter.size());
+            return true;
+        }
+
+        long lineEnd = mSource.indexOf(CRLF);
+        if (lineEnd > 0 && isHeaderLine(mSource.buffer(), lineEnd)) {
+            Log.w(TAG, "Response is missing its leading boundary");
+            mAtHeaders = true;
+            return true;
+        }
+
+        return skipPreamble();
+    }
+
+    /**
+     * Read all the remaining parts from our source, calling back as each one is completed. {@link #skipPreamble()} needs
+     * to be called first.
+     * @param callback our part callback
+     * @return the number of parts read
+     * @throws IOException if the stream ends before a part is closed, or the source throws
+     * @throws AvsException if the callback can't handle a part
+     */
+    public int readParts(Callback callback) throws IOException, AvsException {
+        int count = 0;
+        while (mAtHeaders || mSource.request(DASH_DASH.size())) {
+            if (mAtHeaders) {
+                mAtHeaders = false;
+            } else {
+                //a trailing "--" after the boundary closes the stream
+                if (mSource.rangeEquals(0, DASH_DASH)) {
+                    break;
+                }
+
+                //skip the rest of the boundary line (transport padding and CRLF)
+                long lineEnd = mSource.indexOf(CRLF);
+                if (lineEnd == -1) {
+                    break;
+                }
+                mSource.skip(lineEnd + CRLF.size());
+
+                //a bare boundary at the very end also closes the stream
+                if (mSource.exhausted()) {
+                    break;
+                }
+            }
+
+            Headers headers = readHeaders();
+
+            long bodyEnd = mSource.indexOf(mBodyDelimiter);
+            if (bodyEnd == -1) {
+                throw new IOException("Multipart stream ended before the part was closed");
+            }
+            Buffer body = new Buffer();
+            mSource.readFully(body, bodyEnd);
+            mSource.skip(mBodyDelimiter.size());
+
+            callback.onPart(headers, body);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read the headers of the current part, up to and including the blank line that separates them from the body
+     */
+    private Headers readHeaders() throws IOException {
+        Headers.Builder builder = new Headers.Builder();
+
+        //no headers at all, just the blank line
+        if (mSource.rangeEquals(0, CRLF)) {
+            mSource.skip(CRLF.size());
+            return builder.build();
+        }
+
+        long headersEnd = mSource.indexOf(HEADERS_END);
+        if (headersEnd == -1) {
+            throw new IOException("Multipart stream ended inside of the part headers");
+        }
+        String headers = mSource.readUtf8(headersEnd);
+        mSource.skip(HEADERS_END.size());
+
+        for (String line : headers.split("\r\n")) {
+            if (line.indexOf(':') > 0) {
+                builder.add(line);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check if the first line of the buffer looks like a part header ("Name: value"), without decoding it
+     * @param buffer the buffer, starting at the line
+     * @param lineEnd the index of the CRLF that ends the line
+     */
+    private static boolean isHeaderLine(Buffer buffer, long lineEnd) {
+        for (long i = 0; i < lineEnd; i++) {
+            byte b = buffer.getByte(i);
+            if (b == ':') {
+                return i > 0;
+            }
+            //header names are visible ASCII, without separators
+            if (b <= ' ' || b >= 127 || b == '{' || b == '"') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Callback for each completed part of our multipart stream
+     */
+    public interface Callback {
+        /**
+         * @param headers the headers of the part
+         * @param body the full body of the part, this belongs to the callback
+         * @throws IOException
+         * @throws AvsException
+         */
+        void onPart(Headers headers, Buffer body) throws IOException, AvsException;
+    }
+}
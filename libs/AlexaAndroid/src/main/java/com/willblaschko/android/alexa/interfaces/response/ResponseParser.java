@@ -2,53 +2,31 @@ package com.willblaschko.android.alexa.interfaces.response;
 
 import android.util.Log;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import com.willblaschko.android.alexa.data.Directive;
+import com.willblaschko.android.alexa.data.DirectiveDecoder;
 import com.willblaschko.android.alexa.interfaces.AvsException;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
 import com.willblaschko.android.alexa.interfaces.AvsResponse;
-import com.willblaschko.android.alexa.interfaces.alerts.AvsDeleteAlertItem;
-import com.willblaschko.android.alexa.interfaces.alerts.AvsSetAlertItem;
-import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayAudioItem;
-import com.willblaschko.android.alexa.interfaces.audioplayer.AvsPlayRemoteItem;
-import com.willblaschko.android.alexa.interfaces.errors.AvsResponseException;
-import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaNextCommandItem;
-import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPauseCommandItem;
-import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPlayCommandItem;
-import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsMediaPreviousCommandItem;
 import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsReplaceAllItem;
 import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsReplaceEnqueuedItem;
-import com.willblaschko.android.alexa.interfaces.playbackcontrol.AvsStopItem;
-import com.willblaschko.android.alexa.interfaces.speaker.AvsAdjustVolumeItem;
-import com.willblaschko.android.alexa.interfaces.speaker.AvsSetMuteItem;
-import com.willblaschko.android.alexa.interfaces.speaker.AvsSetVolumeItem;
-import com.willblaschko.android.alexa.interfaces.speechrecognizer.AvsExpectSpeechItem;
-import com.willblaschko.android.alexa.interfaces.speechrecognizer.AvsStopCaptureItem;
-import com.willblaschko.android.alexa.interfaces.speechsynthesizer.AvsSpeakItem;
-import com.willblaschko.android.alexa.interfaces.system.AvsSetEndpointItem;
-
-import org.apache.commons.fileupload.MultipartStream;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
-
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import com.willblaschko.android.alexa.utility.InteractionTracer;
+
+import org.jetbrains.annotations.Nullable;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import okhttp3.Headers;
 import okhttp3.Response;
-
-import static okhttp3.internal.Util.UTF_8;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * Static helper class to parse incoming responses from the Alexa server and generate a corresponding
@@ -61,6 +39,7 @@ public class ResponseParser {
     public static final String TAG = "ResponseParser";
 
     private static final Pattern PATTERN = Pattern.compile("<(.*?)>");
+    private static final String BOUNDARY_PARAM = "boundary=";
 
     /**
      * Get the AvsItem associated with a Alexa API post/get, this will contain a list of {@link AvsItem} directives,
@@ -79,102 +58,98 @@ public class ResponseParser {
         return parseResponse(stream, boundary, false);
     }
 
+    /**
+     * @param checkBoundary if true, responses that are missing their leading boundary are repaired as they're read,
+     *                      see {@link MultipartParser#repairPreamble()}
+     */
     public static AvsResponse parseResponse(InputStream stream, String boundary, boolean checkBoundary) throws IOException, IllegalStateException, AvsException {
-        long start = System.currentTimeMillis();
+        return parseResponse(Okio.buffer(Okio.source(stream)), boundary, checkBoundary, null);
+    }
 
-        List<Directive> directives = new ArrayList<>();
-        HashMap<String, ByteArrayInputStream> audio = new HashMap<>();
+    /**
+     * Parse the response straight from the body source of our OkHttp post/get, each {@link AvsItem} is handed to the callback
+     * as soon as the part (or parts, for directives that reference an audio part) that makes it up has been read, rather than
+     * waiting for the whole response to arrive. Items are always handed off in the same order as their directives, and the
+     * returned response has them in that same order. A Play directive with a REPLACE_ALL or REPLACE_ENQUEUED behavior is
+     * preceded by its {@link AvsReplaceAllItem} or {@link AvsReplaceEnqueuedItem}, right before the Play item it belongs to.
+     *
+     * @param source the body source of our OkHttp post/get calls
+     * @param boundary the boundary we're using to separate the multiparts
+     * @param callback an optional callback to receive each item as it's parsed
+     * @return the parsed AvsResponse, containing all the items that were passed to the callback, in the order they were passed
+     * @throws IOException
+     */
+    public static AvsResponse parseResponse(BufferedSource source, String boundary, @Nullable Callback callback) throws IOException, IllegalStateException, AvsException {
+        return parseResponse(source, boundary, false, callback);
+    }
 
-        byte[] bytes;
-        try {
-            bytes = IOUtils.toByteArray(stream);
-        } catch (IOException exp) {
-            exp.printStackTrace();
-            Log.e(TAG, "Error copying bytes[]");
-            return new AvsResponse();
-        }
+    /**
+     * @see #parseResponse(BufferedSource, String, Callback)
+     * @param checkBoundary if true, responses that are missing their leading boundary are repaired as they're read,
+     *                      see {@link MultipartParser#repairPreamble()}
+     */
+    public static AvsResponse parseResponse(BufferedSource source, String boundary, boolean checkBoundary, @Nullable Callback callback) throws IOException, IllegalStateException, AvsException {
+        return parse(source, boundary, checkBoundary, callback, true);
+    }
 
-        String responseString = string(bytes);
-        Log.i(TAG, responseString);
-        if (checkBoundary) {
-            final String responseTrim = responseString.trim();
-            final String testBoundary = "--" + boundary;
-            if (!StringUtils.isEmpty(responseTrim) && StringUtils.endsWith(responseTrim, testBoundary) && !StringUtils.startsWith(responseTrim, testBoundary)) {
-                responseString = "--" + boundary + "\r\n" + responseString;
-                bytes = responseString.getBytes();
-            }
-        }
+    /**
+     * Parse a response that may never end, like the downchannel, handing each {@link AvsItem} to the callback without
+     * keeping it, so memory doesn't grow with how long the stream stays open. Otherwise the same as
+     * {@link #parseResponse(BufferedSource, String, Callback)}.
+     *
+     * @param source the body source of our OkHttp get
+     * @param boundary the boundary we're using to separate the multiparts
+     * @param callback receives each item as it's parsed
+     * @throws IOException
+     */
+    public static void streamResponse(BufferedSource source, String boundary, Callback callback) throws IOException, IllegalStateException, AvsException {
+        parse(source, boundary, false, callback, false);
+    }
+
+    private static AvsResponse parse(BufferedSource source, String boundary, boolean checkBoundary, @Nullable Callback callback, boolean collect) throws IOException, IllegalStateException, AvsException {
+        long start = System.currentTimeMillis();
 
-        MultipartStream mpStream = new MultipartStream(new ByteArrayInputStream(bytes), boundary.getBytes(), 100000, null);
+        final ItemCollector collector = new ItemCollector(callback, collect);
 
-        //have to do this otherwise mpStream throws an exception
-        if (mpStream.skipPreamble()) {
+        MultipartParser parser = new MultipartParser(source, boundary);
+
+        if (checkBoundary ? parser.repairPreamble() : parser.skipPreamble()) {
             Log.i(TAG, "Found initial boundary: true");
 
-            //we have to use the count hack here because otherwise readBoundary() throws an exception
-            int count = 0;
-            while (count < 1 || mpStream.readBoundary()) {
-                String headers;
-                try {
-                    headers = mpStream.readHeaders();
-                } catch (MultipartStream.MalformedStreamException exp) {
-                    break;
-                }
-                ByteArrayOutputStream data = new ByteArrayOutputStream();
-                mpStream.readBodyData(data);
-                if (!isJson(headers)) {
-                    // get the audio data
-                    //convert our multipart into byte data
-                    String contentId = getCID(headers);
-                    if(contentId != null) {
-                        Matcher matcher = PATTERN.matcher(contentId);
-                        if (matcher.find()) {
-                            String currentId = "cid:" + matcher.group(1);
-                            audio.put(currentId, new ByteArrayInputStream(data.toByteArray()));
+            parser.readParts(new MultipartParser.Callback() {
+                @Override
+                public void onPart(Headers headers, Buffer body) throws IOException, AvsException {
+                    if (!isJson(headers)) {
+                        // get the audio data
+                        String contentId = headers.get("Content-ID");
+                        if(contentId != null) {
+                            Matcher matcher = PATTERN.matcher(contentId);
+                            if (matcher.find()) {
+                                String currentId = "cid:" + matcher.group(1);
+                                collector.addAudio(currentId, body);
+                            }
                         }
+                    } else {
+                        // get the json directive
+                        collector.addDirective(getDirective(body));
                     }
-                } else {
-                    // get the json directive
-                    String directive = data.toString(Charset.defaultCharset().displayName());
-
-                    directives.add(getDirective(directive));
                 }
-                count++;
-            }
+            });
 
         } else {
-            Log.i(TAG, "Response Body: \n" + string(bytes));
+            String responseString = source.readUtf8();
+            Log.i(TAG, "Response Body: \n" + responseString);
             try {
-                directives.add(getDirective(responseString));
+                collector.addDirective(getDirective(responseString));
             }catch (JsonParseException e) {
                 e.printStackTrace();
                 throw new AvsException("Response from Alexa server malformed. ");
             }
         }
 
-        AvsResponse response = new AvsResponse();
-
-        for (Directive directive: directives) {
-
-            if(directive.isPlayBehaviorReplaceAll()){
-                response.add(0, new AvsReplaceAllItem(directive.getPayload().getToken()));
-            }
-            if(directive.isPlayBehaviorReplaceEnqueued()){
-                response.add(new AvsReplaceEnqueuedItem(directive.getPayload().getToken()));
-            }
-
-            AvsItem item = parseDirective(directive, audio);
-
-            if(item != null){
-                response.add(item);
-            }
-        }
-
-        Log.i(TAG, "Parsing response took: " + (System.currentTimeMillis() - start) +" size is " + response.size());
+        AvsResponse response = collector.finish();
 
-        if(response.size() == 0){
-            Log.i(TAG, string(bytes));
-        }
+        Log.i(TAG, "Parsing response took: " + (System.currentTimeMillis() - start) +" size is " + collector.getCount());
 
         return response;
     }
@@ -183,116 +158,205 @@ public class ResponseParser {
         return parseDirective(directive, null);
     }
 
-    public static AvsItem parseDirective(Directive directive, HashMap<String, ByteArrayInputStream> audio) throws IOException {
+    /**
+     * Turn a directive into its matching {@link AvsItem}, using the handler registered for it in {@link DirectiveHandlerRegistry}
+     * @param directive the parsed directive
+     * @param audio the audio parts of our response, keyed by "cid:" url, the matching part is handed to the item as is
+     * @return the item, or null if the handler drops the directive
+     * @throws IOException
+     */
+    public static AvsItem parseDirective(Directive directive, Map<String, Buffer> audio) throws IOException {
         Log.i(TAG, "Parsing directive type: "+directive.getHeader().getNamespace()+":"+directive.getHeader().getName());
-        switch (directive.getHeader().getName()) {
-            case Directive.TYPE_SPEAK:
-                String cid = directive.getPayload().getUrl();
-                return new AvsSpeakItem(directive.getPayload().getToken(), cid, audio.get(cid));
-            case Directive.TYPE_PLAY:
-                String url = directive.getPayload().getAudioItem().getStream().getUrl();
-                if(url.contains("cid:")){
-                    return new AvsPlayAudioItem(directive.getPayload().getToken(), url, audio.get(url));
-                }else{
-                    return new AvsPlayRemoteItem(directive.getPayload().getToken(), url, directive.getPayload().getAudioItem().getStream().getOffsetInMilliseconds());
-                }
-            case Directive.TYPE_STOP_CAPTURE:
-                return new AvsStopCaptureItem(directive.getPayload().getToken());
-            case Directive.TYPE_STOP:
-                return new AvsStopItem(directive.getPayload().getToken());
-            case Directive.TYPE_SET_ALERT:
-                return new AvsSetAlertItem(directive.getPayload().getToken(), directive.getPayload().getType(), directive.getPayload().getScheduledTime());
-            case Directive.TYPE_DELETE_ALERT:
-                return new AvsDeleteAlertItem(directive.getPayload().getToken());
-            case Directive.TYPE_SET_MUTE:
-                return new AvsSetMuteItem(directive.getPayload().getToken(), directive.getPayload().isMute());
-            case Directive.TYPE_SET_VOLUME:
-                return new AvsSetVolumeItem(directive.getPayload().getToken(), directive.getPayload().getVolume());
-            case Directive.TYPE_ADJUST_VOLUME:
-                return new AvsAdjustVolumeItem(directive.getPayload().getToken(), directive.getPayload().getVolume());
-            case Directive.TYPE_EXPECT_SPEECH:
-                return new AvsExpectSpeechItem(directive.getPayload().getToken(), directive.getPayload().getTimeoutInMilliseconds());
-            case Directive.TYPE_MEDIA_PLAY:
-                return new AvsMediaPlayCommandItem(directive.getPayload().getToken());
-            case Directive.TYPE_MEDIA_PAUSE:
-                return new AvsMediaPauseCommandItem(directive.getPayload().getToken());
-            case Directive.TYPE_MEDIA_NEXT:
-                return new AvsMediaNextCommandItem(directive.getPayload().getToken());
-            case Directive.TYPE_MEDIA_PREVIOUS:
-                return new AvsMediaPreviousCommandItem(directive.getPayload().getToken());
-            case Directive.TYPE_SET_ENDPOINT:
-                return new AvsSetEndpointItem(directive.getPayload().getToken(), directive.getPayload().getEndpoint());
-            case Directive.TYPE_EXCEPTION:
-                return new AvsResponseException(directive);
-            default:
-                Log.e(TAG, "Unknown type found");
-                return null;
+        AvsItem item = DirectiveHandlerRegistry.getInstance().handle(directive, audio);
+        if (item != null) {
+            item.setDialogRequestId(directive.getHeader().getDialogRequestId());
         }
+        return item;
     }
 
+    /**
+     * Get the multipart boundary from the content-type header of our response
+     * @param response the response from the Alexa server
+     * @return the boundary, or an empty string if there isn't one
+     * @throws IOException
+     */
     public static String getBoundary(Response response) throws IOException {
         Headers headers = response.headers();
         String header = headers.get("content-type");
-        String boundary = "";
 
-        if (header != null) {
-            Pattern pattern = Pattern.compile("boundary=(.*?);");
-            Matcher matcher = pattern.matcher(header);
-            if (matcher.find()) {
-                boundary = matcher.group(1);
-            }
-        } else {
+        if (header == null) {
             Log.i(TAG, "Body: " + response.body().string());
+            return "";
         }
-        return boundary;
+        return getBoundary(header);
     }
 
-
-    private static final String string(byte[] bytes) throws IOException {
-        return new String(bytes, UTF_8);
+    /**
+     * Pull the boundary parameter out of a content-type header, e.g. multipart/related; boundary=abc; type=...
+     * @param contentType the content-type header value
+     * @return the boundary without quotes, or an empty string if there isn't one
+     */
+    public static String getBoundary(String contentType) {
+        int start = contentType.indexOf(BOUNDARY_PARAM);
+        if (start == -1) {
+            return "";
+        }
+        start += BOUNDARY_PARAM.length();
+        int end = contentType.indexOf(';', start);
+        if (end == -1) {
+            end = contentType.length();
+        }
+        String boundary = contentType.substring(start, end).trim();
+        if (boundary.length() > 1 && boundary.charAt(0) == '"' && boundary.charAt(boundary.length() - 1) == '"') {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary;
     }
 
     /**
-     * Parse our directive using Gson into an object
+     * Parse our directive into an object, see {@link DirectiveDecoder}
      * @param directive the string representation of our JSON object
-     * @return the reflected directive
+     * @return the parsed directive
      */
     public static Directive getDirective(String directive) throws AvsException, IllegalStateException {
         Log.i(TAG, directive);
-        Gson gson = new Gson();
-        Directive.DirectiveWrapper wrapper = gson.fromJson(directive, Directive.DirectiveWrapper.class);
-        if (wrapper.getDirective() == null) {
-            return gson.fromJson(directive, Directive.class);
-        }
-        return wrapper.getDirective();
+        return DirectiveDecoder.decode(directive);
+    }
+
+    /**
+     * Parse our directive straight from the bytes of its multipart body, see {@link DirectiveDecoder}
+     * @param directive the UTF-8 JSON directive, this is consumed
+     * @return the parsed directive
+     */
+    public static Directive getDirective(BufferedSource directive) throws IOException, AvsException, IllegalStateException {
+        return DirectiveDecoder.decode(directive);
     }
 
 
     /**
-     * Get the content id from the return headers from the AVS server
-     * @param headers the return headers from the AVS server
-     * @return a string form of our content id
+     * Check if the response is JSON (a validity check)
+     * @param headers the part headers from the AVS server
+     * @return true if headers state the response is JSON, false otherwise
      */
-    private static String getCID(String headers) throws IOException {
-        final String contentString = "Content-ID:";
-        BufferedReader reader = new BufferedReader(new StringReader(headers));
-        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-            if (line.startsWith(contentString)) {
-                return line.substring(contentString.length()).trim();
+    private static boolean isJson(Headers headers) {
+        String contentType = headers.get("Content-Type");
+        return contentType != null && contentType.contains("application/json");
+    }
+
+    /**
+     * Callback to receive each {@link AvsItem} as soon as it has been parsed from a streamed response
+     */
+    public interface Callback {
+        void onItem(AvsItem item);
+    }
+
+    /**
+     * Turns directives and audio parts into {@link AvsItem}s in directive order. A directive that references an audio part
+     * (Speak, or Play with a cid: url) holds back itself and everything after it until that audio part has been read.
+     * Items are only kept in the response if we're collecting, otherwise they're just handed to the callback.
+     */
+    private static class ItemCollector {
+        private final Callback callback;
+        private final boolean collect;
+        private final AvsResponse response = new AvsResponse();
+        private final LinkedList<Directive> pending = new LinkedList<>();
+        private final HashMap<String, Buffer> audio = new HashMap<>();
+        private int count = 0;
+
+        ItemCollector(@Nullable Callback callback, boolean collect) {
+            this.callback = callback;
+            this.collect = collect;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        void addDirective(Directive directive) throws IOException {
+            InteractionTracer.getInstance().mark(directive.getHeader().getDialogRequestId(), InteractionTracer.Stage.DIRECTIVE_PARSED);
+            pending.add(directive);
+            flush();
+        }
+
+        void addAudio(String cid, Buffer data) throws IOException {
+            audio.put(cid, data);
+            flush();
+        }
+
+        AvsResponse finish() throws IOException {
+            flush();
+            for (Directive directive : pending) {
+                Log.e(TAG, "No audio found for directive: " + directive.getHeader().getName() + " " + getAudioCid(directive));
+            }
+            pending.clear();
+            for (Buffer unused : audio.values()) {
+                unused.clear();
+            }
+            audio.clear();
+            return response;
+        }
+
+        private void flush() throws IOException {
+            while (!pending.isEmpty()) {
+                Directive directive = pending.getFirst();
+                String cid = getAudioCid(directive);
+                if (cid != null && !audio.containsKey(cid)) {
+                    //wait for our audio part to arrive
+                    return;
+                }
+                pending.removeFirst();
+
+                //the callback has already been handed the items before this one, so the list keeps stream order too
+                if(directive.isPlayBehaviorReplaceAll()){
+                    dispatch(new AvsReplaceAllItem(directive.getPayload().getToken()));
+                }
+                if(directive.isPlayBehaviorReplaceEnqueued()){
+                    dispatch(new AvsReplaceEnqueuedItem(directive.getPayload().getToken()));
+                }
+
+                AvsItem item = parseDirective(directive, audio);
+                if (cid != null) {
+                    audio.remove(cid);
+                }
+
+                if(item != null){
+                    dispatch(item);
+                }
+            }
+        }
+
+        private void dispatch(AvsItem item) {
+            count++;
+            if (collect) {
+                response.add(item);
+            }
+            if (callback != null) {
+                callback.onItem(item);
             }
         }
-        return null;
     }
 
     /**
-     * Check if the response is JSON (a validity check)
-     * @param headers the return headers from the AVS server
-     * @return true if headers state the response is JSON, false otherwise
+     * Get the content id of the audio part a directive relies on, if any
+     * @param directive our parsed directive
+     * @return the "cid:" url of the audio part, or null if the directive doesn't reference one
      */
-    private static boolean isJson(String headers) {
-        if (headers.contains("application/json")) {
-            return true;
+    @Nullable
+    private static String getAudioCid(Directive directive) {
+        if (directive.getHeader() == null || directive.getPayload() == null) {
+            return null;
+        }
+        String name = directive.getHeader().getName();
+        if (Directive.TYPE_SPEAK.equals(name)) {
+            return directive.getPayload().getUrl();
         }
-        return false;
+        if (Directive.TYPE_PLAY.equals(name) && directive.getPayload().getAudioItem() != null
+                && directive.getPayload().getAudioItem().getStream() != null) {
+            String url = directive.getPayload().getAudioItem().getStream().getUrl();
+            if (url != null && url.contains("cid:")) {
+                return url;
+            }
+        }
+        return null;
     }
 }
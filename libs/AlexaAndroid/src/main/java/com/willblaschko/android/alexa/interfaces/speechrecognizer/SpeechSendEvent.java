@@ -1,6 +1,9 @@
 package com.willblaschko.android.alexa.interfaces.speechrecognizer;
 
+import com.willblaschko.android.alexa.connection.ClientProfile;
+import com.willblaschko.android.alexa.data.DeviceContextCache;
 import com.willblaschko.android.alexa.data.Event;
+import com.willblaschko.android.alexa.data.EventTemplate;
 import com.willblaschko.android.alexa.interfaces.SendEvent;
 
 import org.jetbrains.annotations.NotNull;
@@ -8,6 +11,8 @@ import org.jetbrains.annotations.NotNull;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 
+import static com.willblaschko.android.alexa.utility.Util.getUuid;
+
 /**
  * Abstract class to extend {@link SendEvent} to automatically add the RequestBody with the correct type
  * and name, as well as the SpeechRecognizer {@link Event}
@@ -16,10 +21,50 @@ import okhttp3.RequestBody;
  */
 public abstract class SpeechSendEvent extends SendEvent {
 
+    private String mDialogRequestId;
+
+    /**
+     * @param dialogRequestId the id of the interaction our next request starts, see {@link Event#createDialogRequestId()}
+     */
+    public void setDialogRequestId(String dialogRequestId) {
+        mDialogRequestId = dialogRequestId;
+    }
+
+    /**
+     * @return the id of our interaction, a new one is created if none was set
+     */
+    @NotNull
+    @Override
+    public String getDialogRequestId() {
+        if (mDialogRequestId == null) {
+            mDialogRequestId = Event.createDialogRequestId();
+        }
+        return mDialogRequestId;
+    }
+
     @NotNull
     @Override
     protected String getEvent() {
-        return Event.getSpeechRecognizerEvent();
+        return Event.getSpeechRecognizerEvent(getDialogRequestId());
+    }
+
+    /**
+     * Our Recognize event is written straight into the request as it's sent, with the device context as it is now
+     */
+    @NotNull
+    @Override
+    protected RequestBody getEventBody() {
+        return EventTemplate.RECOGNIZE.toRequestBody(getUuid(), getDialogRequestId(), null, 0, false,
+                DeviceContextCache.getInstance().getContext());
+    }
+
+    /**
+     * Our call is an interaction, it has the user's whole request and response to get through
+     */
+    @NotNull
+    @Override
+    protected ClientProfile getClientProfile() {
+        return ClientProfile.VOICE;
     }
 
     @Override
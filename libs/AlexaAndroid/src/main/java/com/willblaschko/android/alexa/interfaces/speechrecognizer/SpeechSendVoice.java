@@ -3,18 +3,19 @@ package com.willblaschko.android.alexa.interfaces.speechrecognizer;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.willblaschko.android.alexa.callbacks.AsyncCallback;
 import com.willblaschko.android.alexa.interfaces.AvsException;
 import com.willblaschko.android.alexa.requestbody.DataRequestBody;
+import com.willblaschko.android.alexa.utility.TrafficExecutors;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
 
 import okhttp3.Call;
 import okhttp3.RequestBody;
@@ -68,15 +69,29 @@ public class SpeechSendVoice extends SpeechSendEvent {
 
         mCallback = callback;
         mIsRecording = true;
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                synchronized(mLock) {
-                    prepareConnection(url, accessToken);
+        try {
+            TrafficExecutors.get(TrafficExecutors.Traffic.VOICE_UPLOAD).execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(mLock) {
+                        prepareConnection(url, accessToken);
+                    }
                 }
-                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            //there's no request to record into, give the microphone back and fail this one
+            Log.e(TAG, "Too many " + TrafficExecutors.Traffic.VOICE_UPLOAD + " requests, dropping one", e);
+            mIsRecording = false;
+            synchronized(mLock) {
+                mAudioRecord.release();
+                mAudioRecord = null;
             }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            if(callback != null){
+                callback.failure(e);
+                callback.complete();
+            }
+            return;
+        }
 
         if(buffer != null){
             mOutputStream.write(buffer);
@@ -2,10 +2,12 @@ package com.willblaschko.android.alexa.interfaces.speechsynthesizer;
 
 import com.willblaschko.android.alexa.interfaces.AvsItem;
 
-import org.apache.commons.io.IOUtils;
-
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+
+import okio.Buffer;
+import okio.Source;
 
 /**
  * Directive to play a local, returned audio item from the Alexa post/get response
@@ -13,18 +15,25 @@ import java.io.IOException;
  * {@link com.willblaschko.android.alexa.data.Directive} response item type parsed so we can properly
  * deal with the incoming commands from the Alexa server.
  *
+ * The audio is held in the same segmented {@link Buffer} it was read into from the response, it is shared (not copied)
+ * when read and handed back to the segment pool with {@link #release()} once the player is done with the item.
+ *
  * @author will on 5/21/2016.
  */
 public class AvsSpeakItem extends AvsItem {
     private String mCid;
-    private byte[] mAudio;
+    private Buffer mAudio;
 
     public AvsSpeakItem(String token, String cid, ByteArrayInputStream audio) throws IOException {
-        this(token, cid, IOUtils.toByteArray(audio));
+        this(token, cid, new Buffer().readFrom(audio));
         audio.close();
     }
 
     public AvsSpeakItem(String token, String cid, byte[] audio){
+        this(token, cid, new Buffer().write(audio));
+    }
+
+    public AvsSpeakItem(String token, String cid, Buffer audio){
         super(token);
         mCid = cid;
         mAudio = audio;
@@ -34,7 +43,44 @@ public class AvsSpeakItem extends AvsItem {
         return mCid;
     }
 
+    /**
+     * @return a copy of our audio data
+     * @deprecated this copies the whole of the audio on every call, use {@link #getAudioSource()} or
+     * {@link #writeAudioTo(OutputStream)}, which don't
+     */
+    @Deprecated
     public byte[] getAudio() {
-        return mAudio;
+        return mAudio.clone().readByteArray();
+    }
+
+    /**
+     * @return a new source over our audio data, this shares the underlying segments and can be read any number of times
+     */
+    public Source getAudioSource() {
+        return mAudio.clone();
+    }
+
+    /**
+     * Write our audio data to an output stream without consuming it
+     * @param out the stream we're writing to
+     * @throws IOException
+     */
+    public void writeAudioTo(OutputStream out) throws IOException {
+        mAudio.copyTo(out);
+    }
+
+    /**
+     * @return the size of our audio data in bytes
+     */
+    public long getAudioLength() {
+        return mAudio.size();
+    }
+
+    /**
+     * Release our audio data back to the segment pool, this is called by the {@link com.willblaschko.android.alexa.audioplayer.AlexaAudioPlayer}
+     * once it's done with the item: it finished playing, was stopped or skipped, or failed. The item has no audio afterwards.
+     */
+    public void release() {
+        mAudio.clear();
     }
 }
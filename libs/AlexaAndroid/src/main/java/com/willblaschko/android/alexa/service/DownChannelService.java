@@ -2,33 +2,28 @@ package com.willblaschko.android.alexa.service;
 
 import android.app.Service;
 import android.content.Intent;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.willblaschko.android.alexa.AlexaManager;
 import com.willblaschko.android.alexa.TokenManager;
 import com.willblaschko.android.alexa.callbacks.ImplAsyncCallback;
+import com.willblaschko.android.alexa.connection.ClientProfile;
 import com.willblaschko.android.alexa.connection.ClientUtil;
-import com.willblaschko.android.alexa.data.Directive;
+import com.willblaschko.android.alexa.connection.DownChannel;
+import com.willblaschko.android.alexa.connection.Heartbeat;
 import com.willblaschko.android.alexa.data.Event;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsItemListener;
+import com.willblaschko.android.alexa.interfaces.AvsItemListenerList;
 import com.willblaschko.android.alexa.interfaces.AvsResponse;
-import com.willblaschko.android.alexa.interfaces.response.ResponseParser;
 import com.willblaschko.android.alexa.system.AndroidSystemHandler;
 
-import org.greenrobot.eventbus.EventBus;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import java.io.IOException;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.Response;
-import okio.BufferedSource;
 
 /**
  * @author will on 4/27/2016.
@@ -37,10 +32,62 @@ public class DownChannelService extends Service {
 
     private static final String TAG = "DownChannelService";
 
+    private static final AvsItemListenerList itemListeners = new AvsItemListenerList();
+    private static final List<DownChannel.StateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private static volatile DownChannel currentChannel;
+
     private AlexaManager alexaManager;
-    private Call currentCall;
+    private DownChannel downChannel;
     private AndroidSystemHandler handler;
 
+    private final AvsItemListener systemListener = new AvsItemListener() {
+        @Override
+        public void onAvsItem(AvsItem item) {
+            handler.handleItem(item);
+        }
+    };
+
+    /**
+     * Listen for items coming down the downchannel, listeners are called on the downchannel thread, in the order they
+     * were added, after the {@link AndroidSystemHandler} has handled the item
+     * @param listener our listener, remember to remove it when it's no longer needed
+     */
+    public static void addItemListener(AvsItemListener listener) {
+        itemListeners.add(listener);
+    }
+
+    public static void removeItemListener(AvsItemListener listener) {
+        itemListeners.remove(listener);
+    }
+
+    /**
+     * Listen for changes to our downchannel connection, e.g. to alert on a climbing {@link DownChannel#getReconnectCount()}.
+     * Listeners are called on the downchannel threads.
+     */
+    public static void addStateListener(DownChannel.StateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    public static void removeStateListener(DownChannel.StateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * @return the state of the current downchannel, {@link DownChannel.State#DISCONNECTED} if the service isn't running
+     */
+    public static DownChannel.State getConnectionState() {
+        DownChannel channel = currentChannel;
+        return channel != null ? channel.getState() : DownChannel.State.DISCONNECTED;
+    }
+
+    /**
+     * @return how many times the current downchannel has had to reconnect since the service started
+     */
+    public static int getReconnectCount() {
+        DownChannel channel = currentChannel;
+        return channel != null ? channel.getReconnectCount() : 0;
+    }
+
 
     @Nullable
     @Override
@@ -55,6 +102,7 @@ public class DownChannelService extends Service {
         Log.i(TAG, "Launched");
         alexaManager = AlexaManager.getInstance(this);
         handler = AndroidSystemHandler.getInstance(this);
+        itemListeners.add(systemListener);
 
         openDownChannel();
 
@@ -64,113 +112,84 @@ public class DownChannelService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if(currentCall != null){
-            currentCall.cancel();
+        itemListeners.remove(systemListener);
+        ClientUtil.stopHeartbeat();
+        if(downChannel != null){
+            downChannel.stop();
+            if(currentChannel == downChannel){
+                currentChannel = null;
+            }
         }
     }
 
 
     private void openDownChannel(){
-        TokenManager.getAccessToken(alexaManager.getAuthorizationManager().getAmazonAuthorizationManager(), DownChannelService.this, new TokenManager.TokenCallback() {
-            @Override
-            public void onSuccess(String token) {
-
-                OkHttpClient downChannelClient = ClientUtil.getTLS12OkHttpClient();
-
-                final Request request = new Request.Builder()
-                        .url(alexaManager.getDirectivesUrl())
-                        .get()
-                        .addHeader("Authorization", "Bearer " + token)
-                        .build();
-
-                currentCall = downChannelClient.newCall(request);
-                currentCall.enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-
-                    }
+        //the downchannel's read timeout reconnects a stream that's gone silent for too long
+        downChannel = new DownChannel(ClientUtil.getClient(ClientProfile.DOWNCHANNEL), getRequestFactory(false), channelListener);
+        currentChannel = downChannel;
+        downChannel.start();
+    }
 
+    private final DownChannel.Listener channelListener = new DownChannel.Listener() {
+        @Override
+        public void onStateChanged(DownChannel channel, DownChannel.State state) {
+            if (state == DownChannel.State.CONNECTED) {
+                //catch up on anything we missed while we were disconnected
+                alexaManager.sendEvent(Event.getSynchronizeStateEvent(), new ImplAsyncCallback<AvsResponse, Exception>() {
                     @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-
-                        alexaManager.sendEvent(Event.getSynchronizeStateEvent(), new ImplAsyncCallback<AvsResponse, Exception>() {
-                            @Override
-                            public void success(AvsResponse result) {
-                                handler.handleItems(result);
-                                sendHeartbeat();
-                            }
-                        });
-
-                        BufferedSource bufferedSource = response.body().source();
-
-                        while (!bufferedSource.exhausted()) {
-                            String line = bufferedSource.readUtf8Line();
-                            try {
-                                Directive directive = ResponseParser.getDirective(line);
-                                handler.handleDirective(directive);
-
-                                //surface to our UI if it's up
-                                try {
-                                    AvsItem item = ResponseParser.parseDirective(directive);
-                                    EventBus.getDefault().post(item);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Bad line");
-                            }
-                        }
-
+                    public void success(AvsResponse result) {
+                        handler.handleItems(result);
                     }
                 });
-
+                //only ever starts one, no matter how many times we reconnect
+                ClientUtil.startHeartbeat(getRequestFactory(true), heartbeatListener);
             }
-
-            @Override
-            public void onFailure(Throwable e) {
-                e.printStackTrace();
+            for (DownChannel.StateListener listener : stateListeners) {
+                listener.onStateChanged(channel, state);
             }
-        });
-    }
+        }
 
-    private void sendHeartbeat(){
-        TokenManager.getAccessToken(alexaManager.getAuthorizationManager().getAmazonAuthorizationManager(), DownChannelService.this, new TokenManager.TokenCallback() {
+        @Override
+        public void onAvsItem(AvsItem item) {
+            //the system handler, our UI if it's up, and anyone else listening
+            itemListeners.dispatch(item);
+        }
+    };
+
+    private final Heartbeat.Listener heartbeatListener = new Heartbeat.Listener() {
+        @Override
+        public void onPingFailed(Throwable e) {
+            //our connection is most likely gone, don't wait for the downchannel to notice
+            if (downChannel != null) {
+                downChannel.reconnect();
+            }
+        }
+    };
+
+    /**
+     * Build authorized GET requests, getting (or refreshing) our token for each one
+     * @param ping true for our ping url, false for our downchannel url
+     */
+    private DownChannel.RequestFactory getRequestFactory(final boolean ping){
+        return new DownChannel.RequestFactory() {
             @Override
-            public void onSuccess(String token) {
-
-                Log.i(TAG, "Sending heartbeat");
-                final Request request = new Request.Builder()
-                        .url(alexaManager.getPingUrl())
-                        .get()
-                        .addHeader("Authorization", "Bearer " + token)
-                        .build();
-
-                ClientUtil.getTLS12OkHttpClient()
-                        .newCall(request)
-                        .enqueue(new Callback() {
-                            @Override
-                            public void onFailure(Call call, IOException e) {
-
-                            }
-
-                            @Override
-                            public void onResponse(Call call, Response response) throws IOException {
-
-                            }
-                        });
-
-                new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            public void newRequest(final DownChannel.RequestCallback callback) {
+                TokenManager.getAccessToken(alexaManager.getAuthorizationManager().getAmazonAuthorizationManager(), DownChannelService.this, new TokenManager.TokenCallback() {
                     @Override
-                    public void run() {
-                        sendHeartbeat();
+                    public void onSuccess(String token) {
+                        callback.onRequest(new Request.Builder()
+                                .url(ping ? alexaManager.getPingUrl() : alexaManager.getDirectivesUrl())
+                                .get()
+                                .addHeader("Authorization", "Bearer " + token)
+                                .build());
                     }
-                }, 4 * 60 * 1000);
-            }
-
-            @Override
-            public void onFailure(Throwable e) {
 
+                    @Override
+                    public void onFailure(Throwable e) {
+                        callback.onFailure(e);
+                    }
+                });
             }
-        });
+        };
     }
 }
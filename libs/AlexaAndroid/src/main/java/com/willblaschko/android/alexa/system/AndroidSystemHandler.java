@@ -14,9 +14,11 @@ import android.widget.Toast;
 
 import com.willblaschko.android.alexa.AlexaManager;
 import com.willblaschko.android.alexa.callbacks.ImplAsyncCallback;
+import com.willblaschko.android.alexa.data.DeviceContextCache;
 import com.willblaschko.android.alexa.data.Directive;
 import com.willblaschko.android.alexa.data.Event;
 import com.willblaschko.android.alexa.interfaces.AvsItem;
+import com.willblaschko.android.alexa.interfaces.AvsItemDispatcher;
 import com.willblaschko.android.alexa.interfaces.AvsResponse;
 import com.willblaschko.android.alexa.interfaces.alerts.AvsDeleteAlertItem;
 import com.willblaschko.android.alexa.interfaces.alerts.AvsSetAlertItem;
@@ -44,8 +46,14 @@ public class AndroidSystemHandler {
     private static final String TAG = "AndroidSystemHandler";
     private static AndroidSystemHandler instance;
     private Context context;
+    private final AvsItemDispatcher dispatcher = new AvsItemDispatcher();
     private AndroidSystemHandler(Context context){
         this.context = context.getApplicationContext();
+        registerHandlers();
+
+        //start our device context off with the volume we have now
+        AudioManager am = (AudioManager) this.context.getSystemService(AUDIO_SERVICE);
+        DeviceContextCache.getInstance().setVolumeState(getVolumePercent(am), false);
     }
     public static AndroidSystemHandler getInstance(Context context){
         if(instance == null){
@@ -55,50 +63,100 @@ public class AndroidSystemHandler {
     }
     public void handleItems(@NonNull AvsResponse response){
         for(AvsItem current: response){
+            handleItem(current);
+        }
+    }
 
-            Log.i(TAG, "Handling AvsItem: " + current.getClass());
-            if(current instanceof AvsSetEndpointItem){
-                Log.i(TAG, "Setting URL endpoint: " + ((AvsSetEndpointItem) current).getEndpoint());
+    /**
+     * Get our item dispatcher, apps can register their own system level handlers here, items without a handler are ignored
+     */
+    public AvsItemDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    private void registerHandlers(){
+        dispatcher.register(AvsSetEndpointItem.class, new AvsItemDispatcher.Handler<AvsSetEndpointItem>() {
+            @Override
+            public void handle(AvsSetEndpointItem item) {
+                Log.i(TAG, "Setting URL endpoint: " + item.getEndpoint());
                 AlexaManager.getInstance(context)
-                        .setUrlEndpoint(((AvsSetEndpointItem) current).getEndpoint());
+                        .setUrlEndpoint(item.getEndpoint());
 
                 context.stopService(new Intent(context, DownChannelService.class));
                 context.startService(new Intent(context, DownChannelService.class));
-            }else if (current instanceof AvsSetVolumeItem) {
+            }
+        });
+        dispatcher.register(AvsSetVolumeItem.class, new AvsItemDispatcher.Handler<AvsSetVolumeItem>() {
+            @Override
+            public void handle(AvsSetVolumeItem item) {
                 //set our volume
-                setVolume(((AvsSetVolumeItem) current).getVolume());
-            } else if(current instanceof AvsAdjustVolumeItem){
+                setVolume(item.getVolume());
+            }
+        });
+        dispatcher.register(AvsAdjustVolumeItem.class, new AvsItemDispatcher.Handler<AvsAdjustVolumeItem>() {
+            @Override
+            public void handle(AvsAdjustVolumeItem item) {
                 //adjust the volume
-                adjustVolume(((AvsAdjustVolumeItem) current).getAdjustment());
-            } else if(current instanceof AvsSetMuteItem){
+                adjustVolume(item.getAdjustment());
+            }
+        });
+        dispatcher.register(AvsSetMuteItem.class, new AvsItemDispatcher.Handler<AvsSetMuteItem>() {
+            @Override
+            public void handle(AvsSetMuteItem item) {
                 //mute/unmute the device
-                setMute(((AvsSetMuteItem) current).isMute());
-            }else if(current instanceof AvsMediaPlayCommandItem){
+                setMute(item.isMute());
+            }
+        });
+        dispatcher.register(AvsMediaPlayCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPlayCommandItem>() {
+            @Override
+            public void handle(AvsMediaPlayCommandItem item) {
                 //fake a hardware "play" press
                 sendMediaButton(KeyEvent.KEYCODE_MEDIA_PLAY);
                 Log.i(TAG, "Media play command issued");
-            }else if(current instanceof AvsMediaPauseCommandItem){
+            }
+        });
+        dispatcher.register(AvsMediaPauseCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPauseCommandItem>() {
+            @Override
+            public void handle(AvsMediaPauseCommandItem item) {
                 //fake a hardware "pause" press
                 sendMediaButton(KeyEvent.KEYCODE_MEDIA_PAUSE);
                 Log.i(TAG, "Media pause command issued");
-            }else if(current instanceof AvsMediaNextCommandItem){
+            }
+        });
+        dispatcher.register(AvsMediaNextCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaNextCommandItem>() {
+            @Override
+            public void handle(AvsMediaNextCommandItem item) {
                 //fake a hardware "next" press
                 sendMediaButton(KeyEvent.KEYCODE_MEDIA_NEXT);
                 Log.i(TAG, "Media next command issued");
-            }else if(current instanceof AvsMediaPreviousCommandItem){
+            }
+        });
+        dispatcher.register(AvsMediaPreviousCommandItem.class, new AvsItemDispatcher.Handler<AvsMediaPreviousCommandItem>() {
+            @Override
+            public void handle(AvsMediaPreviousCommandItem item) {
                 //fake a hardware "previous" press
                 sendMediaButton(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
                 Log.i(TAG, "Media previous command issued");
-            }else if (current instanceof AvsSetAlertItem){
-                if(((AvsSetAlertItem) current).isAlarm()){
-                    setAlarm((AvsSetAlertItem) current);
-                }else if(((AvsSetAlertItem) current).isTimer()){
-                    setTimer((AvsSetAlertItem) current);
+            }
+        });
+        dispatcher.register(AvsSetAlertItem.class, new AvsItemDispatcher.Handler<AvsSetAlertItem>() {
+            @Override
+            public void handle(AvsSetAlertItem item) {
+                if(item.isAlarm()){
+                    setAlarm(item);
+                }else if(item.isTimer()){
+                    setTimer(item);
                 }
-            }else if (current instanceof AvsDeleteAlertItem){
-
             }
-        }
+        });
+        dispatcher.register(AvsDeleteAlertItem.class, new AvsItemDispatcher.Handler<AvsDeleteAlertItem>() {
+            @Override
+            public void handle(AvsDeleteAlertItem item) {
+                //the system clock keeps its alarm, but we no longer report it
+                DeviceContextCache.getInstance().removeAlert(item.getToken());
+                Log.i(TAG, "Alert deleted: " + item.getToken());
+            }
+        });
     }
 
 
@@ -114,9 +172,8 @@ public class AndroidSystemHandler {
         if(item == null){
             return;
         }
-        AvsResponse response = new AvsResponse();
-        response.add(item);
-        handleItems(response);
+        Log.i(TAG, "Handling AvsItem: " + item.getClass());
+        dispatcher.dispatch(item);
     }
 
     private void setTimer(final AvsSetAlertItem item){
@@ -126,6 +183,7 @@ public class AndroidSystemHandler {
             i.putExtra(AlarmClock.EXTRA_LENGTH, time);
             i.putExtra(AlarmClock.EXTRA_SKIP_UI, true);
             context.startActivity(i);
+            DeviceContextCache.getInstance().setAlert(item.getToken(), item.getType(), item.getScheduledTime());
             AlexaManager.getInstance(context)
                     .sendEvent(Event.getSetAlertSucceededEvent(item.getToken()), null);
 
@@ -134,10 +192,13 @@ public class AndroidSystemHandler {
             new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
                 @Override
                 public void run() {
+                    DeviceContextCache.getInstance().setAlertActive(item.getToken(), true);
                     AlexaManager.getInstance(context)
                             .sendEvent(Event.getAlertStartedEvent(item.getToken()), new ImplAsyncCallback<AvsResponse, Exception>() {
                                 @Override
                                 public void complete() {
+                                    //the timer is done, it's no longer one of our alerts
+                                    DeviceContextCache.getInstance().removeAlert(item.getToken());
                                     AlexaManager.getInstance(context)
                                             .sendEvent(Event.getAlertStoppedEvent(item.getToken()), null);
                                 }
@@ -156,6 +217,7 @@ public class AndroidSystemHandler {
             i.putExtra(AlarmClock.EXTRA_MINUTES, item.getMinutes());
             i.putExtra(AlarmClock.EXTRA_SKIP_UI, true);
             context.startActivity(i);
+            DeviceContextCache.getInstance().setAlert(item.getToken(), item.getType(), item.getScheduledTime());
             AlexaManager.getInstance(context)
                     .sendEvent(Event.getSetAlertSucceededEvent(item.getToken()), null);
 
@@ -191,6 +253,7 @@ public class AndroidSystemHandler {
             vol = volume * max / 100;
         }
         am.setStreamVolume(AudioManager.STREAM_MUSIC, (int) vol, AudioManager.FLAG_VIBRATE);
+        DeviceContextCache.getInstance().setVolumeState(getVolumePercent(am), vol == 0);
 
         AlexaManager.getInstance(context).sendVolumeChangedEvent(volume, vol == 0, null);
 
@@ -205,9 +268,18 @@ public class AndroidSystemHandler {
             }
         });
     }
+    /**
+     * @return the music stream volume, 0-100 as AVS reports it
+     */
+    private static long getVolumePercent(AudioManager am){
+        int max = am.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+        return max == 0 ? 0 : (long) am.getStreamVolume(AudioManager.STREAM_MUSIC) * 100 / max;
+    }
+
     private void setMute(final boolean isMute){
         AudioManager am = (AudioManager) context.getSystemService(AUDIO_SERVICE);
         am.setStreamMute(AudioManager.STREAM_MUSIC, isMute);
+        DeviceContextCache.getInstance().setVolumeState(getVolumePercent(am), isMute);
 
         AlexaManager.getInstance(context).sendMutedEvent(isMute, null);
 
@@ -0,0 +1,203 @@
+package com.willblaschko.android.alexa.utility;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named thread pool with a bounded queue that keeps track of how it's keeping up: how deep its queue gets, how long
+ * tasks wait before they run, and how many it has had to reject.
+ *
+ * Created from a {@link Config}, see {@link TrafficExecutors} for the ones the library uses.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+
+    private final String mName;
+
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    public BoundedExecutor(final String name, final Config config) {
+        super(config.mCoreThreads, config.mMaxThreads, config.mKeepAliveMillis, TimeUnit.MILLISECONDS,
+                createQueue(config.mQueueCapacity), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + "-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(config.mThreadPriority);
+                        return thread;
+                    }
+                });
+        mName = name;
+        final RejectedExecutionHandler rejectionPolicy = config.mRejectionPolicy;
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                mRejected.incrementAndGet();
+                rejectionPolicy.rejectedExecution(r, executor);
+            }
+        });
+        if (config.mKeepAliveMillis > 0) {
+            allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new Timed(command));
+        int depth = getQueue().size();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get()) && !mMaxQueueDepth.compareAndSet(max, depth)) {
+            //another thread raised it first, try again
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the tasks waiting for a thread right now
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the most tasks we've had waiting at once
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return the average time tasks have waited for a thread
+     */
+    public long getMeanWaitMillis() {
+        long started = mStarted.get();
+        return started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mWaitNanos.get() / started);
+    }
+
+    /**
+     * @return the longest a task has waited for a thread
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos.get());
+    }
+
+    /**
+     * @return the tasks we had no room for, and handed to our rejection policy
+     */
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return mName + "[threads=" + getPoolSize() + ", active=" + getActiveCount() + ", queued=" + getQueueDepth()
+                + ", maxQueued=" + getMaxQueueDepth() + ", meanWait=" + getMeanWaitMillis() + "ms, maxWait="
+                + getMaxWaitMillis() + "ms, completed=" + getCompletedTaskCount() + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    private static BlockingQueue<Runnable> createQueue(int capacity) {
+        if (capacity == 0) {
+            return new SynchronousQueue<>();
+        } else if (capacity == Integer.MAX_VALUE) {
+            return new LinkedBlockingQueue<>();
+        }
+        return new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Records how long its task waited for a thread
+     */
+    private class Timed implements Runnable {
+
+        private final Runnable mTask;
+        private final long mQueuedAt = System.nanoTime();
+
+        Timed(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            long wait = System.nanoTime() - mQueuedAt;
+            mWaitNanos.addAndGet(wait);
+            mStarted.incrementAndGet();
+            long max;
+            while (wait > (max = mMaxWaitNanos.get()) && !mMaxWaitNanos.compareAndSet(max, wait)) {
+                //another thread raised it first, try again
+            }
+            mTask.run();
+        }
+    }
+
+    /**
+     * The shape of a {@link BoundedExecutor}
+     */
+    public static class Config {
+
+        private int mCoreThreads = 1;
+        private int mMaxThreads = 1;
+        private int mQueueCapacity = 16;
+        private long mKeepAliveMillis = 30 * 1000;
+        private int mThreadPriority = Thread.NORM_PRIORITY;
+        private RejectedExecutionHandler mRejectionPolicy = new AbortPolicy();
+
+        /**
+         * @param core threads kept while there's work, they're let go after the keep alive
+         * @param max threads we grow to once the queue is full
+         */
+        public Config setThreads(int core, int max) {
+            mCoreThreads = core;
+            mMaxThreads = Math.max(core, max);
+            return this;
+        }
+
+        /**
+         * @param capacity tasks that can wait for a thread, 0 to hand every task straight to a thread
+         */
+        public Config setQueueCapacity(int capacity) {
+            mQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param keepAlive how long an idle thread is kept around, 0 to keep the core threads forever
+         */
+        public Config setKeepAlive(long keepAlive, TimeUnit unit) {
+            mKeepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * @param priority a {@link Thread} priority, from {@link Thread#MIN_PRIORITY} to {@link Thread#MAX_PRIORITY}
+         */
+        public Config setThreadPriority(int priority) {
+            mThreadPriority = priority;
+            return this;
+        }
+
+        /**
+         * @param policy what to do with a task when the threads and queue are full, such as {@link AbortPolicy},
+         *               {@link CallerRunsPolicy} or {@link DiscardOldestPolicy}
+         */
+        public Config setRejectionPolicy(RejectedExecutionHandler policy) {
+            mRejectionPolicy = policy;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.willblaschko.android.alexa.utility;
+
+import android.util.Log;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records when each stage of a voice interaction happens, from checking that the user is logged in to the end of the
+ * interaction, keyed by the dialogRequestId of its Recognize event. The server sends that id back with every directive
+ * of the response, so the parser and player can mark their stages without being handed the trace.
+ *
+ * Finished traces are handed to our {@link Listener}s and kept in a ring of the most recent ones, see
+ * {@link #getRecentTraces()} and {@link #getPercentileMillis(Stage, double)}.
+ */
+public class InteractionTracer {
+
+    private static final String TAG = "InteractionTracer";
+
+    /**
+     * The stages of an interaction, in the order they usually happen
+     */
+    public enum Stage {
+        CHECK_LOGGED_IN,
+        TOKEN_FETCHED,
+        CONNECTION_ACQUIRED,
+        REQUEST_HEADERS_SENT,
+        AUDIO_UPLOADED,
+        FIRST_RESPONSE_BYTE,
+        /**
+         * Marked for every directive in the response, {@link Trace#getMillis(Stage)} is the first one
+         */
+        DIRECTIVE_PARSED,
+        FIRST_AUDIO_PLAYED,
+        FINISHED
+    }
+
+    /**
+     * Told about each trace once it's finished, on the thread that finished it
+     */
+    public interface Listener {
+        void onTraceFinished(Trace trace);
+    }
+
+    public static final int DEFAULT_CAPACITY = 64;
+    //traces that are never finished (the app never played the response) are let go after this
+    private static final long ABANDONED_MILLIS = 2 * 60 * 1000;
+
+    private static InteractionTracer mInstance;
+
+    private final Map<String, Trace> mActive = new ConcurrentHashMap<>();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    //guarded by this
+    private Trace[] mRing;
+    private int mNext = 0;
+    private int mCount = 0;
+
+    public InteractionTracer(int capacity) {
+        mRing = new Trace[capacity];
+    }
+
+    public static synchronized InteractionTracer getInstance() {
+        if (mInstance == null) {
+            mInstance = new InteractionTracer(DEFAULT_CAPACITY);
+        }
+        return mInstance;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Start timing an interaction, its stages are measured from now
+     * @param dialogRequestId the dialogRequestId of the interaction's Recognize event
+     * @return the new trace
+     */
+    public Trace start(String dialogRequestId) {
+        abandonStale();
+        Trace trace = new Trace(dialogRequestId);
+        mActive.put(dialogRequestId, trace);
+        return trace;
+    }
+
+    /**
+     * @return the trace of the interaction if it's still running, otherwise null
+     */
+    @Nullable
+    public Trace get(@Nullable String dialogRequestId) {
+        return dialogRequestId == null ? null : mActive.get(dialogRequestId);
+    }
+
+    /**
+     * Record that an interaction reached a stage, this does nothing if it isn't being traced (or the id is null, as it
+     * is for directives that aren't part of an interaction)
+     */
+    public void mark(@Nullable String dialogRequestId, Stage stage) {
+        Trace trace = get(dialogRequestId);
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    /**
+     * The interaction is over, it's marked {@link Stage#FINISHED} and handed to our listeners
+     */
+    public void finish(@Nullable String dialogRequestId) {
+        Trace trace = dialogRequestId == null ? null : mActive.remove(dialogRequestId);
+        if (trace != null) {
+            trace.mark(Stage.FINISHED);
+            record(trace);
+        }
+    }
+
+    /**
+     * The interaction failed, it's handed to our listeners without reaching {@link Stage#FINISHED}
+     */
+    public void fail(@Nullable String dialogRequestId, Throwable error) {
+        Trace trace = dialogRequestId == null ? null : mActive.remove(dialogRequestId);
+        if (trace != null) {
+            trace.fail(error);
+            record(trace);
+        }
+    }
+
+    /**
+     * @return the most recently finished (or failed) traces, oldest first
+     */
+    public synchronized List<Trace> getRecentTraces() {
+        List<Trace> traces = new ArrayList<>(mCount);
+        int first = (mNext - mCount + mRing.length) % mRing.length;
+        for (int i = 0; i < mCount; i++) {
+            traces.add(mRing[(first + i) % mRing.length]);
+        }
+        return traces;
+    }
+
+    /**
+     * @param stage the stage to measure
+     * @param percentile 0-1, 0.5 for the median
+     * @return how long after the start of the recent interactions they reached this stage, -1 if none of them have
+     */
+    public long getPercentileMillis(Stage stage, double percentile) {
+        List<Trace> traces = getRecentTraces();
+        long[] millis = new long[traces.size()];
+        int count = 0;
+        for (Trace trace : traces) {
+            long value = trace.getMillis(stage);
+            if (value >= 0) {
+                millis[count++] = value;
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        Arrays.sort(millis, 0, count);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return millis[Math.min(count - 1, Math.max(0, index))];
+    }
+
+    private void record(Trace trace) {
+        synchronized (this) {
+            mRing[mNext] = trace;
+            mNext = (mNext + 1) % mRing.length;
+            mCount = Math.min(mCount + 1, mRing.length);
+        }
+        Log.i(TAG, trace.toString());
+        for (Listener listener : mListeners) {
+            listener.onTraceFinished(trace);
+        }
+    }
+
+    private void abandonStale() {
+        Iterator<Trace> iterator = mActive.values().iterator();
+        while (iterator.hasNext()) {
+            Trace trace = iterator.next();
+            if (trace.getAgeMillis() > ABANDONED_MILLIS) {
+                iterator.remove();
+                record(trace);
+            }
+        }
+    }
+
+    /**
+     * The stages of a single interaction, as milliseconds since it started
+     */
+    public static class Trace {
+
+        private final String mDialogRequestId;
+        private final long mStartTime = System.currentTimeMillis();
+        private final long mStartNanos = System.nanoTime();
+
+        //guarded by this
+        private final long[] mStages = new long[Stage.values().length];
+        private long[] mDirectives = new long[4];
+        private int mDirectiveCount = 0;
+        private Throwable mError;
+        private Boolean mConnectionReused;
+
+        Trace(String dialogRequestId) {
+            mDialogRequestId = dialogRequestId;
+            Arrays.fill(mStages, -1);
+        }
+
+        public String getDialogRequestId() {
+            return mDialogRequestId;
+        }
+
+        /**
+         * @return the wall clock time the interaction started at
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /**
+         * @return how long after the start we reached this stage, -1 if we didn't
+         */
+        public synchronized long getMillis(Stage stage) {
+            long nanos = mStages[stage.ordinal()];
+            return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * @return when each directive of the response was parsed, in order
+         */
+        public synchronized long[] getDirectiveMillis() {
+            long[] millis = new long[mDirectiveCount];
+            for (int i = 0; i < mDirectiveCount; i++) {
+                millis[i] = TimeUnit.NANOSECONDS.toMillis(mDirectives[i]);
+            }
+            return millis;
+        }
+
+        /**
+         * @return true if the interaction made it to the end without failing
+         */
+        public synchronized boolean isFinished() {
+            return mStages[Stage.FINISHED.ordinal()] >= 0;
+        }
+
+        /**
+         * @return why the interaction failed, or null if it didn't
+         */
+        @Nullable
+        public synchronized Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * @return whether the Recognize event went out on a connection that was already open, null if we don't know
+         */
+        @Nullable
+        public synchronized Boolean isConnectionReused() {
+            return mConnectionReused;
+        }
+
+        /**
+         * Set by {@link com.willblaschko.android.alexa.connection.ConnectionManager}, a retried request keeps the first
+         */
+        public synchronized void setConnectionReused(boolean reused) {
+            if (mConnectionReused == null) {
+                mConnectionReused = reused;
+            }
+        }
+
+        synchronized void mark(Stage stage) {
+            long nanos = System.nanoTime() - mStartNanos;
+            if (stage == Stage.DIRECTIVE_PARSED) {
+                if (mDirectiveCount == mDirectives.length) {
+                    mDirectives = Arrays.copyOf(mDirectives, mDirectiveCount * 2);
+                }
+                mDirectives[mDirectiveCount++] = nanos;
+            }
+            //stages that can happen more than once (a retried upload, each directive) keep the first time
+            if (mStages[stage.ordinal()] < 0) {
+                mStages[stage.ordinal()] = nanos;
+            }
+        }
+
+        synchronized void fail(Throwable error) {
+            mError = error;
+        }
+
+        long getAgeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder(mDialogRequestId).append('[');
+            boolean first = true;
+            for (Stage stage : Stage.values()) {
+                long millis = getMillis(stage);
+                if (millis < 0) {
+                    continue;
+                }
+                if (!first) {
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append(stage).append('=').append(millis).append("ms");
+            }
+            if (mConnectionReused != null) {
+                builder.append(mConnectionReused ? ", reused connection" : ", new connection");
+            }
+            if (mDirectiveCount > 1) {
+                builder.append(", directives=").append(Arrays.toString(getDirectiveMillis()));
+            }
+            if (mError != null) {
+                builder.append(", error=").append(mError);
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.willblaschko.android.alexa.utility;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small key-value store for our auth and endpoint state, kept in memory and written to a JSON file in the background.
+ *
+ * The file is read the first time a value is needed (or ahead of time, with {@link #preload()}). Edits change the
+ * in-memory values straight away and schedule a write, edits made while a write is waiting are written together with it.
+ * Each write goes to a temporary file that's synced and then renamed over the last one, so a crash mid-write leaves the
+ * last complete file in place.
+ *
+ * Nothing here needs Android, so the same store works in plain JVM tests, it logs through java.util.logging, which
+ * Android sends to logcat.
+ */
+public class PreferenceStore {
+
+    private static final String TAG = "PreferenceStore";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Logger LOG = Logger.getLogger(TAG);
+
+    private final File mFile;
+    private final File mTempFile;
+    private final ExecutorService mWriter;
+
+    //guarded by this
+    private Map<String, String> mValues;
+    private boolean mWritePending = false;
+    private Future<?> mLastWrite;
+
+    /**
+     * @param file where our values are kept, its directory has to exist
+     */
+    public PreferenceStore(File file) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+        mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Read our file in the background now, so it's in memory by the time a value is needed
+     */
+    public void preload() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    @Nullable
+    public String getString(String key, @Nullable String defaultValue) {
+        String value = load().get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = load().get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean contains(String key) {
+        return load().containsKey(key);
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Block until everything that's been applied so far is on disk
+     */
+    public void flush() {
+        Future<?> write;
+        synchronized (this) {
+            write = mLastWrite;
+        }
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Waiting on our write failed", e);
+        }
+    }
+
+    /**
+     * @return our values, read from our file the first time
+     */
+    private synchronized Map<String, String> load() {
+        if (mValues == null) {
+            mValues = read();
+        }
+        return mValues;
+    }
+
+    private Map<String, String> read() {
+        Map<String, String> values = new HashMap<>();
+        //a temp file left behind was never renamed into place, so it may be incomplete
+        if (mTempFile.exists() && !mTempFile.delete()) {
+            LOG.warning("Couldn't delete " + mTempFile);
+        }
+        if (!mFile.exists()) {
+            return values;
+        }
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new InputStreamReader(new FileInputStream(mFile), UTF_8));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    values.put(key, reader.nextString());
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            LOG.log(Level.SEVERE, "Couldn't read " + mFile + ", starting empty", e);
+            values.clear();
+        } finally {
+            closeQuietly(reader);
+        }
+        return values;
+    }
+
+    /**
+     * Schedule a write of our values, unless there's one waiting that will pick up this change too
+     */
+    private synchronized void scheduleWrite() {
+        if (mWritePending) {
+            return;
+        }
+        mWritePending = true;
+        mLastWrite = mWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, String> snapshot;
+                synchronized (PreferenceStore.this) {
+                    mWritePending = false;
+                    snapshot = new TreeMap<>(mValues);
+                }
+                try {
+                    write(snapshot);
+                } catch (IOException e) {
+                    LOG.log(Level.SEVERE, "Couldn't write " + mFile, e);
+                }
+            }
+        });
+    }
+
+    private void write(Map<String, String> values) throws IOException {
+        FileOutputStream out = new FileOutputStream(mTempFile);
+        JsonWriter writer = null;
+        try {
+            writer = new JsonWriter(new OutputStreamWriter(out, UTF_8));
+            writer.beginObject();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue());
+            }
+            writer.endObject();
+            writer.flush();
+            //make sure it's on disk before it replaces the last good file
+            out.getFD().sync();
+        } finally {
+            if (writer != null) {
+                closeQuietly(writer);
+            } else {
+                closeQuietly(out);
+            }
+        }
+        if (!mTempFile.renameTo(mFile)) {
+            throw new IOException("Couldn't rename " + mTempFile + " to " + mFile);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //nothing we can do
+        }
+    }
+
+    /**
+     * A set of changes, applied to our values all at once
+     */
+    public class Editor {
+
+        //null for a removal
+        private final Map<String, String> mChanges = new HashMap<>();
+
+        public Editor putString(String key, @Nullable String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, String.valueOf(value));
+            return this;
+        }
+
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        /**
+         * Our changes can be read straight away, they're written to disk in the background
+         */
+        public void apply() {
+            synchronized (PreferenceStore.this) {
+                Map<String, String> values = load();
+                for (Map.Entry<String, String> change : mChanges.entrySet()) {
+                    if (change.getValue() == null) {
+                        values.remove(change.getKey());
+                    } else {
+                        values.put(change.getKey(), change.getValue());
+                    }
+                }
+                scheduleWrite();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.willblaschko.android.alexa.utility;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The thread pools the library runs its background work on, one per kind of traffic so they can't hold each other up:
+ * a burst of slow event POSTs fills up the events queue, not the one our voice requests wait in.
+ *
+ * Each pool is created the first time it's used, so {@link #configure(Traffic, BoundedExecutor.Config)} should be called
+ * before then (in Application.onCreate()) to change it.
+ */
+public class TrafficExecutors {
+
+    public enum Traffic {
+        /**
+         * Sending the user's speech (or text) and reading the response, the user is waiting on these
+         */
+        VOICE_UPLOAD,
+        /**
+         * Sending events, see {@link com.willblaschko.android.alexa.connection.EventQueue}
+         */
+        EVENTS,
+        /**
+         * Watching playback progress while audio plays
+         */
+        PLAYBACK_MONITOR
+    }
+
+    private static final Map<Traffic, BoundedExecutor.Config> mConfigs = new EnumMap<>(Traffic.class);
+    private static final Map<Traffic, BoundedExecutor> mExecutors = new EnumMap<>(Traffic.class);
+
+    static {
+        //a voice request is usually alone, the second thread lets a new one start while the last is still being read
+        mConfigs.put(Traffic.VOICE_UPLOAD, new BoundedExecutor.Config()
+                .setThreads(2, 2)
+                .setQueueCapacity(4)
+                .setThreadPriority(Thread.MAX_PRIORITY - 1));
+        //events go out one at a time and in order, the EventQueue does the queueing
+        mConfigs.put(Traffic.EVENTS, new BoundedExecutor.Config()
+                .setThreads(1, 1)
+                .setQueueCapacity(16));
+        //one loop per playing item, the next item's loop shouldn't have to wait for the last one to notice it's done
+        mConfigs.put(Traffic.PLAYBACK_MONITOR, new BoundedExecutor.Config()
+                .setThreads(2, 2)
+                .setQueueCapacity(2)
+                .setThreadPriority(Thread.NORM_PRIORITY - 1)
+                .setRejectionPolicy(new ThreadPoolExecutor.DiscardOldestPolicy()));
+    }
+
+    private TrafficExecutors() {
+    }
+
+    /**
+     * Replace the configuration of a pool, this has to happen before the pool is first used
+     * @throws IllegalStateException if the pool has already been created
+     */
+    public static synchronized void configure(Traffic traffic, BoundedExecutor.Config config) {
+        if (mExecutors.containsKey(traffic)) {
+            throw new IllegalStateException(traffic + " executor is already running");
+        }
+        mConfigs.put(traffic, config);
+    }
+
+    /**
+     * @return the pool for this kind of traffic, created the first time it's asked for
+     */
+    public static synchronized BoundedExecutor get(Traffic traffic) {
+        BoundedExecutor executor = mExecutors.get(traffic);
+        if (executor == null) {
+            executor = new BoundedExecutor("Alexa-" + traffic.name().toLowerCase(), mConfigs.get(traffic));
+            mExecutors.put(traffic, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * @return a line per pool that's running, with its queue and wait metrics
+     */
+    public static synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (BoundedExecutor executor : mExecutors.values()) {
+            builder.append(executor).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -8,6 +8,12 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.widget.Toast;
 
+import com.willblaschko.android.alexa.AlexaManager;
+import com.willblaschko.android.alexa.AuthorizationManager;
+import com.willblaschko.android.alexa.TokenManager;
+
+import java.io.File;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -17,7 +23,18 @@ import java.util.UUID;
  */
 public class Util {
     private static SharedPreferences mPreferences;
+    private static PreferenceStore mStore;
     public static final String IDENTIFIER = "identifier";
+    private static final String STORE_FILE = "alexa_preferences.json";
+    //the keys we used to keep in the default shared preferences, which belong to the app as well as to us
+    private static final String[] MIGRATED_KEYS = {
+            TokenManager.PREF_ACCESS_TOKEN,
+            TokenManager.PREF_REFRESH_TOKEN,
+            TokenManager.PREF_TOKEN_EXPIRES,
+            AlexaManager.KEY_URL_ENDPOINT,
+            AuthorizationManager.CODE_VERIFIER,
+            IDENTIFIER
+    };
 
     /**
      * Show an authorization toast on the main thread to make sure the user sees it
@@ -47,8 +64,44 @@ public class Util {
         return mPreferences;
     }
 
+    /**
+     * Get the store our auth and endpoint state is kept in, the first time it's asked for it's read in the background,
+     * and anything we'd saved to our shared preferences before is copied over
+     * @param context local/application context
+     * @return our store
+     */
+    public static synchronized PreferenceStore getStore(Context context) {
+        if (mStore == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), STORE_FILE);
+            boolean existed = file.exists();
+            mStore = new PreferenceStore(file);
+            if (!existed) {
+                migrate(getPreferences(context), mStore);
+            } else {
+                mStore.preload();
+            }
+        }
+        return mStore;
+    }
+
+    /**
+     * Copy our state out of the shared preferences we used to keep it in, only our own keys, the rest is the app's
+     */
+    private static void migrate(SharedPreferences preferences, PreferenceStore store) {
+        Map<String, ?> values = preferences.getAll();
+        PreferenceStore.Editor editor = store.edit();
+        for (String key : MIGRATED_KEYS) {
+            Object value = values.get(key);
+            if (value instanceof String || value instanceof Long) {
+                editor.putString(key, String.valueOf(value));
+            }
+        }
+        editor.apply();
+    }
+
     public static String getIdentifier(){
-        return (mPreferences != null) ? mPreferences.getString(IDENTIFIER, "") : "";
+        PreferenceStore store = mStore;
+        return (store != null) ? store.getString(IDENTIFIER, "") : "";
     }
 
     public static String getUuid(){
@@ -0,0 +1,112 @@
+package com.willblaschko.android.alexa.utility;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on a plain JVM, the store doesn't need Android
+ */
+public class PreferenceStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliedValuesCanBeReadStraightAway() throws Exception {
+        PreferenceStore store = new PreferenceStore(new File(folder.getRoot(), "store.json"));
+        store.edit().putString("token", "abc").putLong("expires", 42).apply();
+
+        assertEquals("abc", store.getString("token", null));
+        assertEquals(42, store.getLong("expires", 0));
+        assertTrue(store.contains("token"));
+        assertEquals("default", store.getString("missing", "default"));
+        //don't leave our write running after the folder's gone
+        store.flush();
+    }
+
+    @Test
+    public void flushedValuesAreReadBackByANewStore() throws Exception {
+        File file = new File(folder.getRoot(), "store.json");
+        PreferenceStore store = new PreferenceStore(file);
+        store.edit().putString("token", "abc").putString("endpoint", "https://example.com").apply();
+        store.edit().remove("endpoint").apply();
+        store.flush();
+
+        assertTrue(file.exists());
+        //the temp file was renamed over our file
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        PreferenceStore reopened = new PreferenceStore(file);
+        assertEquals("abc", reopened.getString("token", null));
+        assertFalse(reopened.contains("endpoint"));
+    }
+
+    @Test
+    public void burstOfEditsEndsWithTheLastValues() throws Exception {
+        File file = new File(folder.getRoot(), "store.json");
+        PreferenceStore store = new PreferenceStore(file);
+        for (int i = 0; i < 1000; i++) {
+            store.edit().putLong("count", i).apply();
+        }
+        store.flush();
+
+        assertEquals(999, new PreferenceStore(file).getLong("count", -1));
+    }
+
+    @Test
+    public void leftoverTempFileIsIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "store.json");
+        PreferenceStore store = new PreferenceStore(file);
+        store.edit().putString("token", "good").apply();
+        store.flush();
+
+        //a write that died before it was renamed into place
+        File temp = new File(file.getPath() + ".tmp");
+        write(temp, "{\"token\":\"half wri");
+
+        PreferenceStore reopened = new PreferenceStore(file);
+        assertEquals("good", reopened.getString("token", null));
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void corruptFileStartsEmpty() throws Exception {
+        File file = new File(folder.getRoot(), "store.json");
+        write(file, "not json");
+
+        PreferenceStore store = new PreferenceStore(file);
+        assertNull(store.getString("token", null));
+
+        store.edit().putString("token", "new").apply();
+        store.flush();
+        assertEquals("new", new PreferenceStore(file).getString("token", null));
+    }
+
+    @Test
+    public void preloadReadsTheFile() throws Exception {
+        File file = new File(folder.getRoot(), "store.json");
+        write(file, "{\"token\":\"abc\",\"cleared\":null}");
+
+        PreferenceStore store = new PreferenceStore(file);
+        store.preload();
+        assertEquals("abc", store.getString("token", null));
+        assertFalse(store.contains("cleared"));
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -25,9 +25,10 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
     private static final int RESOLUTION = AudioFormat.ENCODING_PCM_16BIT;
     private static final int BUFFER_SIZE_MUTLIPLIER = 4; // was: 2
 
-    private SpeechRecord mRecorder = null;
+    // How much of the recording we keep by default
+    public static final int DEFAULT_WINDOW_SECONDS = 10;
 
-    private double mAvgEnergy = 0;
+    private SpeechRecord mRecorder = null;
 
     private final int mSampleRate;
     private final int mOneSec;
@@ -35,28 +36,41 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
     // Recorder state
     private State mState;
 
-    // The complete space into which the recording in written.
-    // Its maximum length is about:
-    // 2 (bytes) * 1 (channels) * 30 (max rec time in seconds) * 44100 (times per second) = 2 646 000 bytes
-    // but typically is:
-    // 2 (bytes) * 1 (channels) * 20 (max rec time in seconds) * 16000 (times per second) = 640 000 bytes
-    private final byte[] mRecording;
+    // The most recent window of the recording, e.g.
+    // 2 (bytes) * 1 (channels) * 10 (window in seconds) * 16000 (times per second) = 320 000 bytes
+    // rounded up to a power of two. Sessions can be any length, only the window is kept.
+    private final AudioRingBuffer mRecording;
+
+    // The position the recording starts at, moved up by consumeRecordingAndTruncate()
+    private volatile long mStart = 0;
 
-    // TODO: use: mRecording.length instead
-    private int mRecordedLength = 0;
+    // The read cursor of consumeRecording(), other consumers get their own with newCursor()
+    private final AudioRingBuffer.Cursor mConsumer;
 
-    // The number of bytes the client has already consumed
-    private int mConsumedLength = 0;
+    // Finds where speech starts and ends, fed on the recorder thread
+    private final VoiceActivityDetector mVad;
+
+    // Measures each chunk as it's recorded, so the level is there to read rather than worked out from the recording
+    private final LevelMeter mLevelMeter;
 
     // Buffer for output
     private byte[] mBuffer;
 
     protected AbstractAudioRecorder(int audioSource, int sampleRate) {
+        this(audioSource, sampleRate, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param windowSeconds how much of the recording to keep, consumers that fall further behind than this lose audio
+     */
+    protected AbstractAudioRecorder(int audioSource, int sampleRate, int windowSeconds) {
         mSampleRate = sampleRate;
         // E.g. 1 second of 16kHz 16-bit mono audio takes 32000 bytes.
         mOneSec = RESOLUTION_IN_BYTES * CHANNELS * mSampleRate;
-        // TODO: replace 35 with the max length of the recording
-        mRecording = new byte[mOneSec * 35];
+        mRecording = new AudioRingBuffer(mOneSec * windowSeconds);
+        mConsumer = mRecording.newCursor();
+        mVad = new VoiceActivityDetector(sampleRate);
+        mLevelMeter = new LevelMeter(sampleRate);
     }
 
 
@@ -90,11 +104,9 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
      *
      * @return bytes that have been recorded since this method was last called
      */
-    public synchronized byte[] consumeRecordingAndTruncate() {
-        int len = getConsumedLength();
-        byte[] bytes = getCurrentRecording(len);
-        setRecordedLength(0);
-        setConsumedLength(0);
+    public byte[] consumeRecordingAndTruncate() {
+        byte[] bytes = mConsumer.readAvailable();
+        mStart = mConsumer.getPosition();
         return bytes;
     }
 
@@ -105,11 +117,12 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
 
     /**
      * Checking of the read status.
-     * The total recording array has been pre-allocated (e.g. for 35 seconds of audio).
-     * If it gets full (status == -5) then the recording is stopped.
      */
     protected int getStatus(int numOfBytes, int len) {
-        Log.i("Read bytes: request/actual: " + len + "/" + numOfBytes);
+        // Called for every frame, don't build the message unless it's logged
+        if (Log.DEBUG) {
+            Log.i("Read bytes: request/actual: " + len + "/" + numOfBytes);
+        }
         if (numOfBytes < 0) {
             Log.e("AudioRecord error: " + numOfBytes);
             return numOfBytes;
@@ -120,9 +133,6 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
         } else if (numOfBytes == 0) {
             Log.e("Read zero bytes");
             return -200;
-        } else if (mRecording.length < mRecordedLength + numOfBytes) {
-            Log.e("Recorder buffer overflow: " + mRecordedLength);
-            return -300;
         }
         return 0;
     }
@@ -136,10 +146,10 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
         int numOfBytes = recorder.read(buffer, 0, len);
         int status = getStatus(numOfBytes, len);
         if (status == 0 && numOfBytes >= 0) {
-            // arraycopy(Object src, int srcPos, Object dest, int destPos, int length)
             // numOfBytes <= len, typically == len, but at the end of the recording can be < len.
-            System.arraycopy(buffer, 0, mRecording, mRecordedLength, numOfBytes);
-            mRecordedLength += len;
+            mRecording.write(buffer, 0, numOfBytes);
+            mVad.process(buffer, 0, numOfBytes);
+            mLevelMeter.process(buffer, 0, numOfBytes);
         }
         return status;
     }
@@ -158,10 +168,10 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
 
 
     /**
-     * @return bytes that have been recorded since the beginning
+     * @return bytes that have been recorded since the beginning, or the last window of them for a longer recording
      */
     public byte[] getCompleteRecording() {
-        return getCurrentRecording(0);
+        return mRecording.newCursorAt(mStart).readAvailable();
     }
 
 
@@ -178,36 +188,58 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
     }
 
     /**
+     * Reads through our own cursor, so it should be called by one consumer only, any others should use
+     * {@link #newCursor()}.
+     *
      * @return bytes that have been recorded since this method was last called
      */
-    public synchronized byte[] consumeRecording() {
-        byte[] bytes = getCurrentRecording(mConsumedLength);
-        mConsumedLength = mRecordedLength;
+    public byte[] consumeRecording() {
+        byte[] bytes = mConsumer.readAvailable();
+        Log.i("Consumed up to: " + mConsumer.getPosition() + ": " + bytes.length + " bytes");
         return bytes;
     }
 
-    protected byte[] getCurrentRecording(int startPos) {
-        int len = getLength() - startPos;
-        byte[] bytes = new byte[len];
-        System.arraycopy(mRecording, startPos, bytes, 0, len);
-        Log.i("Copied from: " + startPos + ": " + bytes.length + " bytes");
-        return bytes;
+    /**
+     * @return a read cursor of your own, starting with the audio recorded next
+     */
+    public AudioRingBuffer.Cursor newCursor() {
+        return mRecording.newCursor();
     }
 
-    protected int getConsumedLength() {
-        return mConsumedLength;
+    /**
+     * A cursor that starts with some of the audio recorded before it was asked for, so a recorder that's kept running
+     * can catch the start of an utterance that began before the user pressed the button.
+     *
+     * @param preRollMillis how much of the recent audio to include, less if we haven't recorded that much
+     * @return a read cursor of your own, starting preRollMillis before the audio recorded next
+     */
+    public AudioRingBuffer.Cursor newCursor(int preRollMillis) {
+        // Whole samples
+        long preRoll = ((long) mOneSec * preRollMillis / 1000) & ~1L;
+        return mRecording.newCursorAt(mRecording.getWritten() - preRoll);
     }
 
-    protected void setConsumedLength(int len) {
-        mConsumedLength = len;
+    /**
+     * @return the recording, for cursors that start somewhere else
+     */
+    public AudioRingBuffer getRecording() {
+        return mRecording;
     }
 
-    protected void setRecordedLength(int len) {
-        mRecordedLength = len;
+    /**
+     * @return the number of bytes recorded since the beginning (or the last truncate), which can be more than we keep
+     */
+    public int getLength() {
+        return (int) Math.min(Integer.MAX_VALUE, mRecording.getWritten() - mStart);
     }
 
-    public int getLength() {
-        return mRecordedLength;
+
+    /**
+     * @return the voice activity detector the recording is fed through, its positions are positions in
+     * {@link #getRecording()}
+     */
+    public VoiceActivityDetector getVoiceActivityDetector() {
+        return mVad;
     }
 
 
@@ -215,9 +247,15 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
      * @return <code>true</code> iff a speech-ending pause has occurred at the end of the recorded data
      */
     public boolean isPausing() {
-        double pauseScore = getPauseScore();
-        Log.i("Pause score: " + pauseScore);
-        return pauseScore > 7;
+        return mVad.isPausing();
+    }
+
+
+    /**
+     * @return the level meter the recording is fed through, for RMS, peak and smoothed levels in dBFS
+     */
+    public LevelMeter getLevelMeter() {
+        return mLevelMeter;
     }
 
 
@@ -225,8 +263,8 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
      * @return volume indicator that shows the average volume of the last read buffer
      */
     public float getRmsdb() {
-        long sumOfSquares = getRms(mRecordedLength, mBuffer.length);
-        double rootMeanSquare = Math.sqrt(sumOfSquares / (mBuffer.length / 2));
+        // The RMS in sample units
+        double rootMeanSquare = mLevelMeter.getRms() * 32768.0;
         if (rootMeanSquare > 1) {
             // TODO: why 10?
             return (float) (10 * Math.log10(rootMeanSquare));
@@ -235,34 +273,13 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
     }
 
 
-    /**
-     * <p>In order to calculate if the user has stopped speaking we take the
-     * data from the last second of the recording, map it to a number
-     * and compare this number to the numbers obtained previously. We
-     * return a confidence score (0-INF) of a longer pause having occurred in the
-     * speech input.</p>
-     * <p/>
-     * <p>TODO: base the implementation on some well-known technique.</p>
-     *
-     * @return positive value which the caller can use to determine if there is a pause
-     */
-    private double getPauseScore() {
-        long t2 = getRms(mRecordedLength, mOneSec);
-        if (t2 == 0) {
-            return 0;
-        }
-        double t = mAvgEnergy / t2;
-        mAvgEnergy = (2 * mAvgEnergy + t2) / 3;
-        return t;
-    }
-
-
     /**
      * <p>Stops the recording (if needed) and releases the resources.
      * The object can no longer be used and the reference should be
      * set to null after a call to release().</p>
      */
     public synchronized void release() {
+        closeRecording();
         if (mRecorder != null) {
             if (mRecorder.getRecordingState() == SpeechRecord.RECORDSTATE_RECORDING) {
                 stop();
@@ -280,9 +297,12 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
             mRecorder.startRecording();
             if (mRecorder.getRecordingState() == SpeechRecord.RECORDSTATE_RECORDING) {
                 setState(State.RECORDING);
+                final SpeechRecord recorder = mRecorder;
                 new Thread() {
                     public void run() {
-                        recorderLoop(mRecorder);
+                        recorderLoop(recorder);
+                        // Nothing more is coming, readers blocked on the recording get the end of the stream
+                        closeRecording();
                     }
                 }.start();
             } else {
@@ -325,38 +345,13 @@ public abstract class AbstractAudioRecorder implements AudioRecorder {
     }
 
 
-    private long getRms(int end, int span) {
-        int begin = end - span;
-        if (begin < 0) {
-            begin = 0;
-        }
-        // make sure begin is even
-        if (0 != (begin % 2)) {
-            begin++;
-        }
-
-        long sum = 0;
-        for (int i = begin; i < end; i += 2) {
-            short curSample = getShort(mRecording[i], mRecording[i + 1]);
-            sum += curSample * curSample;
-        }
-        return sum;
-    }
-
-
-    /*
-     * Converts two bytes to a short (assuming little endian).
-     * TODO: We don't need the whole short, just take the 2nd byte (the more significant one)
-     * TODO: Most Android devices are little endian?
+    /**
+     * The recording is over, close the ring buffers it was written to
      */
-    private static short getShort(byte argB1, byte argB2) {
-        //if (ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN)) {
-        //    return (short) ((argB1 << 8) | argB2);
-        //}
-        return (short) (argB1 | (argB2 << 8));
+    protected void closeRecording() {
+        mRecording.close();
     }
 
-
     protected void handleError(String msg) {
         release();
         setState(State.ERROR);
@@ -0,0 +1,359 @@
+package ee.ioc.phon.android.speechutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed window of the most recent audio, written by a single producer (the recorder thread) and read by any number of
+ * consumers, each through its own {@link Cursor}. Reads and writes take no lock: the producer never waits for a consumer, it
+ * overwrites the oldest audio once the window is full, and a consumer that falls more than a window behind skips
+ * ahead to the oldest audio that's still there (see {@link Cursor#getDropped()}).
+ * <p/>
+ * Positions are counted in bytes since the buffer was created, so they keep growing however long the session is, and
+ * only the last {@link #getWindow()} bytes of them are kept.
+ * <p/>
+ * Consumers that would rather wait than poll use {@link Cursor#readBlocking(byte[], int, int)} (or
+ * {@link Cursor#asInputStream()}), which wakes up as soon as the next frame is written and reaches the end of the stream
+ * once the producer calls {@link #close()}, or at the end the cursor was given with {@link Cursor#setEnd(long)}. The producer only takes a lock to wake a consumer up, and only when one is
+ * waiting.
+ */
+public class AudioRingBuffer {
+
+    private final byte[] mBuffer;
+    private final int mMask;
+
+    // The end of what's been written, only the producer changes it, publishing each write to the consumers
+    private volatile long mWritten = 0;
+
+    // The largest write so far, the consumers keep that far clear of the producer
+    private volatile int mMaxWrite = 0;
+
+    // Set once the producer is done, readers get the end of the stream once they've read everything
+    private volatile boolean mClosed = false;
+
+    // Consumers blocked in readBlocking() wait on this
+    private final Object mSignal = new Object();
+    private final AtomicInteger mWaiting = new AtomicInteger();
+
+    // Just for testing, run between a consumer's copy and its check of the copy, so a test can lap it mid-copy
+    Runnable mOnCopied;
+
+    /**
+     * @param window the least number of bytes to keep, rounded up to a power of two
+     */
+    public AudioRingBuffer(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window: " + window);
+        }
+        int capacity = Integer.highestOneBit(window);
+        if (capacity < window) {
+            capacity <<= 1;
+        }
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * @return how many bytes of audio we keep
+     */
+    public int getWindow() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return the position after the last byte written, i.e. the number of bytes written so far
+     */
+    public long getWritten() {
+        return mWritten;
+    }
+
+    /**
+     * Append audio, overwriting the oldest if the window is full. Only ever called from the producer thread.
+     *
+     * @throws IllegalArgumentException if len is more than half the window
+     */
+    public void write(byte[] src, int off, int len) {
+        if (len > mBuffer.length / 2) {
+            throw new IllegalArgumentException("Write of " + len + " bytes is more than half the window: " + mBuffer.length);
+        }
+        if (len > mMaxWrite) {
+            mMaxWrite = len;
+        }
+        long written = mWritten;
+        int start = (int) (written & mMask);
+        int first = Math.min(len, mBuffer.length - start);
+        System.arraycopy(src, off, mBuffer, start, first);
+        System.arraycopy(src, off + first, mBuffer, 0, len - first);
+        mWritten = written + len;
+        if (mWaiting.get() > 0) {
+            signal();
+        }
+    }
+
+    /**
+     * No more audio is coming (the recording has stopped), blocked readers get the end of the stream once they've read
+     * what's left. Only ever called from the producer thread, or once it's finished.
+     */
+    public void close() {
+        mClosed = true;
+        signal();
+    }
+
+    /**
+     * @return true once the producer has closed the stream
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return a cursor that reads from what's written next
+     */
+    public Cursor newCursor() {
+        return new Cursor(mWritten);
+    }
+
+    /**
+     * @return a cursor that starts at the oldest audio we still have
+     */
+    public Cursor newCursorAtOldest() {
+        return newCursorAt(0);
+    }
+
+    /**
+     * @param position where to start reading, if we no longer have it the cursor starts at the oldest audio we do have
+     * @return a cursor that starts at the given position
+     */
+    public Cursor newCursorAt(long position) {
+        long written = mWritten;
+        return new Cursor(Math.min(written, Math.max(position, getOldest(written))));
+    }
+
+    private void signal() {
+        synchronized (mSignal) {
+            mSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Block until there's something for the cursor to read, the stream is closed, or the cursor is cancelled
+     */
+    private void await(Cursor cursor) throws InterruptedIOException {
+        synchronized (mSignal) {
+            // The producer checks for waiters after publishing a write, so either it sees us or we see its write
+            mWaiting.incrementAndGet();
+            try {
+                while (cursor.mPosition >= mWritten && cursor.mPosition < cursor.mEnd && !mClosed && !cursor.mCancelled) {
+                    mSignal.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for audio");
+            } finally {
+                mWaiting.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The oldest position a consumer can safely read, the next write may land on anything older
+     */
+    private long getOldest(long written) {
+        return Math.max(0, written - (mBuffer.length - mMaxWrite));
+    }
+
+    /**
+     * Copy len bytes from the given position
+     *
+     * @return false if the producer may have overwritten them while we were copying
+     */
+    private boolean copy(long from, byte[] dst, int off, int len) {
+        int start = (int) (from & mMask);
+        int first = Math.min(len, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, dst, off, first);
+        System.arraycopy(mBuffer, 0, dst, off + first, len - first);
+        if (mOnCopied != null) {
+            mOnCopied.run();
+        }
+        return from >= getOldest(mWritten);
+    }
+
+    /**
+     * One consumer's place in the audio. A cursor is only used from one thread at a time, different cursors can be
+     * used from different threads.
+     */
+    public class Cursor {
+
+        private long mPosition;
+        private long mDropped = 0;
+        private volatile boolean mCancelled = false;
+        private volatile long mEnd = Long.MAX_VALUE;
+
+        private Cursor(long position) {
+            mPosition = position;
+        }
+
+        /**
+         * @return the position of the next byte this cursor reads
+         */
+        public long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * @return how many bytes this cursor has missed by falling more than a window behind
+         */
+        public long getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * @return how many bytes can be read right now
+         */
+        public int available() {
+            long written = mWritten;
+            long end = Math.min(written, mEnd);
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, end - Math.max(mPosition, getOldest(written))));
+        }
+
+        /**
+         * Read what's been written since our last read, up to len bytes, without waiting for more
+         *
+         * @return the number of bytes read, 0 if there's nothing new
+         */
+        public int read(byte[] dst, int off, int len) {
+            while (true) {
+                long written = mWritten;
+                skipDropped(written);
+                int count = (int) Math.min(len, Math.min(written, mEnd) - mPosition);
+                if (count <= 0) {
+                    return 0;
+                }
+                if (copy(mPosition, dst, off, count)) {
+                    mPosition += count;
+                    return count;
+                }
+                // The producer lapped us while we were copying, start again from what's left
+            }
+        }
+
+        /**
+         * Read what's been written since our last read, up to len bytes, waiting for the next write if there's nothing
+         * new yet
+         *
+         * @return the number of bytes read, or -1 at the end of the stream
+         * @throws InterruptedIOException if the cursor is cancelled, or the thread is interrupted, while we wait
+         */
+        public int readBlocking(byte[] dst, int off, int len) throws InterruptedIOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (mCancelled) {
+                    throw new InterruptedIOException("Cancelled");
+                }
+                // Everything is written before the stream is closed, so if it was closed before this read we're done
+                boolean closed = mClosed;
+                int count = read(dst, off, len);
+                if (count > 0) {
+                    return count;
+                }
+                if (closed || mPosition >= mEnd) {
+                    return -1;
+                }
+                await(this);
+            }
+        }
+
+        /**
+         * Stop reading, a blocked {@link #readBlocking(byte[], int, int)} throws rather than waiting for more. Can be
+         * called from any thread.
+         */
+        public void cancel() {
+            mCancelled = true;
+            signal();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * End this cursor's stream at the given position, e.g. where the user let go of the button, while the producer
+         * carries on recording for others. A blocked {@link #readBlocking(byte[], int, int)} gets the end of the stream
+         * once it's read up to there. Can be called from any thread.
+         */
+        public void setEnd(long position) {
+            mEnd = position;
+            signal();
+        }
+
+        /**
+         * @return where this cursor's stream ends, Long.MAX_VALUE if it goes on until the producer closes it
+         */
+        public long getEnd() {
+            return mEnd;
+        }
+
+        /**
+         * @return a stream that reads through this cursor, blocking until there's audio, closing it cancels the cursor
+         */
+        public InputStream asInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return readBlocking(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return Cursor.this.available();
+                }
+
+                @Override
+                public void close() {
+                    cancel();
+                }
+            };
+        }
+
+        /**
+         * @return everything written since our last read
+         */
+        public byte[] readAvailable() {
+            byte[] bytes = new byte[available()];
+            int count = read(bytes, 0, bytes.length);
+            if (count < bytes.length) {
+                // Some of it was overwritten before we got to it
+                byte[] read = new byte[count];
+                System.arraycopy(bytes, 0, read, 0, count);
+                return read;
+            }
+            return bytes;
+        }
+
+        /**
+         * Skip everything written so far, the next read starts with what's written next
+         */
+        public void skipToEnd() {
+            mPosition = mWritten;
+        }
+
+        private void skipDropped(long written) {
+            long oldest = getOldest(written);
+            if (mPosition < oldest) {
+                mDropped += oldest - mPosition;
+                Log.e("Audio consumer fell behind, dropped " + (oldest - mPosition) + " bytes");
+                mPosition = oldest;
+            }
+        }
+    }
+}
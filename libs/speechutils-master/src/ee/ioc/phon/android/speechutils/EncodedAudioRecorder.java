@@ -39,16 +39,24 @@ public class EncodedAudioRecorder extends AbstractAudioRecorder {
     // Time period to dequeue a buffer
     private static final long DEQUEUE_TIMEOUT = 10000;
 
-    // TODO: Use queue of byte[]
-    private final byte[] mRecordingEnc;
-    private int mRecordedEncLength = 0;
-    private int mConsumedEncLength = 0;
+    // The most recent window of the encoded recording, it's at most as big as the raw one
+    private final AudioRingBuffer mRecordingEnc;
+
+    // The read cursor of consumeRecordingEnc()
+    private final AudioRingBuffer.Cursor mConsumerEnc;
 
     private int mNumBytesSubmitted = 0;
     private int mNumBytesDequeued = 0;
 
     public EncodedAudioRecorder(int audioSource, int sampleRate) {
-        super(audioSource, sampleRate);
+        this(audioSource, sampleRate, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param windowSeconds how much of the recording to keep, see {@link AbstractAudioRecorder}
+     */
+    public EncodedAudioRecorder(int audioSource, int sampleRate, int windowSeconds) {
+        super(audioSource, sampleRate, windowSeconds);
         try {
             int bufferSize = getBufferSize();
             createRecorder(audioSource, sampleRate, bufferSize);
@@ -62,8 +70,8 @@ public class EncodedAudioRecorder extends AbstractAudioRecorder {
                 handleError(e.getMessage());
             }
         }
-        // TODO: replace 35 with the max length of the recording
-        mRecordingEnc = new byte[RESOLUTION_IN_BYTES * CHANNELS * sampleRate * 35]; // 35 sec raw
+        mRecordingEnc = new AudioRingBuffer(RESOLUTION_IN_BYTES * CHANNELS * sampleRate * windowSeconds);
+        mConsumerEnc = mRecordingEnc.newCursor();
     }
 
     public EncodedAudioRecorder(int sampleRate) {
@@ -84,23 +92,29 @@ public class EncodedAudioRecorder extends AbstractAudioRecorder {
         return "?content-type=audio/x-flac";
     }
 
-    public synchronized byte[] consumeRecordingEncAndTruncate() {
-        int len = getConsumedEncLength();
-        byte[] bytes = getCurrentRecordingEnc(len);
-        setRecordedEncLength(0);
-        setConsumedEncLength(0);
-        return bytes;
+    public byte[] consumeRecordingEncAndTruncate() {
+        return consumeRecordingEnc();
     }
 
     /**
+     * Reads through our own cursor, so it should be called by one consumer only, any others should use
+     * {@link #newCursorEnc()}.
+     *
      * @return bytes that have been recorded and encoded since this method was last called
      */
-    public synchronized byte[] consumeRecordingEnc() {
-        byte[] bytes = getCurrentRecordingEnc(getConsumedEncLength());
-        setConsumedEncLength(getRecordedEncLength());
+    public byte[] consumeRecordingEnc() {
+        byte[] bytes = mConsumerEnc.readAvailable();
+        Log.i("Consumed up to: " + mConsumerEnc.getPosition() + ": " + bytes.length + " bytes");
         return bytes;
     }
 
+    /**
+     * @return a read cursor of your own on the encoded recording, starting with what's encoded next
+     */
+    public AudioRingBuffer.Cursor newCursorEnc() {
+        return mRecordingEnc.newCursor();
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     protected void recorderLoop(SpeechRecord speechRecord) {
@@ -124,38 +138,17 @@ public class EncodedAudioRecorder extends AbstractAudioRecorder {
     }
 
 
-    private int getConsumedEncLength() {
-        return mConsumedEncLength;
-    }
-
-    private void setConsumedEncLength(int len) {
-        mConsumedEncLength = len;
-    }
-
-    private void setRecordedEncLength(int len) {
-        mRecordedEncLength = len;
-    }
-
-    private int getRecordedEncLength() {
-        return mRecordedEncLength;
-    }
-
-    private void addEncoded(byte[] buffer) {
-        int len = buffer.length;
-        if (mRecordingEnc.length >= mRecordedEncLength + len) {
-            System.arraycopy(buffer, 0, mRecordingEnc, mRecordedEncLength, len);
-            mRecordedEncLength += len;
-        } else {
-            handleError("RecorderEnc buffer overflow: " + mRecordedEncLength);
+    @Override
+    protected void closeRecording() {
+        super.closeRecording();
+        // Null if we failed before it was created
+        if (mRecordingEnc != null) {
+            mRecordingEnc.close();
         }
     }
 
-    private byte[] getCurrentRecordingEnc(int startPos) {
-        int len = getRecordedEncLength() - startPos;
-        byte[] bytes = new byte[len];
-        System.arraycopy(mRecordingEnc, startPos, bytes, 0, len);
-        Log.i("Copied from: " + startPos + ": " + bytes.length + " bytes");
-        return bytes;
+    private void addEncoded(byte[] buffer) {
+        mRecordingEnc.write(buffer, 0, buffer.length);
     }
 
     /**
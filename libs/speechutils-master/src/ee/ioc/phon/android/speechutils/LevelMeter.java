@@ -0,0 +1,217 @@
+package ee.ioc.phon.android.speechutils;
+
+/**
+ * The level of 16-bit little endian mono audio, measured once per captured chunk as it arrives, so level meters and
+ * anything else that wants to know how loud it is read the latest numbers rather than going back over the recording.
+ * <p/>
+ * For each chunk we keep its RMS and peak, both as a fraction of full scale and in dBFS, and a smoothed level with
+ * meter ballistics: it rises quickly (the attack) and falls slowly (the release), so a UI meter doesn't flicker.
+ * <p/>
+ * One thread feeds the meter (the recorder thread), and it never waits or allocates. Any thread can read the latest
+ * values, {@link #getLevel()} gives a consistent snapshot of all of them.
+ */
+public class LevelMeter {
+
+    public static final int DEFAULT_ATTACK_MILLIS = 10;
+    public static final int DEFAULT_RELEASE_MILLIS = 300;
+
+    // The level of digital silence, which would otherwise be -infinity dB
+    public static final float MIN_DB = -96;
+
+    private static final float FULL_SCALE = 32768f;
+
+    private final int mSampleRate;
+    private final int mAttackMillis;
+    private final int mReleaseMillis;
+
+    // The smoothing coefficients for the last chunk length, chunks are usually all the same length
+    private int mCoefficientSamples = -1;
+    private float mAttack;
+    private float mRelease;
+
+    // Odd while the feeding thread is updating the values below, see getLevel()
+    private volatile int mSequence = 0;
+
+    private volatile float mRms = 0;
+    private volatile float mPeak = 0;
+    private volatile float mRmsDb = MIN_DB;
+    private volatile float mPeakDb = MIN_DB;
+    private volatile float mSmoothedDb = MIN_DB;
+    private volatile long mPosition = 0;
+
+    public LevelMeter(int sampleRate) {
+        this(sampleRate, DEFAULT_ATTACK_MILLIS, DEFAULT_RELEASE_MILLIS);
+    }
+
+    /**
+     * @param attackMillis  the time constant of the smoothed level rising to a louder one
+     * @param releaseMillis the time constant of the smoothed level falling to a quieter one
+     */
+    public LevelMeter(int sampleRate, int attackMillis, int releaseMillis) {
+        mSampleRate = sampleRate;
+        mAttackMillis = attackMillis;
+        mReleaseMillis = releaseMillis;
+    }
+
+    /**
+     * Measure the next chunk of audio, a trailing odd byte is ignored. Only ever called from one thread.
+     */
+    public void process(byte[] audio, int off, int len) {
+        int samples = len / 2;
+        if (samples == 0) {
+            return;
+        }
+        long sumOfSquares = 0;
+        int peak = 0;
+        for (int i = off, end = off + 2 * samples; i < end; i += 2) {
+            int sample = (short) ((audio[i] & 0xff) | (audio[i + 1] << 8));
+            sumOfSquares += sample * sample;
+            int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+        }
+        float rms = (float) Math.sqrt((double) sumOfSquares / samples) / FULL_SCALE;
+        float peakLevel = Math.min(1f, peak / FULL_SCALE);
+        float rmsDb = toDb(rms);
+
+        if (samples != mCoefficientSamples) {
+            mCoefficientSamples = samples;
+            mAttack = toCoefficient(samples, mAttackMillis);
+            mRelease = toCoefficient(samples, mReleaseMillis);
+        }
+        float smoothedDb = mSmoothedDb;
+        smoothedDb += (rmsDb > smoothedDb ? mAttack : mRelease) * (rmsDb - smoothedDb);
+
+        // Only this thread writes, so the increments don't race
+        mSequence++;
+        mRms = rms;
+        mPeak = peakLevel;
+        mRmsDb = rmsDb;
+        mPeakDb = toDb(peakLevel);
+        mSmoothedDb = smoothedDb;
+        mPosition += len;
+        mSequence++;
+    }
+
+    /**
+     * @return the latest values, all from the same chunk
+     */
+    public Level getLevel() {
+        while (true) {
+            int sequence = mSequence;
+            if ((sequence & 1) == 0) {
+                Level level = new Level(mRms, mPeak, mRmsDb, mPeakDb, mSmoothedDb, mPosition);
+                if (mSequence == sequence) {
+                    return level;
+                }
+            }
+            // The feeding thread was updating them, it's only a few stores so try again straight away
+        }
+    }
+
+    /**
+     * @return the RMS of the last chunk as a fraction of full scale
+     */
+    public float getRms() {
+        return mRms;
+    }
+
+    /**
+     * @return the RMS of the last chunk in dBFS
+     */
+    public float getRmsDb() {
+        return mRmsDb;
+    }
+
+    /**
+     * @return the peak of the last chunk in dBFS
+     */
+    public float getPeakDb() {
+        return mPeakDb;
+    }
+
+    /**
+     * @return the smoothed level in dBFS, for meters
+     */
+    public float getSmoothedDb() {
+        return mSmoothedDb;
+    }
+
+    /**
+     * @param level a fraction of full scale
+     * @return the level in dBFS, at least {@link #MIN_DB}
+     */
+    public static float toDb(float level) {
+        return level > 0 ? Math.max(MIN_DB, (float) (20 * Math.log10(level))) : MIN_DB;
+    }
+
+    /**
+     * How far an exponential moving average with the given time constant moves towards a new value over a chunk
+     */
+    private float toCoefficient(int samples, int millis) {
+        if (millis <= 0) {
+            return 1;
+        }
+        return (float) (1 - Math.exp(-1000.0 * samples / mSampleRate / millis));
+    }
+
+    /**
+     * The level of one chunk
+     */
+    public static class Level {
+        private final float mRms;
+        private final float mPeak;
+        private final float mRmsDb;
+        private final float mPeakDb;
+        private final float mSmoothedDb;
+        private final long mPosition;
+
+        private Level(float rms, float peak, float rmsDb, float peakDb, float smoothedDb, long position) {
+            mRms = rms;
+            mPeak = peak;
+            mRmsDb = rmsDb;
+            mPeakDb = peakDb;
+            mSmoothedDb = smoothedDb;
+            mPosition = position;
+        }
+
+        /**
+         * @return the RMS as a fraction of full scale
+         */
+        public float getRms() {
+            return mRms;
+        }
+
+        /**
+         * @return the peak as a fraction of full scale
+         */
+        public float getPeak() {
+            return mPeak;
+        }
+
+        public float getRmsDb() {
+            return mRmsDb;
+        }
+
+        public float getPeakDb() {
+            return mPeakDb;
+        }
+
+        public float getSmoothedDb() {
+            return mSmoothedDb;
+        }
+
+        /**
+         * @return the end of the chunk, in bytes from the start of the audio fed to the meter
+         */
+        public long getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public String toString() {
+            return "Level[rms=" + mRmsDb + "dB, peak=" + mPeakDb + "dB, smoothed=" + mSmoothedDb + "dB]";
+        }
+    }
+}
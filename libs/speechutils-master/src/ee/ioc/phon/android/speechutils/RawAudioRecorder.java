@@ -50,7 +50,16 @@ public class RawAudioRecorder extends AbstractAudioRecorder {
      * @param sampleRate  Sample rate (e.g. 16000)
      */
     public RawAudioRecorder(int audioSource, int sampleRate) {
-        super(audioSource, sampleRate);
+        this(audioSource, sampleRate, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param audioSource   Identifier of the audio source (e.g. microphone)
+     * @param sampleRate    Sample rate (e.g. 16000)
+     * @param windowSeconds How much of the recording to keep, see {@link AbstractAudioRecorder}
+     */
+    public RawAudioRecorder(int audioSource, int sampleRate, int windowSeconds) {
+        super(audioSource, sampleRate, windowSeconds);
         try {
             int bufferSize = getBufferSize();
             int framePeriod = bufferSize / (2 * RESOLUTION_IN_BYTES * CHANNELS);
@@ -0,0 +1,280 @@
+package ee.ioc.phon.android.speechutils;
+
+/**
+ * Finds where speech starts and ends in a stream of 16-bit little endian mono audio, one fixed frame (10-30 ms) at a
+ * time. Each frame is scored by its energy, relative to an adaptive estimate of the background noise, and its
+ * zero-crossing rate, which lets the quieter fricatives at the edges of words ("s", "f") count as speech. Speech starts
+ * after a few speech frames in a row (the onset), and ends once it's been quiet for the hangover.
+ * <p/>
+ * Audio is fed in with {@link #process(byte[], int, int)}, in chunks of any size, and each sample is looked at once, so
+ * the cost per frame is the frame. It doesn't depend on Android, so it can be checked against labelled recordings on a
+ * plain JVM.
+ * <p/>
+ * One thread feeds the detector (the recorder thread), the listener is called on it. The state and the latest frame's
+ * scores can be read from any thread.
+ */
+public class VoiceActivityDetector {
+
+    public interface Listener {
+        /**
+         * @param position where the speech starts, in bytes from the start of the audio fed to the detector
+         */
+        void onSpeechStart(long position);
+
+        /**
+         * @param position where the speech ended (the end of its last speech frame), in bytes from the start of the
+         *                 audio fed to the detector
+         */
+        void onSpeechEnd(long position);
+    }
+
+    public static final int DEFAULT_FRAME_MILLIS = 20;
+    public static final int DEFAULT_ONSET_MILLIS = 60;
+    public static final int DEFAULT_HANGOVER_MILLIS = 700;
+    public static final float DEFAULT_THRESHOLD_DB = 12;
+    public static final float DEFAULT_ZCR_THRESHOLD = 0.3f;
+    // Where the noise floor starts, louder than a quiet room but well below speech close to the microphone, so speech
+    // that's already going when we start is still found, and the floor drops to a quieter background within a few frames
+    public static final float DEFAULT_INITIAL_NOISE_FLOOR_DB = -45;
+
+    // The energy of digital silence, which would otherwise be -infinity dB
+    private static final double MIN_DB = -96;
+    private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+
+    // How quickly the noise floor follows quieter frames (it's a minimum tracker, so it drops quickly), frames that
+    // aren't speech, and frames that are (slowly, so a lasting rise in the background noise isn't taken for speech forever)
+    private static final double FLOOR_DOWN = 0.3;
+    private static final double FLOOR_UP_NOISE = 0.02;
+    private static final double FLOOR_UP_SPEECH = 0.001;
+
+    private final int mSampleRate;
+    private final int mFrameSamples;
+
+    private volatile int mOnsetFrames;
+    private volatile int mHangoverFrames;
+    private volatile float mThresholdDb = DEFAULT_THRESHOLD_DB;
+    private volatile float mZcrThreshold = DEFAULT_ZCR_THRESHOLD;
+    private volatile Listener mListener;
+
+    // The frame being filled, only touched by the feeding thread
+    private long mSumOfSquares = 0;
+    private int mZeroCrossings = 0;
+    private int mSamples = 0;
+    private int mPreviousSample = 0;
+    private int mPendingByte = -1;
+    private long mPosition = 0;
+
+    // The run of speech (or silence) frames we're in
+    private int mActiveFrames = 0;
+    private int mInactiveFrames = 0;
+    private long mActiveStart = 0;
+    private long mActiveEnd = 0;
+
+    private volatile double mNoiseFloorDb = DEFAULT_INITIAL_NOISE_FLOOR_DB;
+    private volatile double mEnergyDb = MIN_DB;
+    private volatile double mZcr = 0;
+    private volatile boolean mSpeech = false;
+    private volatile boolean mSpeechEnded = false;
+    private volatile long mSpeechEndPosition = -1;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this(sampleRate, DEFAULT_FRAME_MILLIS);
+    }
+
+    /**
+     * @param frameMillis the length of a frame, between 10 and 30 ms
+     */
+    public VoiceActivityDetector(int sampleRate, int frameMillis) {
+        if (frameMillis < 10 || frameMillis > 30) {
+            throw new IllegalArgumentException("frameMillis: " + frameMillis);
+        }
+        mSampleRate = sampleRate;
+        mFrameSamples = sampleRate * frameMillis / 1000;
+        setOnsetMillis(DEFAULT_ONSET_MILLIS);
+        setHangoverMillis(DEFAULT_HANGOVER_MILLIS);
+    }
+
+    /**
+     * @param onsetMillis how much speech in a row it takes to start speech, rounded up to whole frames
+     */
+    public void setOnsetMillis(int onsetMillis) {
+        mOnsetFrames = Math.max(1, toFrames(onsetMillis));
+    }
+
+    /**
+     * @param hangoverMillis how long it has to be quiet for speech to end, rounded up to whole frames
+     */
+    public void setHangoverMillis(int hangoverMillis) {
+        mHangoverFrames = Math.max(1, toFrames(hangoverMillis));
+    }
+
+    /**
+     * @param thresholdDb how far above the noise floor a frame's energy has to be for it to be speech, a frame with a
+     *                    high zero-crossing rate only needs half as much
+     */
+    public void setThresholdDb(float thresholdDb) {
+        mThresholdDb = thresholdDb;
+    }
+
+    /**
+     * @param zcrThreshold the share of samples that change sign from the one before, above which a frame sounds like
+     *                     a fricative rather than voiced speech or hum
+     */
+    public void setZcrThreshold(float zcrThreshold) {
+        mZcrThreshold = zcrThreshold;
+    }
+
+    /**
+     * @param noiseFloorDb where the noise floor starts, in dB relative to full scale, only has an effect before any
+     *                     audio is fed in
+     */
+    public void setInitialNoiseFloorDb(float noiseFloorDb) {
+        if (mPosition == 0) {
+            mNoiseFloorDb = noiseFloorDb;
+        }
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getFrameSamples() {
+        return mFrameSamples;
+    }
+
+    /**
+     * @return true while we're in speech, including its hangover
+     */
+    public boolean isSpeech() {
+        return mSpeech;
+    }
+
+    /**
+     * @return true once speech has started and then ended, until the next speech starts
+     */
+    public boolean isPausing() {
+        return mSpeechEnded;
+    }
+
+    /**
+     * @return where the last speech ended (see {@link Listener#onSpeechEnd(long)}), -1 if none has yet, lets a
+     * consumer that joined a long running detector tell its speech's end from one that came before
+     */
+    public long getSpeechEndPosition() {
+        return mSpeechEndPosition;
+    }
+
+    /**
+     * @return the background noise level we're comparing frames against, in dB relative to full scale
+     */
+    public double getNoiseFloorDb() {
+        return mNoiseFloorDb;
+    }
+
+    /**
+     * @return the energy of the last frame, in dB relative to full scale
+     */
+    public double getEnergyDb() {
+        return mEnergyDb;
+    }
+
+    /**
+     * @return the zero-crossing rate of the last frame
+     */
+    public double getZcr() {
+        return mZcr;
+    }
+
+    /**
+     * @return how many bytes of audio we've been fed
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Feed the next chunk of audio. Only ever called from one thread.
+     */
+    public void process(byte[] audio, int off, int len) {
+        int end = off + len;
+        int i = off;
+        if (mPendingByte >= 0 && i < end) {
+            // A sample split across two chunks
+            mPosition++;
+            addSample((short) (mPendingByte | (audio[i++] << 8)));
+            mPendingByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            mPosition += 2;
+            addSample((short) ((audio[i] & 0xff) | (audio[i + 1] << 8)));
+        }
+        if (i < end) {
+            mPosition++;
+            mPendingByte = audio[i] & 0xff;
+        }
+    }
+
+    private void addSample(int sample) {
+        mSumOfSquares += sample * sample;
+        if ((sample < 0) != (mPreviousSample < 0)) {
+            mZeroCrossings++;
+        }
+        mPreviousSample = sample;
+        if (++mSamples == mFrameSamples) {
+            endFrame();
+        }
+    }
+
+    private void endFrame() {
+        double meanSquare = (double) mSumOfSquares / mSamples;
+        double energyDb = meanSquare > 0 ? Math.max(MIN_DB, 10 * Math.log10(meanSquare / FULL_SCALE_SQUARED)) : MIN_DB;
+        double zcr = (double) mZeroCrossings / mSamples;
+        long frameEnd = mPosition;
+        long frameStart = frameEnd - 2 * mSamples;
+        mSumOfSquares = 0;
+        mZeroCrossings = 0;
+        mSamples = 0;
+
+        double floor = mNoiseFloorDb;
+        float threshold = mThresholdDb;
+        boolean active = energyDb >= floor + threshold
+                || (energyDb >= floor + threshold / 2 && zcr >= mZcrThreshold);
+
+        double rate = energyDb < floor ? FLOOR_DOWN : (active ? FLOOR_UP_SPEECH : FLOOR_UP_NOISE);
+        mNoiseFloorDb = floor + rate * (energyDb - floor);
+        mEnergyDb = energyDb;
+        mZcr = zcr;
+
+        if (active) {
+            if (mActiveFrames++ == 0) {
+                mActiveStart = frameStart;
+            }
+            mInactiveFrames = 0;
+            mActiveEnd = frameEnd;
+            if (!mSpeech && mActiveFrames >= mOnsetFrames) {
+                mSpeech = true;
+                mSpeechEnded = false;
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onSpeechStart(mActiveStart);
+                }
+            }
+        } else {
+            mActiveFrames = 0;
+            if (mSpeech && ++mInactiveFrames >= mHangoverFrames) {
+                mSpeech = false;
+                mSpeechEndPosition = mActiveEnd;
+                mSpeechEnded = true;
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onSpeechEnd(mActiveEnd);
+                }
+            }
+        }
+    }
+
+    private int toFrames(int millis) {
+        int frameMillis = mFrameSamples * 1000 / mSampleRate;
+        return (millis + frameMillis - 1) / frameMillis;
+    }
+}
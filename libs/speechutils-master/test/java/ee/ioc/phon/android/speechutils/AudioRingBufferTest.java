@@ -0,0 +1,298 @@
+package ee.ioc.phon.android.speechutils;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on a plain JVM. Every byte written is its position in the stream (truncated to a byte), so any read can be
+ * checked against where the cursor says it came from.
+ */
+public class AudioRingBufferTest {
+
+    @Test
+    public void readsAcrossTheWrap() {
+        AudioRingBuffer buffer = new AudioRingBuffer(16);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        byte[] dst = new byte[6];
+        for (int i = 0; i < 20; i++) {
+            write(buffer, 6);
+            long position = cursor.getPosition();
+            assertEquals(6, cursor.read(dst, 0, dst.length));
+            assertBytes(dst, 6, position);
+        }
+        assertEquals(0, cursor.read(dst, 0, dst.length));
+        assertEquals(0, cursor.getDropped());
+    }
+
+    @Test
+    public void windowIsRoundedUpToAPowerOfTwo() {
+        assertEquals(16, new AudioRingBuffer(9).getWindow());
+        assertEquals(16, new AudioRingBuffer(16).getWindow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWritesOfMoreThanHalfTheWindow() {
+        write(new AudioRingBuffer(16), 9);
+    }
+
+    @Test
+    public void cursorThatFallsBehindSkipsToTheOldest() {
+        AudioRingBuffer buffer = new AudioRingBuffer(16);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        for (int i = 0; i < 4; i++) {
+            write(buffer, 8);
+        }
+        //the next write of up to 8 bytes may land on anything older than 32 - (16 - 8)
+        assertEquals(8, cursor.available());
+
+        byte[] dst = new byte[16];
+        assertEquals(8, cursor.read(dst, 0, dst.length));
+        assertBytes(dst, 8, 24);
+        assertEquals(24, cursor.getDropped());
+        assertEquals(32, cursor.getPosition());
+    }
+
+    @Test
+    public void readThatIsLappedMidCopyStartsAgainFromTheOldest() {
+        final AudioRingBuffer buffer = new AudioRingBuffer(16);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        write(buffer, 8);
+        buffer.mOnCopied = new Runnable() {
+            @Override
+            public void run() {
+                //the producer overwrites what we've just copied, once
+                buffer.mOnCopied = null;
+                write(buffer, 8);
+                write(buffer, 8);
+            }
+        };
+
+        byte[] dst = new byte[16];
+        assertEquals(8, cursor.read(dst, 0, dst.length));
+        assertBytes(dst, 8, 16);
+        assertEquals(16, cursor.getDropped());
+        assertEquals(24, cursor.getPosition());
+    }
+
+    @Test
+    public void newCursorAtIsClampedToWhatWeHave() {
+        AudioRingBuffer buffer = new AudioRingBuffer(16);
+        for (int i = 0; i < 5; i++) {
+            write(buffer, 4);
+        }
+        //20 written, the oldest we can read is 20 - (16 - 4)
+        assertEquals(8, buffer.newCursorAtOldest().getPosition());
+        assertEquals(8, buffer.newCursorAt(0).getPosition());
+        assertEquals(12, buffer.newCursorAt(12).getPosition());
+        assertEquals(20, buffer.newCursorAt(100).getPosition());
+        assertEquals(20, buffer.newCursor().getPosition());
+    }
+
+    @Test
+    public void readStopsAtTheEnd() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(64);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        write(buffer, 10);
+        cursor.setEnd(6);
+        assertEquals(6, cursor.available());
+
+        byte[] dst = new byte[10];
+        assertEquals(6, cursor.readBlocking(dst, 0, dst.length));
+        assertBytes(dst, 6, 0);
+        assertEquals(-1, cursor.readBlocking(dst, 0, dst.length));
+        //the producer carries on for everyone else
+        assertEquals(10, buffer.newCursorAtOldest().available());
+    }
+
+    @Test(timeout = 5000)
+    public void setEndWakesABlockedReader() throws Exception {
+        final AudioRingBuffer buffer = new AudioRingBuffer(64);
+        final AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        Reader reader = startBlockedReader(cursor);
+
+        cursor.setEnd(buffer.getWritten());
+
+        reader.join(2000);
+        assertEquals(Integer.valueOf(-1), reader.result.get());
+    }
+
+    @Test(timeout = 5000)
+    public void closeWakesABlockedReader() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(64);
+        Reader reader = startBlockedReader(buffer.newCursor());
+
+        buffer.close();
+
+        reader.join(2000);
+        assertEquals(Integer.valueOf(-1), reader.result.get());
+        assertTrue(buffer.isClosed());
+    }
+
+    @Test(timeout = 5000)
+    public void cancelWakesABlockedReader() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(64);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        Reader reader = startBlockedReader(cursor);
+
+        cursor.cancel();
+
+        reader.join(2000);
+        assertTrue(reader.error.get() instanceof InterruptedIOException);
+        assertTrue(cursor.isCancelled());
+    }
+
+    @Test(timeout = 5000)
+    public void writeWakesABlockedReader() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(64);
+        Reader reader = startBlockedReader(buffer.newCursor());
+
+        write(buffer, 4);
+
+        reader.join(2000);
+        assertEquals(Integer.valueOf(4), reader.result.get());
+    }
+
+    @Test(timeout = 10000)
+    public void blockedReaderGetsEverythingAProducerWrites() throws Exception {
+        final int chunks = 500;
+        //room for all of it, so however the threads are scheduled the reader is never lapped
+        final AudioRingBuffer buffer = new AudioRingBuffer(chunks * 320);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < chunks; i++) {
+                    write(buffer, 320);
+                    if (i % 50 == 0) {
+                        //let the reader catch up and block
+                        sleep(5);
+                    }
+                }
+                buffer.close();
+            }
+        });
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        producer.start();
+
+        byte[] dst = new byte[1000];
+        long total = 0;
+        int read;
+        while ((read = cursor.readBlocking(dst, 0, dst.length)) != -1) {
+            assertBytes(dst, read, cursor.getPosition() - read);
+            total += read;
+        }
+        producer.join();
+
+        assertEquals(chunks * 320, total);
+        assertEquals(0, cursor.getDropped());
+    }
+
+    @Test(timeout = 20000)
+    public void readerThatCantKeepUpOnlyGetsIntactAudio() throws Exception {
+        //a small window and a reader that can't keep up, so the producer keeps lapping it
+        final AudioRingBuffer buffer = new AudioRingBuffer(64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    write(buffer, 1 + i % 32);
+                }
+                buffer.close();
+            }
+        });
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        producer.start();
+
+        byte[] dst = new byte[64];
+        int read;
+        while ((read = cursor.readBlocking(dst, 0, dst.length)) != -1) {
+            assertBytes(dst, read, cursor.getPosition() - read);
+        }
+        producer.join();
+
+        assertEquals(buffer.getWritten(), cursor.getPosition());
+        assertTrue("the reader was never lapped", cursor.getDropped() > 0);
+    }
+
+    @Test
+    public void inputStreamReadsThroughTheCursor() throws Exception {
+        AudioRingBuffer buffer = new AudioRingBuffer(64);
+        AudioRingBuffer.Cursor cursor = buffer.newCursor();
+        write(buffer, 3);
+        buffer.close();
+
+        InputStream in = cursor.asInputStream();
+        assertEquals(0, in.read());
+        assertEquals(1, in.read());
+        assertEquals(2, in.read());
+        assertEquals(-1, in.read());
+        in.close();
+        assertTrue(cursor.isCancelled());
+    }
+
+    /**
+     * Write the next len bytes of the stream
+     */
+    private static void write(AudioRingBuffer buffer, int len) {
+        long position = buffer.getWritten();
+        byte[] src = new byte[len];
+        for (int i = 0; i < len; i++) {
+            src[i] = (byte) (position + i);
+        }
+        buffer.write(src, 0, len);
+    }
+
+    private static void assertBytes(byte[] dst, int len, long position) {
+        for (int i = 0; i < len; i++) {
+            if (dst[i] != (byte) (position + i)) {
+                fail("Byte " + (position + i) + " was " + dst[i]);
+            }
+        }
+    }
+
+    /**
+     * @return a thread that's blocked reading from the cursor
+     */
+    private static Reader startBlockedReader(AudioRingBuffer.Cursor cursor) throws InterruptedException {
+        Reader reader = new Reader(cursor);
+        reader.start();
+        while (reader.getState() != Thread.State.WAITING) {
+            if (!reader.isAlive()) {
+                fail("The reader didn't block");
+            }
+            Thread.sleep(1);
+        }
+        return reader;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Reader extends Thread {
+        final AtomicReference<Integer> result = new AtomicReference<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        private final AudioRingBuffer.Cursor mCursor;
+
+        Reader(AudioRingBuffer.Cursor cursor) {
+            mCursor = cursor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.set(mCursor.readBlocking(new byte[16], 0, 16));
+            } catch (Exception e) {
+                error.set(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package ee.ioc.phon.android.speechutils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on a plain JVM, the detector doesn't need Android. Each fixture is 16 kHz PCM built from labelled segments, so
+ * we know where the speech is and can check the detector finds it to within a few frames.
+ */
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    // The start and end are reported on frame boundaries, and the energy ramps in over a frame or so
+    private static final int TOLERANCE_MILLIS = 60;
+
+    @Test
+    public void findsSpeechInAQuietRoom() {
+        Fixture fixture = new Fixture(6000).noise(-60)
+                .voiced(1000, 2500)
+                .fricative(2500, 2700)
+                .voiced(4500, 5000);
+
+        //the quiet "s" at the end of the first word counts
+        assertEvents(run(fixture), "start", 1000, "end", 2700, "start", 4500, "end", 5000);
+    }
+
+    @Test
+    public void findsSpeechInANoisyRoom() {
+        Fixture fixture = new Fixture(6000).noise(-40)
+                .voiced(1000, 2500)
+                .fricative(2500, 2700)
+                .voiced(4500, 5000);
+
+        //the "s" is lost in the noise, the voiced speech isn't
+        assertEvents(run(fixture), "start", 1000, "end", 2500, "start", 4500, "end", 5000);
+    }
+
+    @Test
+    public void findsSpeechThatsGoingWhenWeStart() {
+        Fixture fixture = new Fixture(4000).noise(-60)
+                .voiced(0, 1500);
+
+        assertEvents(run(fixture), "start", 0, "end", 1500);
+    }
+
+    @Test
+    public void ignoresNoiseWithoutSpeech() {
+        assertEvents(run(new Fixture(3000).noise(-50)));
+    }
+
+    @Test
+    public void chunkSizeDoesNotMatter() {
+        Fixture fixture = new Fixture(6000).noise(-60)
+                .voiced(1000, 2500)
+                .fricative(2500, 2700)
+                .voiced(4500, 5000);
+        byte[] pcm = fixture.toPcm();
+
+        Recorder whole = new Recorder();
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        vad.setListener(whole);
+        vad.process(pcm, 0, pcm.length);
+
+        //odd sizes, so samples are split across chunks
+        Recorder chunked = new Recorder();
+        vad = new VoiceActivityDetector(SAMPLE_RATE);
+        vad.setListener(chunked);
+        for (int off = 0, i = 0; off < pcm.length; i++) {
+            int len = Math.min(pcm.length - off, 333 + i % 7);
+            vad.process(pcm, off, len);
+            off += len;
+        }
+
+        assertEquals(whole.events, chunked.events);
+        assertEquals(pcm.length, vad.getPosition());
+    }
+
+    @Test
+    public void reportsTheEndOfTheLastSpeech() {
+        Fixture fixture = new Fixture(3000).noise(-60)
+                .voiced(500, 1500);
+        byte[] pcm = fixture.toPcm();
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        assertEquals(-1, vad.getSpeechEndPosition());
+        assertFalse(vad.isPausing());
+
+        vad.process(pcm, 0, pcm.length);
+
+        assertTrue(vad.isPausing());
+        assertFalse(vad.isSpeech());
+        assertEquals(1500, toMillis(vad.getSpeechEndPosition()), TOLERANCE_MILLIS);
+        //the floor has followed the background down
+        assertEquals(-60, vad.getNoiseFloorDb(), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLongFrames() {
+        new VoiceActivityDetector(SAMPLE_RATE, 40);
+    }
+
+    private static List<Object> run(Fixture fixture) {
+        byte[] pcm = fixture.toPcm();
+        Recorder recorder = new Recorder();
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        vad.setListener(recorder);
+        vad.process(pcm, 0, pcm.length);
+        return recorder.events;
+    }
+
+    /**
+     * @param expected pairs of event name and where it should be, in ms
+     */
+    private static void assertEvents(List<Object> events, Object... expected) {
+        assertEquals("events: " + events, expected.length, events.size());
+        for (int i = 0; i < expected.length; i += 2) {
+            assertEquals("events: " + events, expected[i], events.get(i));
+            assertEquals("events: " + events, ((Integer) expected[i + 1]).doubleValue(), (Long) events.get(i + 1),
+                    TOLERANCE_MILLIS);
+        }
+    }
+
+    private static long toMillis(long position) {
+        return position * 1000 / (2 * SAMPLE_RATE);
+    }
+
+    /**
+     * Keeps the events as name, position in ms
+     */
+    private static class Recorder implements VoiceActivityDetector.Listener {
+        final List<Object> events = new ArrayList<>();
+
+        @Override
+        public void onSpeechStart(long position) {
+            events.add("start");
+            events.add(toMillis(position));
+        }
+
+        @Override
+        public void onSpeechEnd(long position) {
+            events.add("end");
+            events.add(toMillis(position));
+        }
+    }
+
+    /**
+     * Labelled audio, built up from background noise and the segments we say are speech
+     */
+    private static class Fixture {
+        // Seeded, so a failure can be reproduced
+        private final Random mRandom = new Random(1);
+        private final double[] mSamples;
+
+        Fixture(int millis) {
+            mSamples = new double[toSample(millis)];
+        }
+
+        /**
+         * White noise over the whole fixture, at the given dBFS
+         */
+        Fixture noise(double db) {
+            // Uniform noise has an RMS of its amplitude over the square root of 3
+            double amplitude = Math.pow(10, db / 20) * 32768 * Math.sqrt(3);
+            for (int i = 0; i < mSamples.length; i++) {
+                mSamples[i] += (mRandom.nextDouble() * 2 - 1) * amplitude;
+            }
+            return this;
+        }
+
+        /**
+         * A vowel-like sound: a 180 Hz voice and its second harmonic, with a syllable rate envelope
+         */
+        Fixture voiced(int fromMillis, int toMillis) {
+            for (int i = toSample(fromMillis); i < toSample(toMillis); i++) {
+                double t = (double) i / SAMPLE_RATE;
+                double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * t);
+                mSamples[i] += envelope * 6000 * (Math.sin(2 * Math.PI * 180 * t) + 0.5 * Math.sin(2 * Math.PI * 360 * t));
+            }
+            return this;
+        }
+
+        /**
+         * A quiet "s": noise that changes sign on almost every sample
+         */
+        Fixture fricative(int fromMillis, int toMillis) {
+            for (int i = toSample(fromMillis); i < toSample(toMillis); i++) {
+                mSamples[i] += mRandom.nextDouble() * 800 * (i % 2 == 0 ? 1 : -1);
+            }
+            return this;
+        }
+
+        byte[] toPcm() {
+            byte[] pcm = new byte[2 * mSamples.length];
+            for (int i = 0; i < mSamples.length; i++) {
+                short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(mSamples[i])));
+                pcm[2 * i] = (byte) sample;
+                pcm[2 * i + 1] = (byte) (sample >> 8);
+            }
+            return pcm;
+        }
+
+        private static int toSample(int millis) {
+            return millis * SAMPLE_RATE / 1000;
+        }
+    }
+}